@@ -0,0 +1,83 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import it.unimi.dsi.big.webgraph.algo.CounterArray;
+import it.unimi.dsi.big.webgraph.algo.HeapCounterArray;
+import it.unimi.dsi.util.HyperLogLogCounterArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the register maximum of two HyperLogLog counters, which is the inner loop of the
+ * propagation of DANF, and the union of two counters in a {@link CounterArray}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CounterArrayBenchmarks {
+
+    private static final int NUM_COUNTERS = 1024;
+    private static final int ELEMENTS_PER_COUNTER = 100;
+    private static final long SEED = 8516942932596937874L;
+
+    @Param({"4", "7", "10"})
+    public int log2m;
+
+    private HyperLogLogCounterArray hll;
+    private CounterArray counters;
+    private long[][] registers;
+    private long[] x, accumulator, mask;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hll = new HyperLogLogCounterArray(NUM_COUNTERS, NUM_COUNTERS * ELEMENTS_PER_COUNTER, log2m, SEED);
+        counters = new HeapCounterArray(hll);
+        SplittableRandom rand = new SplittableRandom(SEED);
+        registers = new long[NUM_COUNTERS][counters.counterLongwords()];
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            for (int element = 0; element < ELEMENTS_PER_COUNTER; element++) {
+                counters.add(i, rand.nextLong());
+            }
+            counters.getCounter(i, registers[i]);
+        }
+        x = new long[counters.counterLongwords()];
+        accumulator = new long[counters.counterLongwords()];
+        mask = new long[counters.counterLongwords()];
+    }
+
+    /**
+     * @return The index of the next counter, so that the maxima are of different counters
+     */
+    private int nextCounter() {
+        next = (next + 1) & (NUM_COUNTERS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public long[] maxAllocating() {
+        System.arraycopy(registers[nextCounter()], 0, x, 0, x.length);
+        hll.max(x, registers[nextCounter()]);
+        return x;
+    }
+
+    @Benchmark
+    public long[] maxWithScratch() {
+        System.arraycopy(registers[nextCounter()], 0, x, 0, x.length);
+        counters.max(x, registers[nextCounter()], accumulator, mask);
+        return x;
+    }
+
+    @Benchmark
+    public CounterArray union() {
+        counters.union(nextCounter(), counters, nextCounter());
+        return counters;
+    }
+}
@@ -0,0 +1,78 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.TraverseGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DANF#addEdges(EdgeBatch)} on an R-MAT graph for several partition sizes. Every
+ * iteration starts from a new DANF, and every invocation inserts the next bulk of R-MAT edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DanfBenchmarks {
+
+    private static final int SCALE = 16;
+    private static final int EDGE_FACTOR = 8;
+    private static final int BULK_SIZE = 2000;
+    private static final long SEED = 8516942932596937874L;
+
+    @Param({"100", "1000", "10000"})
+    public int partitionSize;
+
+    @Param({"3"})
+    public int h;
+
+    @Param({"7"})
+    public int log2m;
+
+    private EdgeBatch initialEdges;
+    private DANF danf;
+    /* Refilled before every invocation, so that generating it is neither timed nor allocated in the benchmark */
+    private final EdgeBatch bulk = new EdgeBatch(BULK_SIZE);
+    private SplittableRandom bulkRand;
+
+    @Setup(Level.Trial)
+    public void generateGraph() {
+        initialEdges = SyntheticGraphs.rmat(SCALE, EDGE_FACTOR << SCALE, SEED);
+    }
+
+    @Setup(Level.Iteration)
+    public void createDanf() {
+        danf = new DANF(h, log2m, new TraverseGraph(SyntheticGraphs.copy(initialEdges)), SEED)
+                .withPartitionSize(partitionSize);
+        bulkRand = new SplittableRandom(SEED + 1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDanf() {
+        danf.close();
+    }
+
+    /**
+     * Generates the next bulk. An invocation takes milliseconds, so the timestamps JMH takes around an
+     * invocation level setup don't affect the results.
+     */
+    @Setup(Level.Invocation)
+    public void generateBulk() {
+        SyntheticGraphs.rmat(bulk, SCALE, BULK_SIZE, bulkRand);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public DANF addEdges() {
+        danf.addEdges(bulk);
+        return danf;
+    }
+}
@@ -0,0 +1,93 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.SimulatedGraph;
+import it.unimi.dsi.big.webgraph.TraverseGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MutableGraph#addEdges(EdgeBatch)} of the mutable graphs, which start with the same
+ * R-MAT graph every iteration and are given the next bulk of R-MAT edges every invocation.
+ * ImmutableGraphWrapper measures the graphs with classmexer, so the benchmarks are run from the
+ * root of the project where {@code libs/classmexer.jar} is.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-javaagent:libs/classmexer.jar"})
+public class GraphMutationBenchmarks {
+
+    private static final int SCALE = 16;
+    private static final int EDGE_FACTOR = 8;
+    private static final int BULK_SIZE = 10000;
+    private static final long SEED = 8516942932596937874L;
+
+    public enum GraphType {SIMULATED, TRAVERSE, IMMUTABLE_WRAPPER}
+
+    @Param({"SIMULATED", "TRAVERSE", "IMMUTABLE_WRAPPER"})
+    public GraphType graphType;
+
+    private EdgeBatch initialEdges;
+    private MutableGraph graph;
+    /* The next bulk of R-MAT edges to add, see generateBulk() */
+    private final EdgeBatch bulk = new EdgeBatch(BULK_SIZE);
+    private SplittableRandom bulkRand;
+
+    @Setup(Level.Trial)
+    public void generateGraph() {
+        initialEdges = SyntheticGraphs.rmat(SCALE, EDGE_FACTOR << SCALE, SEED);
+    }
+
+    @Setup(Level.Iteration)
+    public void createGraph() {
+        EdgeBatch edges = SyntheticGraphs.copy(initialEdges);
+        switch (graphType) {
+            case SIMULATED:
+                graph = new SimulatedGraph();
+                graph.addEdges(edges);
+                break;
+            case TRAVERSE:
+                graph = new TraverseGraph(edges);
+                break;
+            case IMMUTABLE_WRAPPER:
+                graph = new ImmutableGraphWrapper(new TraverseGraph(edges));
+                break;
+        }
+        bulkRand = new SplittableRandom(SEED + 1);
+    }
+
+    /**
+     * Closes the ImmutableGraphWrapper, which deletes the files it stored the graph in.
+     */
+    @TearDown(Level.Iteration)
+    public void closeGraph() {
+        if(graph instanceof ImmutableGraphWrapper)
+            ((ImmutableGraphWrapper) graph).close();
+    }
+
+    /**
+     * Refills the bulk with the next R-MAT edges outside of the measured method, as in
+     * {@link DanfBenchmarks#generateBulk()}.
+     */
+    @Setup(Level.Invocation)
+    public void generateBulk() {
+        SyntheticGraphs.rmat(bulk, SCALE, BULK_SIZE, bulkRand);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public MutableGraph addEdges() {
+        graph.addEdges(bulk);
+        return graph;
+    }
+}
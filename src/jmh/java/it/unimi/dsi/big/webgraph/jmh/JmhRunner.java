@@ -0,0 +1,37 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, which reports the bytes allocated per operation,
+ * and saves the results as JSON so that runs of different releases can be compared.
+ *
+ * The first argument is the file to save the results in, default {@code jmh-results.json}. The
+ * remaining arguments are JMH options, such as a regular expression of the benchmarks to run,
+ * and all benchmarks are run if none is given.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class JmhRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String resultFile = args.length > 0 ? args[0] : "jmh-results.json";
+        String[] jmhArgs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[0];
+
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build()).run();
+    }
+}
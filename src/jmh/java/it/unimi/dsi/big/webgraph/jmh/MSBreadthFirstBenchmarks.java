@@ -0,0 +1,67 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.TraverseGraph;
+import it.unimi.dsi.big.webgraph.algo.MSBreadthFirst;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MSBreadthFirst#breadthFirstSearch(long[], MSBreadthFirst.Visitor)} from random
+ * sources of an R-MAT graph, where every search stops after {@code maxSteps} steps.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MSBreadthFirstBenchmarks {
+
+    private static final int SCALE = 18;
+    private static final int EDGE_FACTOR = 8;
+    private static final long SEED = 8516942932596937874L;
+
+    @Param({"64", "1024"})
+    public int nrSources;
+
+    @Param({"3"})
+    public int maxSteps;
+
+    private MSBreadthFirst msbfs;
+    private long[] sources;
+    private MSBreadthFirst.Visitor visitor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MutableGraph graph = new TraverseGraph(SyntheticGraphs.rmat(SCALE, EDGE_FACTOR << SCALE, SEED));
+        msbfs = new MSBreadthFirst(graph);
+
+        SplittableRandom rand = new SplittableRandom(SEED);
+        sources = new long[nrSources];
+        for (int i = 0; i < nrSources; i++) {
+            sources[i] = rand.nextLong(graph.numNodes());
+        }
+        final int steps = maxSteps;
+        visitor = (long node, BitSet bfsVisits, BitSet seen, int depth, MSBreadthFirst.Traveler traveler) -> {
+            if(depth == steps)
+                bfsVisits.clear();
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        msbfs.close();
+    }
+
+    @Benchmark
+    public BitSet[][] breadthFirstSearch() throws InterruptedException {
+        return msbfs.breadthFirstSearch(sources, visitor);
+    }
+}
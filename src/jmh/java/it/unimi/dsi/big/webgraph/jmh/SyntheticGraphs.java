@@ -0,0 +1,90 @@
+package it.unimi.dsi.big.webgraph.jmh;
+
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic graphs for the JMH benchmarks, so that every run and every release is
+ * measured on the same edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public final class SyntheticGraphs {
+
+    /* The R-MAT probabilities of the Graph500 benchmark, d = 0.05 */
+    private static final double A = 0.57, B = 0.19, C = 0.19;
+
+    private SyntheticGraphs() {
+    }
+
+    /**
+     * Generates edges by R-MAT, which gives the skewed degrees and the communities of real graphs.
+     *
+     * @param scale The nodes are 0 to 2^{@code scale} - 1
+     * @param numEdges
+     * @param seed
+     * @return The edges, which may contain duplicates and self loops
+     */
+    public static EdgeBatch rmat(int scale, int numEdges, long seed) {
+        EdgeBatch edges = new EdgeBatch(numEdges);
+        rmat(edges, scale, numEdges, new SplittableRandom(seed));
+        return edges;
+    }
+
+    /**
+     * Replaces the edges of {@code edges} with edges generated by R-MAT, which allocates nothing once
+     * {@code edges} has room for them.
+     *
+     * @param edges The batch to fill
+     * @param scale The nodes are 0 to 2^{@code scale} - 1
+     * @param numEdges
+     * @param rand
+     */
+    public static void rmat(EdgeBatch edges, int scale, int numEdges, SplittableRandom rand) {
+        edges.clear();
+        for (int i = 0; i < numEdges; i++) {
+            long from = 0, to = 0;
+            for (int bit = scale - 1; bit >= 0; bit--) {
+                double p = rand.nextDouble();
+                if(p >= A + B + C) {
+                    from |= 1L << bit;
+                    to |= 1L << bit;
+                } else if(p >= A + B) {
+                    from |= 1L << bit;
+                } else if(p >= A) {
+                    to |= 1L << bit;
+                }
+            }
+            edges.add(from, to);
+        }
+    }
+
+    /**
+     * @param numNodes The nodes are 0 to {@code numNodes} - 1
+     * @param numEdges
+     * @param seed
+     * @return Edges between uniformly random nodes
+     */
+    public static EdgeBatch uniform(long numNodes, int numEdges, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        EdgeBatch edges = new EdgeBatch(numEdges);
+        for (int i = 0; i < numEdges; i++) {
+            edges.add(rand.nextLong(numNodes), rand.nextLong(numNodes));
+        }
+        return edges;
+    }
+
+    /**
+     * @param edges
+     * @return A copy of the edges, as the graphs and DANF may reorder the batches they are given
+     */
+    public static EdgeBatch copy(EdgeBatch edges) {
+        EdgeBatch copy = new EdgeBatch(edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            copy.add(edges.from(i), edges.to(i));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,244 @@
+package it.unimi.dsi.big.webgraph;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+/**
+ * A batch of directed edges stored as two parallel arrays of sources and targets,
+ * instead of one {@link Edge} object per edge. Edges can be sorted, flipped
+ * and deduplicated in place without allocating.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class EdgeBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] from;
+    private long[] to;
+    private int size;
+
+    /**
+     * Creates an empty batch
+     */
+    public EdgeBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch with room for {@code capacity} edges
+     * @param capacity
+     */
+    public EdgeBatch(int capacity) {
+        from = new long[capacity];
+        to = new long[capacity];
+    }
+
+    private EdgeBatch(long[] from, long[] to, int size) {
+        this.from = from;
+        this.to = to;
+        this.size = size;
+    }
+
+    /**
+     * Creates a batch of the first {@code size} edges in {@code from} and {@code to}, which are
+     * used by the batch without being copied.
+     *
+     * @param from The sources of the edges
+     * @param to The targets of the edges
+     * @param size The number of edges
+     * @return The batch
+     */
+    public static EdgeBatch wrap(long[] from, long[] to, int size) {
+        if(size > from.length || size > to.length)
+            throw new IllegalArgumentException("The batch of " + size + " edges doesn't fit in arrays of length " + from.length + " and " + to.length);
+        return new EdgeBatch(from, to, size);
+    }
+
+    /**
+     * @param edges
+     * @return A batch holding the same edges as {@code edges}, in the same order
+     */
+    public static EdgeBatch of(Edge ... edges) {
+        EdgeBatch batch = new EdgeBatch(edges.length);
+        for (Edge edge : edges) {
+            batch.from[batch.size] = edge.from;
+            batch.to[batch.size++] = edge.to;
+        }
+        return batch;
+    }
+
+    /**
+     * Adds the edge {@code from -> to} last in the batch.
+     * @param from
+     * @param to
+     */
+    public void add(long from, long to) {
+        if(size == this.from.length) {
+            this.from = LongArrays.grow(this.from, size + 1, size);
+            this.to = LongArrays.grow(this.to, size + 1, size);
+        }
+        this.from[size] = from;
+        this.to[size++] = to;
+    }
+
+    /**
+     * @return The number of edges in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all edges, keeping the memory.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @param index
+     * @return The source of edge {@code index}
+     */
+    public long from(int index) {
+        return from[index];
+    }
+
+    /**
+     * @param index
+     * @return The target of edge {@code index}
+     */
+    public long to(int index) {
+        return to[index];
+    }
+
+    /**
+     * @param index
+     * @return A new {@link Edge} with the nodes of edge {@code index}
+     */
+    public Edge get(int index) {
+        return new Edge(from[index], to[index]);
+    }
+
+    /**
+     * @return The edges of the batch as {@link Edge} objects, in the same order
+     */
+    public Edge[] toEdges() {
+        Edge[] edges = new Edge[size];
+        for (int i = 0; i < size; i++) {
+            edges[i] = get(i);
+        }
+        return edges;
+    }
+
+    /**
+     * @return The highest node in the batch, or -1 if the batch is empty
+     */
+    public long maxNode() {
+        long max = -1;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, Math.max(from[i], to[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Sorts the edges by source, and edges with the same source by target.
+     */
+    public void sort() {
+        LongArrays.radixSort(from, to, 0, size);
+    }
+
+    /**
+     * Sorts the edges by {@code keys}, where {@code keys[i]} is the key of edge {@code i}.
+     * The keys are sorted along with the edges.
+     * @param keys
+     */
+    public void sort(double[] keys) {
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, size, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                return Double.compare(keys[k1], keys[k2]);
+            }
+        }, (i, j) -> {
+            swap(i, j);
+            double key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        });
+    }
+
+    /**
+     * Sorts the edges by {@code keys}, where {@code keys[i]} is the key of edge {@code i}, and edges
+     * with the same key by source and target. The keys are sorted along with the edges.
+     * @param keys
+     */
+    public void sort(long[] keys) {
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, size, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                int compare = Long.compare(keys[k1], keys[k2]);
+                if(compare == 0)
+                    compare = Long.compare(from[k1], from[k2]);
+                return compare == 0 ? Long.compare(to[k1], to[k2]) : compare;
+            }
+        }, (i, j) -> {
+            swap(i, j);
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        });
+    }
+
+    private void swap(int i, int j) {
+        long node = from[i];
+        from[i] = from[j];
+        from[j] = node;
+        node = to[i];
+        to[i] = to[j];
+        to[j] = node;
+    }
+
+    /**
+     * Reverses the direction of every edge.
+     */
+    public void flip() {
+        long[] sources = from;
+        from = to;
+        to = sources;
+    }
+
+    /**
+     * Sorts the edges and removes duplicates.
+     * @return The number of removed edges
+     */
+    public int dedup() {
+        sort();
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if(unique == 0 || from[i] != from[unique - 1] || to[i] != to[unique - 1]) {
+                from[unique] = from[i];
+                to[unique++] = to[i];
+            }
+        }
+        int removed = size - unique;
+        size = unique;
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if(i > 0)
+                builder.append(", ");
+            builder.append('(').append(from[i]).append(", ").append(to[i]).append(')');
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -6,16 +6,37 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  *
  * Creates a mutable graph of an immutable graph. This is done by keeping track of two graphs:
- * the original immutable graph and a {@link SimulatedGraph}. When edges are added to this
- * graph they are inserted into the simulated graph. A union is created by
- * {@link UnionImmutableGraph}. As the simulated graph quickly takes up a lot of memory
- * the unioned graph are eventually stored as a temporary BVGraph. This is done when
- * {@code unionVsGraphMemoryRatioThreshold < memoryUsage(simulatedGraph)/memoryUsage(unionedGraph)}.
- * The stored graph is then loaded as the original graph and the simulated graph is cleared.
+ * the original immutable graph and a {@link SortedAdjacencyGraph}. When edges are added to this
+ * graph they are inserted into the sorted adjacency graph. A union is created by
+ * {@link UnionImmutableGraph}. As the added edges take up far more memory than the compressed
+ * graph the unioned graph are eventually stored as a temporary BVGraph. This is done when
+ * {@code unionVsGraphMemoryRatioThreshold < memoryUsage(addedEdges)/memoryUsage(unionedGraph)}.
+ * The stored graph is then loaded as the original graph and the added edges are cleared.
+ *
+ * Edges that are already in the graph aren't added again, so that the union is disjoint and can be read
+ * without merging duplicates. Looking an edge up in the original graph means decoding the successors of its
+ * source, so batches larger than {@link ImmutableGraphWrapper#withMaxCheckedBatchSize(int)} are added without
+ * it, and the union may have duplicates until the graph has been stored.
+ *
+ * The graph is stored by a background thread, so that adding edges isn't blocked while it's compressed.
+ * When storing starts, the union is frozen as the original graph and the edges added after it go into a
+ * new {@link SortedAdjacencyGraph}. When the stored graph has been loaded it replaces the frozen union,
+ * which has the same edges, at once. The time and the bytes written by the storing are kept, see
+ * {@link ImmutableGraphWrapper#getCompactionMillis()} and {@link ImmutableGraphWrapper#getCompactionBytesWritten()}.
+ * If storing fails the frozen edges go back to the added edges, the failure is thrown once by the next
+ * call that waits for the storing, and the graph is stored again the next time the threshold is crossed. Adding
+ * edges never throws a failure of an earlier storing, so that the edges are never lost.
  *
  * @author Simon Lindhén
  * @author Johan Nilsson Hansen
@@ -23,9 +44,11 @@ import java.nio.file.Files;
  */
 public class ImmutableGraphWrapper extends MutableGraph{
 
-    private ImmutableGraph graph;
+    private volatile ImmutableGraph graph;
     private ImmutableGraph originalGraph;
-    private SimulatedGraph additionalEdges;
+    private SortedAdjacencyGraph additionalEdges;
+    /* The added edges that are being stored in the background, or null */
+    private FrozenGraph frozenEdges;
     private String oldPath = null;
     private static File tempDir = null;
     private String thisPath = null;
@@ -35,12 +58,39 @@ public class ImmutableGraphWrapper extends MutableGraph{
     private LoadMethod loadMethod;
 
     private float unionVsGraphMemoryRatioThreshold;
-    private final int dataStructureOverheadFactor = 11;
     private long graphHeapUsageBytes;
     private long additionalGraphHeapUsageBytes;
+    /* The number of arcs, an upper bound while the union isn't disjoint, or -1 if it hasn't been counted */
+    private volatile long numArcs = -1;
+
+    private int maxCheckedBatchSize = DEFAULT_MAX_CHECKED_BATCH_SIZE;
+    /* Whether the added and the frozen edges are known to have no arc in common with the rest of the graph */
+    private boolean addedDisjoint = true;
+    private boolean frozenDisjoint = true;
+
+    private boolean backgroundCompaction = true;
+    /* The storing of the graph that is running, or null */
+    private Future<?> compaction;
+    /* The failure of the last storing, until it has been thrown */
+    private Exception compactionFailure;
+    private volatile long numCompactions = 0;
+    private volatile long compactionNanos = 0;
+    private volatile long lastCompactionNanos = 0;
+    private volatile long compactionBytesWritten = 0;
 
     public final static float DEFAULT_UNION_VS_GRAPH_MEMORY_RATIO_THRESHOLD = 8.0f;
     public static final LoadMethod DEFAULT_LOAD_METHOD = LoadMethod.MAPPED;
+    public static final int DEFAULT_MAX_CHECKED_BATCH_SIZE = 1000;
+    /* The largest number of arcs sorted in memory at once by the transpose */
+    private static final int TRANSPOSE_BATCH_SIZE = 1000000;
+
+    /* Stores the graphs of all wrappers, with a thread that is only kept while there are graphs to store */
+    private static final ExecutorService COMPACTOR = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ImmutableGraphWrapper compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     /**
      * Creates a mutable graph of an immutable graph.
@@ -82,39 +132,87 @@ public class ImmutableGraphWrapper extends MutableGraph{
      */
     public ImmutableGraphWrapper(ImmutableGraph graph, float unionVsGraphMemoryRatioThreshold, LoadMethod loadMethod){
         thisID = graphID++;
-        additionalEdges = new SimulatedGraph();
+        additionalEdges = new SortedAdjacencyGraph();
         originalGraph = graph;
         this.graph = graph;
         this.unionVsGraphMemoryRatioThreshold = unionVsGraphMemoryRatioThreshold;
 
         graphHeapUsageBytes = Utils.getMemoryUsage(graph);
-        additionalGraphHeapUsageBytes = Utils.getMemoryUsage(additionalEdges);
+        additionalGraphHeapUsageBytes = additionalEdges.getMemoryUsageBytes();
         this.loadMethod = loadMethod;
 
     }
 
+    /**
+     * Set whether the graph is stored in the background or before {@link ImmutableGraphWrapper#addEdges(EdgeBatch)}
+     * returns.
+     *
+     * @param backgroundCompaction
+     * @return
+     */
+    public ImmutableGraphWrapper withBackgroundCompaction(boolean backgroundCompaction) {
+        this.backgroundCompaction = backgroundCompaction;
+        return this;
+    }
+
+    /**
+     * Set the size of the largest batch whose edges are looked up in the graph before they are added.
+     * Larger batches are added faster, but the graph is slower to read until it has been stored.
+     *
+     * @param maxCheckedBatchSize
+     * @return
+     */
+    public ImmutableGraphWrapper withMaxCheckedBatchSize(int maxCheckedBatchSize) {
+        this.maxCheckedBatchSize = maxCheckedBatchSize;
+        return this;
+    }
+
+    /**
+     * Waits for the graph being stored and deletes the stored graph, also if storing it failed.
+     * @throws RuntimeException If storing the graph failed and the failure hasn't been thrown yet
+     */
     public void close(){
-        if(thisPath != null){
-            new File(thisPath + ".graph").delete();
-            new File(thisPath + ".properties").delete();
-            new File(thisPath + ".offsets").delete();
+        try {
+            awaitCompaction();
+        } finally {
+            cleanOldFile(thisPath);
         }
     }
 
     /**
-     * Inserts {@code edges} in to {@code currentAdditions} and
-     * creates a graph of their union.
-     * @param currentAdditions A graph to union the edges with
-     * @param edges The edges to be unioned
-     * @return A graph containing the union
+     * Sets the graph to the union of the original graph and the added edges. Single edges and bulks
+     * are added to the same added edges, so the union is one union of at most three graphs however
+     * the edges were added. The union is disjoint unless a batch was added without being checked.
      */
-    private ImmutableGraph unionEdges(SimulatedGraph currentAdditions, Edge... edges) {
-        try {
-            currentAdditions.addEdges(edges);
-            return new UnionImmutableGraph(originalGraph, currentAdditions);
-        }catch (Exception e){
-            throw new RuntimeException(e);
+    private void updateGraph() {
+        boolean disjoint = addedDisjoint && (frozenEdges == null || frozenDisjoint);
+        if(frozenEdges == null && additionalEdges.numNodes() == 0)
+            graph = originalGraph;
+        else if(frozenEdges == null)
+            graph = new UnionImmutableGraph(disjoint, originalGraph, additionalEdges);
+        else if(additionalEdges.numNodes() == 0)
+            graph = new UnionImmutableGraph(disjoint, originalGraph, frozenEdges);
+        else
+            graph = new UnionImmutableGraph(disjoint, originalGraph, frozenEdges, additionalEdges);
+    }
+
+    /**
+     * Updates the graph after edges have been added and starts storing it if the added edges
+     * take too much memory. Must hold the lock.
+     *
+     * @return True if the graph started to be stored
+     */
+    private boolean edgesAdded() {
+        updateGraph();
+        additionalGraphHeapUsageBytes = additionalEdges.getMemoryUsageBytes();
+        float unionVsGraphMemoryRatio = (additionalGraphHeapUsageBytes) / (float)graphHeapUsageBytes;
+
+        /* While the graph is being stored the edges keep going into the new added edges */
+        if(unionVsGraphMemoryRatio > unionVsGraphMemoryRatioThreshold && compaction == null) {
+            startCompaction();
+            return true;
         }
+        return false;
     }
 
     /**
@@ -124,32 +222,190 @@ public class ImmutableGraphWrapper extends MutableGraph{
      * @param edges The edges to add
      */
     public void addEdgesStored(Edge ... edges) {
+        addEdgesStored(EdgeBatch.of(edges));
+    }
+
+    /**
+     * Explicitly says that the graph should be stored
+     * instead of letting the class decide when storage
+     * should occur. Mainly used for testing and benchmarking.
+     * @param edges The edges to add
+     */
+    public void addEdgesStored(EdgeBatch edges) {
+        synchronized (this) {
+            addNewEdges(edges);
+            updateGraph();
+        }
+        compact();
+    }
+
+    /**
+     * Stores the graph with all edges added so far and waits until the stored graph has replaced it.
+     */
+    public void compact() {
+        /* Another thread may start storing between the wait and the lock, and its frozen edges mustn't be replaced */
+        while (true) {
+            awaitCompaction();
+            synchronized (this) {
+                if(compaction == null) {
+                    startCompaction();
+                    break;
+                }
+            }
+        }
+        awaitCompaction();
+    }
+
+    /**
+     * Waits until the graph being stored, if any, has replaced the union it was stored from.
+     */
+    public void awaitCompaction() {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if(running != null) {
+            try {
+                running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        throwIfCompactionFailed();
+    }
+
+    /**
+     * Waits at most {@code timeout} until the graph being stored, if any, has replaced the union it was stored from.
+     * @param timeout
+     * @param unit
+     * @return False if the graph was still being stored when the time ran out
+     */
+    public boolean awaitCompaction(long timeout, TimeUnit unit) {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if(running != null) {
+            try {
+                running.get(timeout, unit);
+            } catch (TimeoutException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        throwIfCompactionFailed();
+        return true;
+    }
+
+    /**
+     * Throws the failure of the last storing, if it hasn't been thrown already.
+     */
+    private void throwIfCompactionFailed() {
+        Exception failure;
+        synchronized (this) {
+            failure = compactionFailure;
+            compactionFailure = null;
+        }
+        if(failure != null)
+            throw new RuntimeException("Storing the graph failed", failure);
+    }
+
+    /**
+     * Freezes the added edges and stores their union with the original graph in the background.
+     * Must hold the lock and not be storing already.
+     */
+    private void startCompaction() {
+        frozenEdges = new FrozenGraph(additionalEdges);
+        frozenDisjoint = addedDisjoint;
+        ImmutableGraph snapshot = new UnionImmutableGraph(frozenDisjoint, originalGraph.copy(), frozenEdges);
+        additionalEdges = new SortedAdjacencyGraph();
+        addedDisjoint = true;
+        additionalGraphHeapUsageBytes = additionalEdges.getMemoryUsageBytes();
+        updateGraph();
+        compaction = COMPACTOR.submit(() -> compact(snapshot));
+    }
+
+    /**
+     * Stores {@code snapshot}, which has the edges of the original graph and the frozen edges, and
+     * replaces them with the stored graph.
+     * @param snapshot A copy of the union of the original graph and the frozen edges for this thread
+     */
+    private void compact(ImmutableGraph snapshot) {
+        long start = System.nanoTime();
+        String storedPath = thisPath;
         try {
-            graph = unionEdges(additionalEdges, edges);
-            storeGraphs(graph);
+            ImmutableGraph stored = storeGraphs(snapshot);
+            long storedBytes = storedBytes(thisPath);
+            long storedHeapUsageBytes = Utils.getMemoryUsage(stored);
+
+            synchronized (this) {
+                originalGraph = stored;
+                frozenEdges = null;
+                numArcs = stored.numArcs() + additionalEdges.numArcs();
+                updateGraph();
+                graphHeapUsageBytes = storedHeapUsageBytes;
+                compaction = null;
+            }
+            /* The frozen graph may have read the previous stored graph until it was replaced */
+            cleanOldFile(oldPath);
+
+            lastCompactionNanos = System.nanoTime() - start;
+            compactionNanos += lastCompactionNanos;
+            compactionBytesWritten += storedBytes;
+            numCompactions++;
+        } catch (IOException | RuntimeException e) {
+            /* The original graph may still read the previous stored graph, which is kept */
+            if(thisPath != storedPath) {
+                cleanOldFile(thisPath);
+                thisPath = storedPath;
+            }
+            synchronized (this) {
+                unfreezeEdges();
+                if(compactionFailure == null)
+                    compactionFailure = e;
+                else
+                    compactionFailure.addSuppressed(e);
+                compaction = null;
+            }
+        }
+    }
 
-        }catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Moves the frozen edges back to the added edges, so that they are stored the next time the
+     * graph is stored. Must hold the lock.
+     */
+    private void unfreezeEdges() {
+        SortedAdjacencyGraph frozen = frozenEdges.graph;
+        for (long node = 0; node < frozen.numNodes(); node++) {
+            LazyLongIterator successors = frozen.successors(node);
+            for (long degree = frozen.outdegree(node); degree > 0; degree--)
+                additionalEdges.addEdge(node, successors.nextLong());
         }
+        frozenEdges = null;
+        addedDisjoint &= frozenDisjoint;
+        additionalGraphHeapUsageBytes = additionalEdges.getMemoryUsageBytes();
+        updateGraph();
     }
 
     /**
      * Stores the graph on disk and reloads it.
      * This removes possible overheads from the graph,
-     * such as unions. Updates any graph references.
+     * such as unions.
      * @param graph The graph to store and reload
+     * @return The reloaded graph
      */
-    private void storeGraphs(ImmutableGraph graph) {
+    private ImmutableGraph storeGraphs(ImmutableGraph graph) throws IOException {
         System.out.println("storing");
-        try {
-            checkFile();
-            BVGraph.store(graph, thisPath, 0, 0, -1, -1, 0);
-            this.graph = loadGraph();
-            originalGraph = this.graph;
-            cleanOldFile(oldPath);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        checkFile();
+        BVGraph.store(graph, thisPath, 0, 0, -1, -1, 0);
+        return loadGraph();
     }
 
     private ImmutableGraph loadGraph() throws IOException {
@@ -163,6 +419,45 @@ public class ImmutableGraphWrapper extends MutableGraph{
         }
     }
 
+    private static long storedBytes(String path) {
+        return new File(path + ".graph").length() + new File(path + ".properties").length() + new File(path + ".offsets").length();
+    }
+
+    /**
+     * @return True if the graph is being stored in the background
+     */
+    public synchronized boolean isCompacting() {
+        return compaction != null;
+    }
+
+    /**
+     * @return The number of times the graph has been stored
+     */
+    public long getNumCompactions() {
+        return numCompactions;
+    }
+
+    /**
+     * @return The total time spent storing and reloading the graph
+     */
+    public long getCompactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compactionNanos);
+    }
+
+    /**
+     * @return The time the last storing and reloading of the graph took
+     */
+    public long getLastCompactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastCompactionNanos);
+    }
+
+    /**
+     * @return The total number of bytes of the stored graphs
+     */
+    public long getCompactionBytesWritten() {
+        return compactionBytesWritten;
+    }
+
     public void store(String outputFile) throws IOException {
         BVGraph.store(graph, outputFile, 0, 0, -1, -1, 0, new ProgressLogger());
     }
@@ -175,26 +470,66 @@ public class ImmutableGraphWrapper extends MutableGraph{
     /**
      * Add {@code edges} to the graph. The additional edges will be saved in an
      * external data structure which is eventually saved to disk.
+     * @return True if none of the edges existed. Batches larger than the max checked batch size are
+     * only checked against the added edges.
      */
-    public boolean addEdges(Edge ... edges) {
-        long addedEdgesHeapUsageBytes = Utils.getMemoryUsage(edges) * dataStructureOverheadFactor;
-        additionalGraphHeapUsageBytes += addedEdgesHeapUsageBytes;
-        float unionVsGraphMemoryRatio = (additionalGraphHeapUsageBytes) / (float)graphHeapUsageBytes;
-
-        graph = unionEdges(additionalEdges, edges);
-
-        if(unionVsGraphMemoryRatio > unionVsGraphMemoryRatioThreshold) {
-            storeGraphs(graph);
-
-            additionalEdges = new SimulatedGraph();
-            additionalGraphHeapUsageBytes = Utils.getMemoryUsage(additionalEdges);
-            graphHeapUsageBytes = Utils.getMemoryUsage(graph);
+    public boolean addEdges(EdgeBatch edges) {
+        boolean started = false;
+        int added;
+        synchronized (this) {
+            added = addNewEdges(edges);
+            started = edgesAdded();
         }
+        if(started && !backgroundCompaction)
+            awaitCompaction();
 
-        return true;
+        return added == edges.size();
     }
 
+    /**
+     * Adds the edges that aren't in the graph to the added edges, so that the added edges never
+     * share an arc with the original graph. The edges are sorted, so that the successors of every
+     * source in the original graph are read once for all of its edges. Batches larger than the max
+     * checked batch size are only checked against the added edges. Must hold the lock.
+     * @return The number of edges added
+     */
+    private int addNewEdges(EdgeBatch edges) {
+        if(edges.size() > maxCheckedBatchSize) {
+            int added = 0;
+            for (int i = 0; i < edges.size(); i++) {
+                if(additionalEdges.addEdge(edges.from(i), edges.to(i)))
+                    added++;
+            }
+            addedDisjoint = false;
+            /* The edges may be in the original graph, so this is an upper bound until the graph is stored */
+            if(numArcs >= 0)
+                numArcs += added;
+            return added;
+        }
 
+        edges.sort();
+        long originalNodes = originalGraph.numNodes();
+        int added = 0;
+        long from = -1, successor = -1, degree = 0;
+        LazyLongIterator successors = null;
+        for (int i = 0; i < edges.size(); i++) {
+            long to = edges.to(i);
+            if(edges.from(i) != from) {
+                from = edges.from(i);
+                successor = -1;
+                degree = from < originalNodes ? originalGraph.outdegree(from) : 0;
+                successors = degree > 0 ? originalGraph.successors(from) : null;
+            }
+            for (; successor < to && degree > 0; degree--)
+                successor = successors.nextLong();
+
+            if(successor != to && !containsAddedEdge(from, to) && additionalEdges.addEdge(from, to))
+                added++;
+        }
+        if(numArcs >= 0)
+            numArcs += added;
+        return added;
+    }
 
     private void checkFile() throws IOException {
         if(tempDir == null)
@@ -211,30 +546,52 @@ public class ImmutableGraphWrapper extends MutableGraph{
         }
     }
 
+    /**
+     * Adds {@code edge} to the same added edges as {@link ImmutableGraphWrapper#addEdges(EdgeBatch)}.
+     */
     @Override
     public boolean addEdge(Edge edge){
-
-        if(containsEdge(edge))
-            return false;
-
-        SimulatedGraph extraEdge = new SimulatedGraph();
-        extraEdge.addEdge(edge);
-        graph = new UnionImmutableGraph(extraEdge,graph);
+        boolean started;
+        synchronized (this) {
+            if(containsEdge(edge.from, edge.to))
+                return false;
+
+            additionalEdges.addEdge(edge);
+            if(numArcs >= 0)
+                numArcs++;
+            started = edgesAdded();
+        }
+        if(started && !backgroundCompaction)
+            awaitCompaction();
         return true;
-
     }
 
-    private boolean containsEdge(Edge edge){
-        if(containsNode(edge.from) && containsNode(edge.to)) {
-            LazyLongIterator nodeIt = successors(edge.from);
-            long degree = outdegree(edge.from);
-            while (degree-- > 0)
-                if (nodeIt.nextLong() == edge.to)
-                    return true;
+    /**
+     * Looks the arc up in the added edges by their index, and in the original graph among the
+     * sorted successors of {@code from} up to {@code to}. Must hold the lock.
+     */
+    private boolean containsEdge(long from, long to){
+        if(containsAddedEdge(from, to))
+            return true;
+        if(from >= originalGraph.numNodes() || to >= originalGraph.numNodes())
+            return false;
+
+        LazyLongIterator successors = originalGraph.successors(from);
+        long successor;
+        for (long degree = originalGraph.outdegree(from); degree > 0 && (successor = successors.nextLong()) <= to; degree--) {
+            if(successor == to)
+                return true;
         }
         return false;
     }
 
+    /**
+     * Looks the arc up in the added edges and in the frozen edges by their index. Must hold the lock.
+     */
+    private boolean containsAddedEdge(long from, long to) {
+        return additionalEdges.containsArc(from, to) || frozenEdges != null && frozenEdges.graph.containsArc(from, to);
+    }
+
     @Override
     public MutableGraph copy(){
         return new ImmutableGraphWrapper(graph.copy(), unionVsGraphMemoryRatioThreshold);
@@ -255,8 +612,29 @@ public class ImmutableGraphWrapper extends MutableGraph{
         return graph.numNodes();
     }
 
+    /**
+     * If the union of the graphs is disjoint its number of arcs is the sum of theirs. If the original
+     * graph doesn't know its number of arcs they are counted once, and then kept up to date. Batches
+     * added without being checked may repeat arcs of the graph, so their edges make the number an upper
+     * bound, which is made exact again by the stored graph the next time the graph is stored.
+     */
     @Override
-    public long numArcs() { return graph.numArcs(); }
+    public long numArcs() {
+        if(numArcs < 0) {
+            try {
+                numArcs = graph.numArcs();
+            } catch (UnsupportedOperationException e) {
+                long arcs = 0;
+                NodeIterator nodeIt = graph.nodeIterator();
+                for (long node = graph.numNodes(); node > 0; node--) {
+                    nodeIt.nextLong();
+                    arcs += nodeIt.outdegree();
+                }
+                numArcs = arcs;
+            }
+        }
+        return numArcs;
+    }
 
     @Override
     public boolean randomAccess() {
@@ -268,6 +646,15 @@ public class ImmutableGraphWrapper extends MutableGraph{
         return graph.nodeIterator(node);
     }
 
+    /**
+     * The number of arcs the offline transpose sorts in memory at once. It doesn't depend on the
+     * number of nodes, which may not even fit in an int.
+     * @return
+     */
+    private int transposeBatchSize() {
+        return (int) Math.max(1, Math.min(numArcs(), TRANSPOSE_BATCH_SIZE));
+    }
+
     @Override
     /**
      * Transposes the graph and stores it to a memory mapped file.
@@ -275,11 +662,13 @@ public class ImmutableGraphWrapper extends MutableGraph{
      */
     public MutableGraph transpose(){
         try {
-            ImmutableGraph transpose = Transform.transposeOffline(graph, (int) graph.numNodes(), null, new ProgressLogger());
+            ImmutableGraph transpose = Transform.transposeOffline(graph, transposeBatchSize(), null, new ProgressLogger());
 
             ImmutableGraphWrapper transposeWrapper = new ImmutableGraphWrapper(transpose, unionVsGraphMemoryRatioThreshold);
             transposeWrapper.setGraphHeapUsageBytes(this.graphHeapUsageBytes);
-            transposeWrapper.storeGraphs(transpose);
+            transposeWrapper.backgroundCompaction = backgroundCompaction;
+            transposeWrapper.originalGraph = transposeWrapper.storeGraphs(transpose);
+            transposeWrapper.updateGraph();
 
             return transposeWrapper;
         } catch (IOException e) {
@@ -290,7 +679,9 @@ public class ImmutableGraphWrapper extends MutableGraph{
 
     @Override
     public long getMemoryUsageBytes() {
-        return Utils.getMemoryUsage(originalGraph) + Utils.getMemoryUsage(additionalEdges);
+        FrozenGraph frozen = frozenEdges;
+        return Utils.getMemoryUsage(originalGraph) + additionalEdges.getMemoryUsageBytes() +
+                (frozen == null ? 0 : frozen.graph.getMemoryUsageBytes());
     }
 
     @Override
@@ -298,4 +689,52 @@ public class ImmutableGraphWrapper extends MutableGraph{
         return nodeIterator(0);
     }
 
+    /**
+     * Added edges that are no longer changed, which are read by the thread storing the graph and by
+     * the wrapper at the same time without being copied.
+     */
+    private static class FrozenGraph extends ImmutableGraph {
+
+        private final SortedAdjacencyGraph graph;
+
+        FrozenGraph(SortedAdjacencyGraph graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public long numNodes() {
+            return graph.numNodes();
+        }
+
+        @Override
+        public long numArcs() {
+            return graph.numArcs();
+        }
+
+        @Override
+        public boolean randomAccess() {
+            return true;
+        }
+
+        @Override
+        public long outdegree(long node) {
+            return graph.outdegree(node);
+        }
+
+        @Override
+        public LazyLongIterator successors(long node) {
+            return graph.successors(node);
+        }
+
+        @Override
+        public NodeIterator nodeIterator(long from) {
+            return graph.nodeIterator(from);
+        }
+
+        @Override
+        public ImmutableGraph copy() {
+            return this;
+        }
+    }
+
 }
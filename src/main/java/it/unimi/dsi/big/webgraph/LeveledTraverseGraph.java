@@ -0,0 +1,433 @@
+package it.unimi.dsi.big.webgraph;
+
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * A mutable graph made of levels of {@link TraverseGraph}s, with the most recently added edges in
+ * the first level. Every bulk of edges becomes a new level of its own, so adding edges takes time
+ * proportional to the bulk rather than to the graph. The levels are merged in the background so that
+ * every level has at least {@code growthFactor} times the arcs of the level before it, which keeps the
+ * number of levels logarithmic in the number of arcs and the number of times an arc is rewritten bounded
+ * by {@code growthFactor} per level, see {@link LeveledTraverseGraph#withGrowthFactor(int)}.
+ *
+ * An arc is only in one level, since the edges that exist are removed from a bulk before it is added.
+ * Reading the successors of a node merges its successors in all levels.
+ *
+ * The graph may be read by several threads while the edges are added by one thread.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class LeveledTraverseGraph extends MutableGraph {
+
+    private static final int DEFAULT_GROWTH_FACTOR = 4;
+    private static final int DEFAULT_MAX_LEVELS = 16;
+
+    /* Merges the levels of all graphs, with a thread that is only kept while there are merges to do */
+    private static final ExecutorService MERGER = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "LeveledTraverseGraph merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /* The levels from the newest and smallest to the oldest and largest, replaced rather than changed */
+    private volatile TraverseGraph[] levels = new TraverseGraph[0];
+    private volatile long numNodes = 0;
+    private volatile long numArcs = 0;
+
+    private int growthFactor = DEFAULT_GROWTH_FACTOR;
+    private int maxLevels = DEFAULT_MAX_LEVELS;
+    private boolean backgroundMerging = true;
+
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean(false);
+    private volatile RuntimeException failure;
+
+    private long numAddedArcs = 0;
+    private volatile long numMergedArcs = 0;
+
+    /**
+     * Creates an empty LeveledTraverseGraph
+     */
+    public LeveledTraverseGraph() {
+    }
+
+    /**
+     * Creates a LeveledTraverseGraph with the specified edges. The edges are sorted in place.
+     * @param edges
+     */
+    public LeveledTraverseGraph(EdgeBatch edges) {
+        addEdges(edges);
+    }
+
+    /**
+     * Set how many times more arcs a level must have than the level before it. A higher factor gives
+     * fewer levels to read but rewrites every arc more times when the levels are merged.
+     *
+     * @param growthFactor
+     * @return
+     */
+    public LeveledTraverseGraph withGrowthFactor(int growthFactor) {
+        if(growthFactor < 2)
+            throw new IllegalArgumentException("The growth factor must be at least 2, was " + growthFactor);
+        this.growthFactor = growthFactor;
+        return this;
+    }
+
+    /**
+     * Set the number of levels at which the thread adding edges merges levels itself rather than leaving
+     * it to the background, so that the levels can't grow without bound when edges are added faster than
+     * they are merged.
+     *
+     * @param maxLevels
+     * @return
+     */
+    public LeveledTraverseGraph withMaxLevels(int maxLevels) {
+        if(maxLevels < 1)
+            throw new IllegalArgumentException("The max number of levels must be positive, was " + maxLevels);
+        this.maxLevels = maxLevels;
+        return this;
+    }
+
+    /**
+     * Set whether the levels are merged in the background or by the thread adding the edges before
+     * {@link LeveledTraverseGraph#addEdges(EdgeBatch)} returns.
+     *
+     * @param backgroundMerging
+     * @return
+     */
+    public LeveledTraverseGraph withBackgroundMerging(boolean backgroundMerging) {
+        this.backgroundMerging = backgroundMerging;
+        return this;
+    }
+
+    @Override
+    public boolean addEdge(Edge edge) {
+        return addEdges(edge);
+    }
+
+    /**
+     * Adds the edges that don't exist as a new level. The edges are sorted in place.
+     *
+     * @param edges
+     * @return True if all edges were new to the graph
+     */
+    @Override
+    public boolean addEdges(EdgeBatch edges) {
+        if(failure != null)
+            throw new IllegalStateException("Merging the levels failed", failure);
+        if(edges.isEmpty())
+            return true;
+
+        edges.sort();
+        TraverseGraph[] current = levels;
+        EdgeBatch newEdges = new EdgeBatch(edges.size());
+        long maxNode = numNodes - 1;
+        for (int i = 0; i < edges.size(); i++) {
+            long from = edges.from(i), to = edges.to(i);
+            maxNode = Math.max(maxNode, Math.max(from, to));
+            if(i > 0 && from == edges.from(i - 1) && to == edges.to(i - 1))
+                continue;
+            if(!containsArc(current, from, to))
+                newEdges.add(from, to);
+        }
+
+        if(!newEdges.isEmpty())
+            addLevel(new TraverseGraph(newEdges));
+        numNodes = maxNode + 1;
+
+        if(!backgroundMerging || levels.length > maxLevels)
+            mergeLevels();
+        else if(needsMerge(levels) >= 0 && mergeScheduled.compareAndSet(false, true))
+            MERGER.execute(this::mergeInBackground);
+        return newEdges.size() == edges.size();
+    }
+
+    /**
+     * Merges the levels until every level has at least the growth factor times the arcs of the
+     * level before it, without waiting for the background.
+     */
+    public void mergeLevels() {
+        mergeLock.lock();
+        try {
+            while(mergeStep());
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of levels the graph is made of
+     */
+    public int numLevels() {
+        return levels.length;
+    }
+
+    /**
+     * @return The number of arcs written when the edges were added and the levels merged, per arc added
+     */
+    public double getWriteAmplification() {
+        if(numAddedArcs == 0)
+            return 0;
+        return (numAddedArcs + numMergedArcs) / (double) numAddedArcs;
+    }
+
+    private synchronized void addLevel(TraverseGraph level) {
+        TraverseGraph[] current = levels;
+        TraverseGraph[] next = new TraverseGraph[current.length + 1];
+        next[0] = level;
+        System.arraycopy(current, 0, next, 1, current.length);
+        levels = next;
+        numArcs += level.numArcs();
+        numAddedArcs += level.numArcs();
+    }
+
+    /**
+     * Replaces two adjacent levels with their merge. New levels may have been added before them since
+     * they were read, so they are found by identity.
+     */
+    private synchronized void replaceLevels(TraverseGraph newer, TraverseGraph older, TraverseGraph merged) {
+        TraverseGraph[] current = levels;
+        int index = 0;
+        while(current[index] != newer)
+            index++;
+        TraverseGraph[] next = new TraverseGraph[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        next[index] = merged;
+        System.arraycopy(current, index + 2, next, index + 1, current.length - index - 2);
+        levels = next;
+    }
+
+    /**
+     * Merges the first two adjacent levels that are too close in size. Must hold the merge lock.
+     *
+     * @return False if there was nothing to merge
+     */
+    private boolean mergeStep() {
+        TraverseGraph[] current = levels;
+        int index = needsMerge(current);
+        if(index < 0)
+            return false;
+        TraverseGraph merged = TraverseGraph.merge(current[index], current[index + 1]);
+        replaceLevels(current[index], current[index + 1], merged);
+        numMergedArcs += merged.numArcs();
+        return true;
+    }
+
+    /**
+     * @return The index of the first level with more than {@code 1/growthFactor} of the arcs of the next level,
+     * or -1 if there is none
+     */
+    private int needsMerge(TraverseGraph[] levels) {
+        for (int i = 0; i + 1 < levels.length; i++) {
+            if(levels[i + 1].numArcs() < growthFactor * levels[i].numArcs())
+                return i;
+        }
+        return -1;
+    }
+
+    private void mergeInBackground() {
+        try {
+            mergeLevels();
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            mergeScheduled.set(false);
+        }
+        /* Levels added after the last merge step but before the flag was cleared didn't schedule a merge */
+        if(failure == null && needsMerge(levels) >= 0 && mergeScheduled.compareAndSet(false, true))
+            MERGER.execute(this::mergeInBackground);
+    }
+
+    private static boolean containsArc(TraverseGraph[] levels, long from, long to) {
+        for (TraverseGraph level : levels) {
+            if(level.containsArc(from, to))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public MutableGraph transpose() {
+        TraverseGraph[] current = levels;
+        TraverseGraph[] transposed = new TraverseGraph[current.length];
+        for (int i = 0; i < current.length; i++) {
+            transposed[i] = (TraverseGraph) current[i].transpose();
+        }
+        return copyWithLevels(transposed);
+    }
+
+    /**
+     * @return A graph with the same edges, which shares the levels with this graph until either is changed
+     */
+    @Override
+    public ImmutableGraph copy() {
+        return copyWithLevels(levels);
+    }
+
+    private LeveledTraverseGraph copyWithLevels(TraverseGraph[] levels) {
+        LeveledTraverseGraph copy = new LeveledTraverseGraph()
+                .withGrowthFactor(growthFactor)
+                .withMaxLevels(maxLevels)
+                .withBackgroundMerging(backgroundMerging);
+        copy.levels = levels;
+        copy.numNodes = numNodes;
+        for (TraverseGraph level : levels) {
+            copy.numArcs += level.numArcs();
+        }
+        return copy;
+    }
+
+    @Override
+    public long getMemoryUsageBytes() {
+        long bytes = 0;
+        for (TraverseGraph level : levels) {
+            bytes += level.getMemoryUsageBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long numNodes() {
+        return numNodes;
+    }
+
+    @Override
+    public long numArcs() {
+        return numArcs;
+    }
+
+    @Override
+    public boolean randomAccess() {
+        return true;
+    }
+
+    @Override
+    public long outdegree(long node) {
+        long outdegree = 0;
+        for (TraverseGraph level : levels) {
+            long pos = level.position(node);
+            if(pos != TraverseGraph.NO_POSITION)
+                outdegree += LongBigArrays.get(level.nodes, pos + 1);
+        }
+        return outdegree;
+    }
+
+    @Override
+    public LazyLongIterator successors(long node) {
+        TraverseGraph[] current = levels;
+        long[] positions = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            positions[i] = current[i].position(node);
+        }
+        return mergeSuccessors(current, positions);
+    }
+
+    /**
+     * @return The successors of the headers at {@code positions} merged in increasing order
+     */
+    private static LazyLongIterator mergeSuccessors(TraverseGraph[] levels, long[] positions) {
+        LazyLongIterator successors = LazyLongIterators.EMPTY_ITERATOR;
+        long outdegree = 0;
+        for (int i = 0; i < levels.length; i++) {
+            if(positions[i] == TraverseGraph.NO_POSITION)
+                continue;
+            long levelOutdegree = LongBigArrays.get(levels[i].nodes, positions[i] + 1);
+            LazyLongIterator levelSuccessors = levels[i].successorsAt(positions[i]);
+            successors = outdegree == 0 ? levelSuccessors : new MergedLongIterator(successors, levelSuccessors, outdegree + levelOutdegree);
+            outdegree += levelOutdegree;
+        }
+        return successors;
+    }
+
+    @Override
+    public NodeIterator nodeIterator(long from) {
+        return new LeveledIterator(from);
+    }
+
+    @Override
+    public NodeIterator nodeIterator() {
+        return nodeIterator(0);
+    }
+
+    /**
+     * Passes the levels side by side, so that iterating all nodes takes time proportional to
+     * the arcs and to the nodes times the number of levels.
+     */
+    private class LeveledIterator extends NodeIterator {
+
+        private final TraverseGraph[] iterated = levels;
+        private final long iteratedNumNodes = numNodes;
+        /* The position of the first header in every level that isn't before the current node */
+        private final long[] positions = new long[iterated.length];
+        /* The positions of the headers of the current node, or NO_POSITION */
+        private final long[] nodePositions = new long[iterated.length];
+        private long node = -1;
+        private long outdegree = 0;
+
+        LeveledIterator(long from) {
+            if(from != 0)
+                skip(from);
+        }
+
+        @Override
+        public long nextLong() {
+            moveTo(node + 1);
+            return node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node + 1 < iteratedNumNodes;
+        }
+
+        @Override
+        public long outdegree() {
+            return outdegree;
+        }
+
+        @Override
+        public LazyLongIterator successors() {
+            if(outdegree == 0)
+                return LazyLongIterators.EMPTY_ITERATOR;
+            return mergeSuccessors(iterated, nodePositions);
+        }
+
+        @Override
+        public long skip(long n) {
+            long target = Math.min(node + n, iteratedNumNodes - 1);
+            if(target <= node)
+                return 0;
+            long skipped = target - node;
+            moveTo(target);
+            return skipped;
+        }
+
+        private void moveTo(long target) {
+            node = target;
+            outdegree = 0;
+            for (int i = 0; i < iterated.length; i++) {
+                TraverseGraph level = iterated[i];
+                long pos = positions[i];
+                while(pos < level.length && LongBigArrays.get(level.nodes, pos) < target)
+                    pos += LongBigArrays.get(level.nodes, pos + 1) + TraverseGraph.HEADER_LENGTH;
+                positions[i] = pos;
+                if(pos < level.length && LongBigArrays.get(level.nodes, pos) == target) {
+                    nodePositions[i] = pos;
+                    outdegree += LongBigArrays.get(level.nodes, pos + 1);
+                } else {
+                    nodePositions[i] = TraverseGraph.NO_POSITION;
+                }
+            }
+        }
+    }
+}
@@ -20,7 +20,29 @@ public abstract class MutableGraph extends ImmutableGraph{
 
 
     public abstract boolean addEdge(Edge edge);
-    public abstract boolean addEdges(Edge ... edges);
+
+    /**
+     * Adds {@code edges} to the graph. The order of the edges in the batch may be changed.
+     *
+     * @param edges The edges to add
+     * @return True if all edges were new to the graph
+     */
+    public abstract boolean addEdges(EdgeBatch edges);
+
+    public boolean addEdges(Edge ... edges) {
+        return addEdges(EdgeBatch.of(edges));
+    }
+
+    /**
+     * Removes {@code edge} from the graph. Graphs that cannot remove
+     * edges throw an {@link UnsupportedOperationException}.
+     *
+     * @param edge The edge to remove
+     * @return True if the edge existed in the graph
+     */
+    public boolean deleteEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support edge deletions");
+    }
 
     public abstract MutableGraph transpose();
 
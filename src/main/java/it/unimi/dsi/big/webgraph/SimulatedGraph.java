@@ -58,7 +58,10 @@ public class SimulatedGraph extends MutableGraph implements  Cloneable {
     @Override
     public MutableGraph copy(){
         SimulatedGraph copy = new SimulatedGraph();
-        copy.iteratorNeighbors = (TreeMap<Long, TreeSet<Long>>) iteratorNeighbors.clone();
+        copy.iteratorNeighbors = new TreeMap<>();
+        for (Map.Entry<Long, TreeSet<Long>> entry : iteratorNeighbors.entrySet()) {
+            copy.iteratorNeighbors.put(entry.getKey(), new TreeSet<>(entry.getValue()));
+        }
         copy.numArcs = numArcs;
         copy.numNodes = numNodes;
         return copy;
@@ -73,11 +76,11 @@ public class SimulatedGraph extends MutableGraph implements  Cloneable {
     }
 
     @Override
-    public boolean addEdges(Edge... edges){
+    public boolean addEdges(EdgeBatch edges){
         boolean allInserted = true;
 
-        for (int i = 0; i < edges.length; i++) {
-            allInserted &= addEdge(edges[i]);
+        for (int i = 0; i < edges.size(); i++) {
+            allInserted &= addEdge(edges.from(i), edges.to(i));
         }
 
         return allInserted;
@@ -85,21 +88,26 @@ public class SimulatedGraph extends MutableGraph implements  Cloneable {
 
     @Override
     public boolean addEdge(Edge edge){
+        return addEdge(edge.from, edge.to);
+    }
+
+    private boolean addEdge(long from, long to){
 
-        if(!containsNode(edge.from)) {
-            addNode(edge.from);
+        if(!containsNode(from)) {
+            addNode(from);
         }
-        if(!containsNode(edge.to)) {
-            addNode(edge.to);
+        if(!containsNode(to)) {
+            addNode(to);
         }
 
-        boolean wasAdded = iteratorNeighbors.computeIfAbsent(edge.from,k -> new TreeSet<>()).add(edge.to);
+        boolean wasAdded = iteratorNeighbors.computeIfAbsent(from,k -> new TreeSet<>()).add(to);
 
         if(wasAdded)
             numArcs++;
         return wasAdded;
     }
 
+    @Override
     public boolean deleteEdge(Edge edge) {
         Set<Long> neighbors = iteratorNeighbors.get(edge.from);
         if(neighbors != null) {
@@ -161,12 +169,12 @@ public class SimulatedGraph extends MutableGraph implements  Cloneable {
     public MutableGraph transpose() {
         SimulatedGraph transpose = new SimulatedGraph();
         transpose.addNode(this.numNodes - 1); /* -1 as 0-indexed */
-        Edge[] currentEdges = this.getAllEdges();
 
-        for (int i = 0; i < currentEdges.length; i++) {
-            Edge currentEdge = currentEdges[i];
-            Edge flippedEdge = new Edge(currentEdge.to, currentEdge.from);
-            transpose.addEdge(flippedEdge);
+        /* Only the nodes with arcs are visited, as the node ids may be far more than the arcs */
+        for (Map.Entry<Long, TreeSet<Long>> entry : iteratorNeighbors.entrySet()) {
+            for (long neighbor : entry.getValue()) {
+                transpose.addEdge(neighbor, entry.getKey());
+            }
         }
 
         return transpose;
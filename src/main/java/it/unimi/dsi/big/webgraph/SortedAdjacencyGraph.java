@@ -0,0 +1,391 @@
+package it.unimi.dsi.big.webgraph;
+
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.Arrays;
+
+/**
+ *
+ * A mutable graph that keeps the successors of every node with arcs in a {@code long[]}, found by a map
+ * of primitives. An array starts with a header of the number of successors and the number of them that
+ * are sorted, then the sorted successors and then a short unsorted tail of the latest successors. Arcs
+ * added in increasing order are added to the sorted successors, others to the tail, which is sorted and
+ * merged into the sorted successors when it gets longer than the square root of them. An arc takes
+ * 8 bytes and up to half of that again in spare room, plus the arrays and the map per node with arcs.
+ *
+ * The successors are returned sorted and without duplicates, also when the node has a tail, without
+ * changing the graph, so the graph may be read by several threads as long as it isn't changed.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class SortedAdjacencyGraph extends MutableGraph {
+
+    private static final int HEADER_LENGTH = 1;
+    private static final int MIN_TAIL_LENGTH = 8;
+    /* The bytes of the header of an array */
+    private static final int ARRAY_OVERHEAD_BYTES = 16;
+    /* The bytes of a key and a compressed reference in the map */
+    private static final int MAP_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    private Long2ObjectOpenHashMap<long[]> adjacency = new Long2ObjectOpenHashMap<>();
+    /* The nodes with arcs in increasing order, or null if it has to be sorted again */
+    private volatile long[] sortedNodes = LongArrays.EMPTY_ARRAY;
+    private long numNodes = 0;
+    private long numArcs = 0;
+    private long arrayBytes = 0;
+
+    /**
+     * Creates an empty SortedAdjacencyGraph
+     */
+    public SortedAdjacencyGraph() {
+    }
+
+    /**
+     * Creates a SortedAdjacencyGraph with the specified edges
+     * @param edges
+     */
+    public SortedAdjacencyGraph(EdgeBatch edges) {
+        addEdges(edges);
+    }
+
+    public void addNode(long node) {
+        numNodes = Math.max(node + 1, numNodes);
+    }
+
+    @Override
+    public boolean addEdge(Edge edge) {
+        return addEdge(edge.from, edge.to);
+    }
+
+    @Override
+    public boolean addEdges(EdgeBatch edges) {
+        boolean allInserted = true;
+        for (int i = 0; i < edges.size(); i++) {
+            allInserted &= addEdge(edges.from(i), edges.to(i));
+        }
+        return allInserted;
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return True if the arc didn't exist
+     */
+    public boolean addEdge(long from, long to) {
+        addNode(Math.max(from, to));
+
+        long[] successors = adjacency.get(from);
+        if(successors == null) {
+            successors = new long[HEADER_LENGTH + 1];
+            adjacency.put(from, successors);
+            arrayBytes += bytes(successors);
+            sortedNodes = null;
+        }
+        int sorted = sortedLength(successors), length = length(successors);
+        if(indexOf(successors, sorted, length, to) >= 0)
+            return false;
+
+        if(HEADER_LENGTH + length == successors.length) {
+            long[] grown = Arrays.copyOf(successors, HEADER_LENGTH + length + Math.max(1, length >> 1));
+            arrayBytes += bytes(grown) - bytes(successors);
+            adjacency.put(from, grown);
+            successors = grown;
+        }
+        successors[HEADER_LENGTH + length++] = to;
+
+        if(sorted == length - 1 && (sorted == 0 || successors[HEADER_LENGTH + sorted - 1] < to))
+            sorted++;
+        else if(length - sorted > maxTailLength(sorted))
+            sorted = mergeTail(successors, sorted, length);
+        successors[0] = header(sorted, length);
+        numArcs++;
+        return true;
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return True if the graph has the arc
+     */
+    boolean containsArc(long from, long to) {
+        long[] successors = adjacency.get(from);
+        return successors != null && indexOf(successors, sortedLength(successors), length(successors), to) >= 0;
+    }
+
+    @Override
+    public boolean deleteEdge(Edge edge) {
+        long[] successors = adjacency.get(edge.from);
+        if(successors == null)
+            return false;
+        int sorted = sortedLength(successors), length = length(successors);
+        int index = indexOf(successors, sorted, length, edge.to);
+        if(index < 0)
+            return false;
+
+        if(index < sorted) {
+            System.arraycopy(successors, HEADER_LENGTH + index + 1, successors, HEADER_LENGTH + index, length - index - 1);
+            sorted--;
+        } else {
+            successors[HEADER_LENGTH + index] = successors[HEADER_LENGTH + length - 1];
+        }
+        length--;
+        numArcs--;
+
+        if(length == 0) {
+            adjacency.remove(edge.from);
+            arrayBytes -= bytes(successors);
+            sortedNodes = null;
+        } else {
+            successors[0] = header(sorted, length);
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of {@code successor} among the successors, or -1 if it isn't one of them
+     */
+    private static int indexOf(long[] successors, int sorted, int length, long successor) {
+        int index = Arrays.binarySearch(successors, HEADER_LENGTH, HEADER_LENGTH + sorted, successor);
+        if(index >= 0)
+            return index - HEADER_LENGTH;
+        for (int i = HEADER_LENGTH + sorted; i < HEADER_LENGTH + length; i++) {
+            if(successors[i] == successor)
+                return i - HEADER_LENGTH;
+        }
+        return -1;
+    }
+
+    private static int maxTailLength(int sorted) {
+        return Math.max(MIN_TAIL_LENGTH, (int) Math.sqrt(sorted));
+    }
+
+    /**
+     * Sorts the tail and merges it into the sorted successors in place, from the largest successor.
+     *
+     * @return The new number of sorted successors, which is all of them
+     */
+    private static int mergeTail(long[] successors, int sorted, int length) {
+        long[] tail = Arrays.copyOfRange(successors, HEADER_LENGTH + sorted, HEADER_LENGTH + length);
+        Arrays.sort(tail);
+        int i = HEADER_LENGTH + sorted - 1, j = tail.length - 1;
+        for (int k = HEADER_LENGTH + length - 1; j >= 0; k--) {
+            if(i >= HEADER_LENGTH && successors[i] > tail[j])
+                successors[k] = successors[i--];
+            else
+                successors[k] = tail[j--];
+        }
+        return length;
+    }
+
+    private static long header(int sorted, int length) {
+        return (long) sorted << 32 | length;
+    }
+
+    private static int sortedLength(long[] successors) {
+        return (int) (successors[0] >>> 32);
+    }
+
+    private static int length(long[] successors) {
+        return (int) successors[0];
+    }
+
+    private static long bytes(long[] array) {
+        return ARRAY_OVERHEAD_BYTES + (long) array.length * Long.BYTES;
+    }
+
+    private long[] sortedNodes() {
+        long[] nodes = sortedNodes;
+        if(nodes == null) {
+            nodes = adjacency.keySet().toLongArray();
+            LongArrays.radixSort(nodes);
+            sortedNodes = nodes;
+        }
+        return nodes;
+    }
+
+    @Override
+    public long numNodes() {
+        return numNodes;
+    }
+
+    @Override
+    public long numArcs() {
+        return numArcs;
+    }
+
+    @Override
+    public boolean randomAccess() {
+        return true;
+    }
+
+    @Override
+    public long outdegree(long node) {
+        long[] successors = adjacency.get(node);
+        return successors == null ? 0 : length(successors);
+    }
+
+    @Override
+    public LazyLongIterator successors(long node) {
+        return successors(adjacency.get(node));
+    }
+
+    private static LazyLongIterator successors(long[] successors) {
+        if(successors == null)
+            return LazyLongIterators.EMPTY_ITERATOR;
+        int sorted = sortedLength(successors), length = length(successors);
+        if(sorted == length)
+            return new SuccessorIterator(successors, sorted, LongArrays.EMPTY_ARRAY);
+        long[] tail = Arrays.copyOfRange(successors, HEADER_LENGTH + sorted, HEADER_LENGTH + length);
+        Arrays.sort(tail);
+        return new SuccessorIterator(successors, sorted, tail);
+    }
+
+    @Override
+    public NodeIterator nodeIterator(long from) {
+        return new SortedAdjacencyIterator(from);
+    }
+
+    @Override
+    public NodeIterator nodeIterator() {
+        return nodeIterator(0);
+    }
+
+    @Override
+    public MutableGraph transpose() {
+        SortedAdjacencyGraph transpose = new SortedAdjacencyGraph();
+        transpose.addNode(numNodes - 1);
+        for (ObjectIterator<Long2ObjectMap.Entry<long[]>> it = adjacency.long2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+            Long2ObjectMap.Entry<long[]> entry = it.next();
+            long[] successors = entry.getValue();
+            for (int i = HEADER_LENGTH; i < HEADER_LENGTH + length(successors); i++) {
+                transpose.addEdge(successors[i], entry.getLongKey());
+            }
+        }
+        return transpose;
+    }
+
+    @Override
+    public MutableGraph copy() {
+        SortedAdjacencyGraph copy = new SortedAdjacencyGraph();
+        copy.adjacency = new Long2ObjectOpenHashMap<>(adjacency.size());
+        for (ObjectIterator<Long2ObjectMap.Entry<long[]>> it = adjacency.long2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+            Long2ObjectMap.Entry<long[]> entry = it.next();
+            copy.adjacency.put(entry.getLongKey(), entry.getValue().clone());
+        }
+        copy.sortedNodes = sortedNodes;
+        copy.numNodes = numNodes;
+        copy.numArcs = numArcs;
+        copy.arrayBytes = arrayBytes;
+        return copy;
+    }
+
+    /**
+     * Counts the arrays and the tables of the map rather than walking the graph, so it's
+     * cheap enough to be asked for after every bulk.
+     */
+    @Override
+    public long getMemoryUsageBytes() {
+        long mapBytes = (long) HashCommon.arraySize(adjacency.size(), Hash.DEFAULT_LOAD_FACTOR) * MAP_ENTRY_BYTES;
+        long[] nodes = sortedNodes;
+        long sortedNodesBytes = nodes == null ? 0 : bytes(nodes);
+        return arrayBytes + mapBytes + sortedNodesBytes;
+    }
+
+    /**
+     * Returns the sorted successors and the sorted tail merged.
+     */
+    private static class SuccessorIterator implements LazyLongIterator {
+
+        private final long[] successors;
+        private final long[] tail;
+        private int pos = HEADER_LENGTH;
+        private final int end;
+        private int tailPos = 0;
+
+        SuccessorIterator(long[] successors, int sorted, long[] tail) {
+            this.successors = successors;
+            this.tail = tail;
+            end = HEADER_LENGTH + sorted;
+        }
+
+        @Override
+        public long nextLong() {
+            if(pos < end && (tailPos == tail.length || successors[pos] < tail[tailPos]))
+                return successors[pos++];
+            if(tailPos < tail.length)
+                return tail[tailPos++];
+            return -1;
+        }
+
+        @Override
+        public long skip(long n) {
+            long i = 0;
+            while(i < n && nextLong() != -1)
+                i++;
+            return i;
+        }
+    }
+
+    private class SortedAdjacencyIterator extends NodeIterator {
+
+        private final long[] nodes = sortedNodes();
+        /* The index of the first node with arcs that isn't before the current node */
+        private int index = 0;
+        private long node = -1;
+        private long[] successors = null;
+
+        SortedAdjacencyIterator(long from) {
+            if(from != 0)
+                skip(from);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node + 1 < numNodes;
+        }
+
+        @Override
+        public long nextLong() {
+            moveTo(node + 1);
+            return node;
+        }
+
+        @Override
+        public long skip(long n) {
+            long target = Math.min(node + n, numNodes - 1);
+            if(target <= node)
+                return 0;
+            long skipped = target - node;
+            moveTo(target);
+            return skipped;
+        }
+
+        @Override
+        public long outdegree() {
+            return successors == null ? 0 : length(successors);
+        }
+
+        @Override
+        public LazyLongIterator successors() {
+            return SortedAdjacencyGraph.successors(successors);
+        }
+
+        private void moveTo(long target) {
+            node = target;
+            if(index < nodes.length && nodes[index] < target)
+                index++;
+            if(index < nodes.length && nodes[index] < target) {
+                index = Arrays.binarySearch(nodes, index, nodes.length, target);
+                if(index < 0)
+                    index = -index - 1;
+            }
+            successors = index < nodes.length && nodes[index] == target ? adjacency.get(target) : null;
+        }
+    }
+}
@@ -2,10 +2,7 @@ package it.unimi.dsi.big.webgraph;
 
 import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongBigArrays;
-
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.concurrent.atomic.AtomicInteger;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 
 /**
  *
@@ -24,6 +21,8 @@ public class TraverseGraph extends MutableGraph {
     protected long numArcs = 0;
     protected long length = 0;
     protected static final int HEADER_LENGTH = 2;
+    /* The position of nodes without any arcs in nodePoss */
+    protected static final long NO_POSITION = -2;
     protected boolean empty = false;
 
     /**
@@ -38,8 +37,16 @@ public class TraverseGraph extends MutableGraph {
      * @param edges
      */
     public TraverseGraph(Edge[] edges){
+        this(EdgeBatch.of(edges));
+    }
 
-        if(edges.length == 0) {
+    /**
+     * Creates a TraverseGraph with the specified edges. The edges are sorted in place.
+     * @param edges
+     */
+    public TraverseGraph(EdgeBatch edges){
+
+        if(edges.isEmpty()) {
             empty = true;
             return;
         }
@@ -61,14 +68,14 @@ public class TraverseGraph extends MutableGraph {
 
     /**
      * TraverseGraph cannot determine which edges that didn't exist
-     * and will always return true.
+     * and will always return true. The edges are sorted in place.
      *
      * @param edges
      * @return Always true
      */
     @Override
-    public boolean addEdges(Edge ... edges){
-        if (edges.length == 0)
+    public boolean addEdges(EdgeBatch edges){
+        if (edges.isEmpty())
             return true;
 
         EdgesAdder edgesAdder = new EdgesAdder(edges);
@@ -87,10 +94,55 @@ public class TraverseGraph extends MutableGraph {
 
     @Override
     public MutableGraph transpose() {
-        Edge[] edges = new Edge[(int)numArcs];
-        AtomicInteger i = new AtomicInteger(0);
-        iterateAllEdges(edge -> {edges[i.getAndIncrement()] = edge.flip(); return null;});
-        return new TraverseGraph(edges);
+        TraverseGraph transpose = new TraverseGraph();
+        if(empty || numArcs == 0)
+            return transpose;
+
+        /* The indegrees are counted by a map of the nodes with arcs, so the memory
+         * needed is proportional to the arcs rather than to the number of nodes */
+        Long2LongOpenHashMap writePositions = new Long2LongOpenHashMap();
+        for (long pos = 0, outdegree; pos < length; pos += outdegree + HEADER_LENGTH) {
+            outdegree = LongBigArrays.get(nodes, pos + 1);
+            for (long succ = pos + HEADER_LENGTH; succ < pos + HEADER_LENGTH + outdegree; succ++) {
+                writePositions.addTo(LongBigArrays.get(nodes, succ), 1);
+            }
+        }
+
+        long[][] targets = LongBigArrays.newBigArray(writePositions.size());
+        long numTargets = 0;
+        for (LongIterator it = writePositions.keySet().iterator(); it.hasNext(); ) {
+            LongBigArrays.set(targets, numTargets++, it.nextLong());
+        }
+        LongBigArrays.radixSort(targets);
+
+        transpose.nodes = LongBigArrays.newBigArray(numArcs + numTargets * HEADER_LENGTH);
+        transpose.nodePoss = new Long2LongOpenHashMap(writePositions.size());
+        transpose.nodePoss.defaultReturnValue(NO_POSITION);
+        long pos = 0;
+        for (long t = 0; t < numTargets; t++) {
+            long target = LongBigArrays.get(targets, t);
+            long indegree = writePositions.get(target);
+            transpose.nodePoss.put(target, pos);
+            LongBigArrays.set(transpose.nodes, pos, target);
+            LongBigArrays.set(transpose.nodes, pos + 1, indegree);
+            writePositions.put(target, pos + HEADER_LENGTH);
+            pos += indegree + HEADER_LENGTH;
+        }
+
+        /* The sources are visited in increasing order, so every list of the transpose is sorted */
+        for (long source = 0, outdegree; source < length; source += outdegree + HEADER_LENGTH) {
+            long node = LongBigArrays.get(nodes, source);
+            outdegree = LongBigArrays.get(nodes, source + 1);
+            for (long succ = source + HEADER_LENGTH; succ < source + HEADER_LENGTH + outdegree; succ++) {
+                LongBigArrays.set(transpose.nodes, writePositions.addTo(LongBigArrays.get(nodes, succ), 1), node);
+            }
+        }
+
+        transpose.length = pos;
+        transpose.numArcs = numArcs;
+        transpose.numNodes = numNodes;
+        transpose.empty = false;
+        return transpose;
     }
 
     @Override
@@ -135,6 +187,110 @@ public class TraverseGraph extends MutableGraph {
         return new LongBigArrayIterator(pos+HEADER_LENGTH,LongBigArrays.get(nodes,pos+1));
     }
 
+    /**
+     * @param node
+     * @return The position of the header of {@code node}, or {@link TraverseGraph#NO_POSITION} if it has no arcs
+     */
+    long position(long node) {
+        if(empty)
+            return NO_POSITION;
+        return nodePoss.get(node);
+    }
+
+    /**
+     * @param position The position of a header, see {@link TraverseGraph#position(long)}
+     * @return The successors of the node of the header
+     */
+    LazyLongIterator successorsAt(long position) {
+        return new LongBigArrayIterator(position + HEADER_LENGTH, LongBigArrays.get(nodes, position + 1));
+    }
+
+    /**
+     * Searches the sorted successors of {@code from} for {@code to}.
+     *
+     * @param from
+     * @param to
+     * @return True if the graph has the arc
+     */
+    boolean containsArc(long from, long to) {
+        long pos = position(from);
+        if(pos == NO_POSITION)
+            return false;
+        long low = pos + HEADER_LENGTH;
+        long high = low + LongBigArrays.get(nodes, pos + 1) - 1;
+        while(low <= high) {
+            long mid = (low + high) >>> 1;
+            long successor = LongBigArrays.get(nodes, mid);
+            if(successor < to)
+                low = mid + 1;
+            else if(successor > to)
+                high = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merges two graphs into a new one in a single pass over both. The time and the memory
+     * needed are proportional to the arcs of the two graphs, which are left unchanged.
+     *
+     * @param first
+     * @param second
+     * @return A graph with the arcs of both graphs
+     */
+    static TraverseGraph merge(TraverseGraph first, TraverseGraph second) {
+        if(first.empty)
+            return second;
+        if(second.empty)
+            return first;
+
+        TraverseGraph merged = new TraverseGraph();
+        merged.nodes = LongBigArrays.newBigArray(first.length + second.length);
+        merged.nodePoss = new Long2LongOpenHashMap(first.nodePoss.size() + second.nodePoss.size());
+        merged.nodePoss.defaultReturnValue(NO_POSITION);
+
+        long pos = 0, firstPos = 0, secondPos = 0;
+        while(firstPos < first.length || secondPos < second.length) {
+            long firstNode = firstPos < first.length ? LongBigArrays.get(first.nodes, firstPos) : Long.MAX_VALUE;
+            long secondNode = secondPos < second.length ? LongBigArrays.get(second.nodes, secondPos) : Long.MAX_VALUE;
+            long node = Math.min(firstNode, secondNode);
+
+            long firstSucc = firstPos + HEADER_LENGTH, firstEnd = firstSucc;
+            if(firstNode == node) {
+                firstEnd += LongBigArrays.get(first.nodes, firstPos + 1);
+                firstPos = firstEnd;
+            }
+            long secondSucc = secondPos + HEADER_LENGTH, secondEnd = secondSucc;
+            if(secondNode == node) {
+                secondEnd += LongBigArrays.get(second.nodes, secondPos + 1);
+                secondPos = secondEnd;
+            }
+
+            merged.nodePoss.put(node, pos);
+            LongBigArrays.set(merged.nodes, pos, node);
+            long succ = pos + HEADER_LENGTH;
+            while(firstSucc < firstEnd || secondSucc < secondEnd) {
+                long firstNeighbor = firstSucc < firstEnd ? LongBigArrays.get(first.nodes, firstSucc) : Long.MAX_VALUE;
+                long secondNeighbor = secondSucc < secondEnd ? LongBigArrays.get(second.nodes, secondSucc) : Long.MAX_VALUE;
+                long neighbor = Math.min(firstNeighbor, secondNeighbor);
+                if(firstNeighbor == neighbor)
+                    firstSucc++;
+                if(secondNeighbor == neighbor)
+                    secondSucc++;
+                LongBigArrays.set(merged.nodes, succ++, neighbor);
+            }
+            LongBigArrays.set(merged.nodes, pos + 1, succ - pos - HEADER_LENGTH);
+            merged.numArcs += succ - pos - HEADER_LENGTH;
+            pos = succ;
+        }
+
+        merged.length = pos;
+        merged.numNodes = Math.max(first.numNodes, second.numNodes);
+        merged.empty = false;
+        return merged;
+    }
+
     @Override
     public NodeIterator nodeIterator(long from) {
         return new TraverseIterator(from);
@@ -216,10 +372,34 @@ public class TraverseGraph extends MutableGraph {
             return node + 1 < numNodes;
         }
 
+        /**
+         * Skips over the nodes without arcs by jumping between the headers, so that
+         * skipping is proportional to the arcs passed rather than to the nodes.
+         */
+        @Override
+        public long skip(long n) {
+            long target = Math.min(node + n, numNodes - 1);
+            if(target <= node)
+                return 0;
+            long skipped = target - node;
+
+            if(out > 0)
+                curPos += out + HEADER_LENGTH;
+            while(curPos < length && LongBigArrays.get(nodes, curPos) < target)
+                curPos += LongBigArrays.get(nodes, curPos + 1) + HEADER_LENGTH;
+
+            node = target;
+            if(curPos < length && LongBigArrays.get(nodes, curPos) == node)
+                out = LongBigArrays.get(nodes, curPos + 1);
+            else
+                out = 0;
+            return skipped;
+        }
+
     }
 
     private class EdgesAdder {
-        private Edge[] edges;
+        private EdgeBatch edges;
         private Long2LongOpenHashMap newNodePoss;
         private long newNumNodes;
         private long newNumArcs;
@@ -238,15 +418,17 @@ public class TraverseGraph extends MutableGraph {
         private boolean reachedEnd = false;
         private boolean first = true;
 
-        EdgesAdder(Edge[] edges) {
+        EdgesAdder(EdgeBatch edges) {
             this.edges = edges;
             this.newNodePoss = new Long2LongOpenHashMap();
-            newNodePoss.defaultReturnValue(-2);
+            newNodePoss.defaultReturnValue(NO_POSITION);
             this.newNumNodes = numNodes-1;
             this.newNumArcs = 0;
-            Arrays.sort(edges,edgeComparator());
-            newNodes = LongBigArrays.newBigArray(numArcs + numNodes*2 + edges.length*3);
-            edgesLeft = edges.length;
+            edges.sort();
+            /* Only nodes with arcs have a header, which keeps the size independent of the largest node id */
+            long nodesWithArcs = nodePoss == null ? 0 : nodePoss.size();
+            newNodes = LongBigArrays.newBigArray(numArcs + nodesWithArcs * HEADER_LENGTH + edges.size()*3L);
+            edgesLeft = edges.size();
         }
 
         long[][] getNewNodes() {
@@ -267,36 +449,38 @@ public class TraverseGraph extends MutableGraph {
 
         void setEdges(){
 
-            for (Edge e : edges){
-                newNumNodes = Math.max(newNumNodes,e.to);
-                if(e.from != prevNode){
-                    switchSourceNode(e.from);
+            for (int e = 0; e < edges.size(); e++){
+                long from = edges.from(e), to = edges.to(e);
+                newNumNodes = Math.max(newNumNodes,to);
+                if(from != prevNode){
+                    switchSourceNode(from);
                 }
-                if(e.to != prevToNode){
-                    addNeighbor(e.to);
+                if(to != prevToNode){
+                    addNeighbor(to);
                 }
                 edgesLeft--;
             }
             length = i;
             LongBigArrays.set(newNodes,outIndex,outDegree);
-            newNumNodes = Math.max(edges[edges.length-1].from,newNumNodes)+1;
+            newNumNodes = Math.max(edges.from(edges.size()-1),newNumNodes)+1;
             empty = false;
         }
 
         public void addEdges() {
 
-            for(Edge e : edges){
-                newNumNodes = Math.max(newNumNodes,e.to);
-                if(e.from != prevNode){
+            for (int e = 0; e < edges.size(); e++){
+                long from = edges.from(e), to = edges.to(e);
+                newNumNodes = Math.max(newNumNodes,to);
+                if(from != prevNode){
                     // If we switched source node the previous source node may not have all its previous neighbors
                     // copied so we copy the rest of them
                     copyPreviousNeighborsLessThan(null);
-                    handlePreviousEdgesUpTo(e.from);
-                    switchSourceNode(e.from);
+                    handlePreviousEdgesUpTo(from);
+                    switchSourceNode(from);
                 }
-                if (e.to != prevToNode) {
-                    copyPreviousNeighborsLessThan(e.to);
-                    addNeighbor(e.to);
+                if (to != prevToNode) {
+                    copyPreviousNeighborsLessThan(to);
+                    addNeighbor(to);
                 }
                 edgesLeft--;
             }
@@ -306,7 +490,7 @@ public class TraverseGraph extends MutableGraph {
             copyRemainingPreviousArcs();
             length = i;
             LongBigArrays.set(newNodes,outIndex,outDegree);
-            newNumNodes = Math.max(edges[edges.length-1].from,newNumNodes) + 1;
+            newNumNodes = Math.max(edges.from(edges.size()-1),newNumNodes) + 1;
         }
 
         /**
@@ -441,19 +625,5 @@ public class TraverseGraph extends MutableGraph {
             return arcsAdded;
 
         }
-
-        private Comparator<Edge> edgeComparator(){
-            return (Edge e1,Edge e2) -> {
-                if(e1.from > e2.from)
-                    return 1;
-                if(e1.from < e2.from)
-                    return -1;
-                if(e1.to > e2.to)
-                    return 1;
-                if(e1.to < e2.to)
-                    return -1;
-                return 0;
-            };
-        }
     }
 }
\ No newline at end of file
@@ -23,9 +23,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-/** An immutable graph representing the union of two given graphs. Here by &ldquo;union&rdquo;
- *  we mean that an arc will belong to the union iff it belongs to at least one of the two graphs (the number of
+/** An immutable graph representing the union of given graphs. Here by &ldquo;union&rdquo;
+ *  we mean that an arc will belong to the union iff it belongs to at least one of the graphs (the number of
  *  nodes of the union is taken to be the maximum among the number of nodes of each graph). 
+ *  
+ *  <P>The successors of a node are merged from the graphs by a heap of their current successors, so
+ *  that a union of many graphs isn't built as a union of unions. If the graphs are known to have no arc in
+ *  common, the union may be created as <em>disjoint</em>; its outdegrees and number of arcs are then the sums
+ *  of those of the graphs, and the successors are never stored just to be counted.
+ *  
+ *  <P>The array returned by {@link #successorBigArray(long)} is a buffer of the calling thread, which is
+ *  reused by the next call of the same thread, so the union may be read by several threads.
  */
 public class UnionImmutableGraph extends ImmutableGraph {
 	@SuppressWarnings("unused")
@@ -35,17 +43,15 @@ public class UnionImmutableGraph extends ImmutableGraph {
 	@SuppressWarnings("unused")
 	private static final boolean ASSERTS = false;
 
-	private final ImmutableGraph g0, g1;
-	private final long n0, n1, numNodes;
+	private final ImmutableGraph[] graphs;
+	/** The number of nodes of each graph. */
+	private final long[] n;
+	private final long numNodes;
+	/** Whether the graphs are known to have no arc in common. */
+	private final boolean disjoint;
 
-	/** The node whose successors are cached, or -1 if no successors are currently cached. */
-	private long cachedNode = -1;
-
-	/** The outdegree of the cached node, if any. */
-	private long outdegree ;
-
-	/** The successors of the cached node, if any; note that the array might be larger. */
-	private long[][] cache = LongBigArrays.EMPTY_BIG_ARRAY;
+	/** The merge and the successors cached by each thread. */
+	private final ThreadLocal<Cache> cache = ThreadLocal.withInitial( Cache::new );
 
 	/** Creates the union of two given graphs.
 	 * 
@@ -53,78 +59,132 @@ public class UnionImmutableGraph extends ImmutableGraph {
 	 * @param g1 the second graph. 
 	 */
 	public UnionImmutableGraph( ImmutableGraph g0, ImmutableGraph g1 ) {
-		this.g0 = g0;
-		this.g1 = g1;
-		n0 = g0.numNodes();
-		n1 = g1.numNodes();
-		numNodes = Math.max( n0, n1 );
+		this( false, g0, g1 );
+	}
+
+	/** Creates the union of given graphs.
+	 * 
+	 * @param graphs the graphs.
+	 */
+	public UnionImmutableGraph( ImmutableGraph... graphs ) {
+		this( false, graphs );
+	}
+
+	/** Creates the union of given graphs.
+	 * 
+	 * @param disjoint whether the graphs are known to have no arc in common.
+	 * @param graphs the graphs.
+	 */
+	public UnionImmutableGraph( boolean disjoint, ImmutableGraph... graphs ) {
+		if ( graphs.length == 0 ) throw new IllegalArgumentException( "A union needs at least one graph" );
+		this.graphs = graphs.clone();
+		this.disjoint = disjoint;
+		n = new long[ graphs.length ];
+		long numNodes = 0;
+		for ( int i = 0; i < graphs.length; i++ ) {
+			n[ i ] = graphs[ i ].numNodes();
+			numNodes = Math.max( numNodes, n[ i ] );
+		}
+		this.numNodes = numNodes;
 	}
 
 	public UnionImmutableGraph copy() {
-		return new UnionImmutableGraph( g0.copy(), g1.copy() );
+		final ImmutableGraph[] copies = new ImmutableGraph[ graphs.length ];
+		for ( int i = 0; i < graphs.length; i++ ) copies[ i ] = graphs[ i ].copy();
+		return new UnionImmutableGraph( disjoint, copies );
+	}
+
+	/** Returns whether the graphs are known to have no arc in common.
+	 * 
+	 * @return whether the union is disjoint.
+	 */
+	public boolean isDisjoint() {
+		return disjoint;
 	}
 	
 	@Override
 	public NodeIterator nodeIterator( final long from ) {
+		final NodeIterator[] iterators = new NodeIterator[ graphs.length ];
+		for ( int i = 0; i < graphs.length; i++ ) iterators[ i ] = from < n[ i ] ? graphs[ i ].nodeIterator( from ) : null;
 	
 		return new NodeIterator() {
 			/** If outdegree is nonnegative, the successors of the current node (this array may be, however, larger). */
-			@SuppressWarnings("hiding")
-			private long[][] cache = LongBigArrays.EMPTY_BIG_ARRAY;
+			private long[][] successors;
+			/** The array the successors are merged into; never an array of the iterators of the graphs. */
+			private long[][] buffer = LongBigArrays.EMPTY_BIG_ARRAY;
 			/** The outdegree of the current node, or -1 if the successor array for the current node has not been computed yet. */
-			@SuppressWarnings("hiding")
 			private long outdegree = -1;
-			private NodeIterator i0 = from < n0? g0.nodeIterator( from ) : null;
-			private NodeIterator i1 = from < n1? g1.nodeIterator( from ) : null;
+			private final KWayMergedLongIterator merge = new KWayMergedLongIterator( graphs.length );
 	
 			public boolean hasNext() {
-				return i0 != null && i0.hasNext() || i1 != null && i1.hasNext();
+				for ( NodeIterator i : iterators ) if ( i != null && i.hasNext() ) return true;
+				return false;
 			}
 			
 			public long nextLong() {
 				if ( ! hasNext() ) throw new java.util.NoSuchElementException();
 				outdegree = -1;
 				long result = -1;
-				if ( i0 != null ) {
-					if ( i0.hasNext() ) result = i0.nextLong();
-					else i0 = null;
-				}
-				if ( i1 != null ) {
-					if ( i1.hasNext() ) result = i1.nextLong();
-					else i1 = null;
+				for ( int i = 0; i < iterators.length; i++ ) {
+					if ( iterators[ i ] == null ) continue;
+					if ( iterators[ i ].hasNext() ) result = iterators[ i ].nextLong();
+					else iterators[ i ] = null;
 				}
 				return result;
 			}
+
+			/** Returns the only iterator in which the current node has successors, or null if there are several. */
+			private NodeIterator single() {
+				NodeIterator single = null;
+				for ( NodeIterator i : iterators ) {
+					if ( i == null || single != null && i.outdegree() == 0 ) continue;
+					if ( single != null && single.outdegree() == 0 ) {
+						single = i;
+						continue;
+					}
+					if ( single != null ) return null;
+					single = i;
+				}
+				return single;
+			}
+
+			/** Starts a merge on the successors of the current node in every graph. */
+			private KWayMergedLongIterator merge( final KWayMergedLongIterator merge ) {
+				int k = 0;
+				for ( NodeIterator i : iterators ) if ( i != null ) merge.iterators[ k++ ] = i.successors();
+				return merge.start( k );
+			}
 	
 			public long[][] successorBigArray() {
-				if ( outdegree != -1 ) return cache;
-				if ( i0 == null ) {
-					outdegree = i1.outdegree();
-					return cache = i1.successorBigArray();
-				} 
-				if ( i1 == null ) {
-					outdegree = i0.outdegree();
-					return cache = i0.successorBigArray();
-				}
-									
-				MergedLongIterator merge = new MergedLongIterator( i0.successors(), i1.successors() );
-				outdegree = LazyLongIterators.unwrap( merge, cache );
-				long upto, t;
-				while ( ( t = merge.nextLong() ) != -1 ) {
-					upto = LongBigArrays.length( cache );
-					cache = LongBigArrays.grow( cache, upto + 1 );
-					LongBigArrays.set( cache, upto++, t );
-					outdegree++;
-					outdegree += LazyLongIterators.unwrap( merge, cache, upto, LongBigArrays.length( cache ) - upto );
+				if ( outdegree != -1 ) return successors;
+				final NodeIterator single = single();
+				if ( single != null ) {
+					outdegree = single.outdegree();
+					return successors = single.successorBigArray();
 				}
-				return cache;
+				successors = buffer = unwrap( merge( merge ), buffer );
+				outdegree = merge.count;
+				return successors;
 			}
 	
 			public long outdegree() {
+				if ( outdegree != -1 ) return outdegree;
+				if ( disjoint ) {
+					long d = 0;
+					for ( NodeIterator i : iterators ) if ( i != null ) d += i.outdegree();
+					return d;
+				}
 				successorBigArray(); // So that the cache is filled up
 				return outdegree;
 			}
-	                    
+
+			public LazyLongIterator successors() {
+				if ( outdegree != -1 ) return LazyLongIterators.wrap( successors, outdegree );
+				final NodeIterator single = single();
+				if ( single != null ) return single.successors();
+				if ( disjoint ) return merge( new KWayMergedLongIterator( graphs.length ) );
+				return LazyLongIterators.wrap( successorBigArray(), outdegree );
+			}
 		};
 	
 	}
@@ -134,30 +194,218 @@ public class UnionImmutableGraph extends ImmutableGraph {
 		return numNodes;
 	}
 
+	/** Returns the sum of the number of arcs of the graphs if the union is disjoint.
+	 * 
+	 * @throws UnsupportedOperationException if the union isn't disjoint, or a graph doesn't know its number of arcs.
+	 */
+	@Override
+	public long numArcs() {
+		if ( ! disjoint ) throw new UnsupportedOperationException();
+		long numArcs = 0;
+		for ( ImmutableGraph g : graphs ) numArcs += g.numArcs();
+		return numArcs;
+	}
+
 	@Override
 	public boolean randomAccess() {
-		return g0.randomAccess() && g1.randomAccess();
+		for ( ImmutableGraph g : graphs ) if ( ! g.randomAccess() ) return false;
+		return true;
+	}
+
+	/** Returns the only graph in which <code>x</code> has successors, or any graph having <code>x</code> if it has
+	 *  successors in none of them; -1 if it has successors in several graphs, or -2 if no graph has <code>x</code>.
+	 *  Most nodes have successors in one graph only, which is then read as it is. The graph is kept for
+	 *  the last node of the thread, as the outdegree and the successors of a node are usually read together. */
+	private int single( final long x ) {
+		final Cache cache = this.cache.get();
+		if ( x != cache.singleNode ) {
+			cache.single = single( x, graphs.length );
+			cache.singleNode = x;
+		}
+		return cache.single;
+	}
+
+	private int single( final long x, final int k ) {
+		int single = -2;
+		for ( int i = 0; i < k; i++ ) {
+			if ( x >= n[ i ] || single >= 0 && graphs[ i ].outdegree( x ) == 0 ) continue;
+			if ( single >= 0 && graphs[ single ].outdegree( x ) != 0 ) return -1;
+			single = i;
+		}
+		return single;
+	}
+
+	/** Starts a merge on the successors of <code>x</code> in every graph having it. */
+	private KWayMergedLongIterator merge( final KWayMergedLongIterator merge, final long x ) {
+		int k = 0;
+		for ( int i = 0; i < graphs.length; i++ ) if ( x < n[ i ] ) merge.iterators[ k++ ] = graphs[ i ].successors( x );
+		return merge.start( k );
+	}
+
+	@Override
+	public LazyLongIterator successors( final long x ) {
+		final int single = single( x );
+		if ( single >= 0 ) return graphs[ single ].successors( x );
+		if ( single == -2 ) return LazyLongIterators.EMPTY_ITERATOR;
+		return merge( new KWayMergedLongIterator( graphs.length ), x );
 	}
 
 	@Override
 	public long[][] successorBigArray( final long x ) {
-		if ( x == cachedNode ) return cache; 
-		final MergedLongIterator merge = new MergedLongIterator( x < n0? g0.successors( x ) : LazyLongIterators.EMPTY_ITERATOR, x < n1? g1.successors( x ) : LazyLongIterators.EMPTY_ITERATOR );
-		outdegree = LazyLongIterators.unwrap( merge, cache );
-		long upto, t;
-		while ( ( t = merge.nextLong() ) != -1 ) {
-			upto = LongBigArrays.length( cache );
-			cache = LongBigArrays.grow( cache, upto + 1 );
-			LongBigArrays.set( cache, upto++, t );
-			outdegree++;
-			outdegree += LazyLongIterators.unwrap( merge, cache, upto, LongBigArrays.length( cache ) - upto );
-		}
-		return cache;
+		final int single = single( x );
+		if ( single >= 0 ) return graphs[ single ].successorBigArray( x );
+		if ( single == -2 ) return LongBigArrays.EMPTY_BIG_ARRAY;
+		return cache.get().fill( x ).successors;
 	}
 
 	@Override
 	public long outdegree( final long x ) {
-		successorBigArray( x ); // So the cache gets filled
-		return outdegree;
+		final int single = single( x );
+		if ( single >= 0 ) return graphs[ single ].outdegree( x );
+		if ( single == -2 ) return 0;
+		if ( disjoint ) {
+			long d = 0;
+			for ( int i = 0; i < graphs.length; i++ ) if ( x < n[ i ] ) d += graphs[ i ].outdegree( x );
+			return d;
+		}
+		return cache.get().fill( x ).outdegree;
+	}
+
+	/** Unwraps <code>merge</code> into <code>buffer</code>, which is grown if needed.
+	 * 
+	 * @return the buffer, or a larger one if it was too small; the merge knows how many successors it holds.
+	 */
+	private static long[][] unwrap( final KWayMergedLongIterator merge, long[][] buffer ) {
+		long length = LongBigArrays.length( buffer );
+		for ( long t, upto = 0; ( t = merge.nextLong() ) != -1; upto++ ) {
+			if ( upto == length ) {
+				buffer = LongBigArrays.grow( buffer, upto + 1 );
+				length = LongBigArrays.length( buffer );
+			}
+			LongBigArrays.set( buffer, upto, t );
+		}
+		return buffer;
+	}
+
+	/** The successors of the node last asked for by a thread, and the merge they were read by. */
+	private final class Cache {
+		private final KWayMergedLongIterator merge = new KWayMergedLongIterator( graphs.length );
+		/** The node whose single graph is kept, or -1. */
+		private long singleNode = -1;
+		/** The result of {@link UnionImmutableGraph#single(long)} for the node, if any. */
+		private int single;
+		/** The node whose successors are cached, or -1 if no successors are currently cached. */
+		private long cachedNode = -1;
+		/** The outdegree of the cached node, if any. */
+		private long outdegree;
+		/** The successors of the cached node, if any; note that the array might be larger. */
+		private long[][] successors = LongBigArrays.EMPTY_BIG_ARRAY;
+
+		private Cache fill( final long x ) {
+			if ( x == cachedNode ) return this;
+			successors = unwrap( merge( merge, x ), successors );
+			outdegree = merge.count;
+			cachedNode = x;
+			return this;
+		}
+	}
+
+	/** An iterator returning the union of the longs returned by up to <code>k</code> monotonically
+	 *  increasing iterators, merged by a heap of their current longs. It may be started again on
+	 *  other iterators, so that it's allocated once. */
+	private static final class KWayMergedLongIterator implements LazyLongIterator {
+		/** The iterators to merge; the first of them are filled in before {@link #start(int)}. */
+		private final LazyLongIterator[] iterators;
+		/** The current long of each iterator. */
+		private final long[] heads;
+		/** The iterators that aren't exhausted, as a heap on their current long. */
+		private final int[] heap;
+		private int size;
+		/** The last long returned, or -1. */
+		private long last;
+		/** The number of longs returned. */
+		private long count;
+
+		private KWayMergedLongIterator( final int k ) {
+			iterators = new LazyLongIterator[ k ];
+			heads = new long[ k ];
+			heap = new int[ k ];
+		}
+
+		private KWayMergedLongIterator start( final int k ) {
+			size = 0;
+			last = -1;
+			count = 0;
+			for ( int i = 0; i < k; i++ ) {
+				final long head = iterators[ i ].nextLong();
+				if ( head == -1 ) continue;
+				heads[ i ] = head;
+				heap[ size ] = i;
+				up( size++ );
+			}
+			return this;
+		}
+
+		public long nextLong() {
+			if ( size == 1 ) {
+				/* Only the current long of the last iterator left may have been returned already */
+				final int top = heap[ 0 ];
+				long result = heads[ top ];
+				if ( result == last && ( result = iterators[ top ].nextLong() ) == -1 ) {
+					iterators[ top ] = null;
+					size = 0;
+					return -1;
+				}
+				if ( ( heads[ top ] = iterators[ top ].nextLong() ) == -1 ) {
+					iterators[ top ] = null;
+					size = 0;
+				}
+				count++;
+				return last = result;
+			}
+			while ( size != 0 ) {
+				final int top = heap[ 0 ];
+				final long result = heads[ top ];
+				final long next = iterators[ top ].nextLong();
+				if ( next == -1 ) {
+					iterators[ top ] = null;
+					heap[ 0 ] = heap[ --size ];
+				}
+				else heads[ top ] = next;
+				if ( size > 1 ) down( 0 );
+				if ( result != last ) {
+					count++;
+					return last = result;
+				}
+			}
+			return -1;
+		}
+
+		public long skip( final long n ) {
+			long i = 0;
+			while( i < n && nextLong() != -1 ) i++;
+			return i;
+		}
+
+		private void up( int i ) {
+			final int e = heap[ i ];
+			while ( i > 0 ) {
+				final int parent = ( i - 1 ) >>> 1;
+				if ( heads[ heap[ parent ] ] <= heads[ e ] ) break;
+				heap[ i ] = heap[ parent ];
+				i = parent;
+			}
+			heap[ i ] = e;
+		}
+
+		private void down( int i ) {
+			final int e = heap[ i ];
+			for ( int child; ( child = 2 * i + 1 ) < size; i = child ) {
+				if ( child + 1 < size && heads[ heap[ child + 1 ] ] < heads[ heap[ child ] ] ) child++;
+				if ( heads[ e ] <= heads[ heap[ child ] ] ) break;
+				heap[ i ] = heap[ child ];
+			}
+			heap[ i ] = e;
+		}
 	}
-}
\ No newline at end of file
+}
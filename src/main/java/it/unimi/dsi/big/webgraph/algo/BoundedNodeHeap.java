@@ -0,0 +1,212 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * The at most {@code maxCapacity} nodes with the highest values, kept in a min-heap of primitives
+ * together with the position of every node in the heap. The value of a node in the heap is
+ * changed in place, so adding, updating and removing a node takes O(log maxCapacity) time.
+ *
+ * Nodes with the same value are ordered by id, and of two nodes with the same value the one
+ * with the higher id is kept, as by {@link TopNodeCounter#nodeScoreComparator()}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class BoundedNodeHeap {
+
+    private static final int NOT_IN_HEAP = -1;
+
+    private final int maxCapacity;
+    private final long[] nodes;
+    private final double[] values;
+    private final Long2IntOpenHashMap positions;
+    private int size = 0;
+
+    /**
+     * @param maxCapacity The most nodes kept
+     */
+    public BoundedNodeHeap(int maxCapacity) {
+        if(maxCapacity < 0)
+            throw new IllegalArgumentException("The capacity can't be negative, was " + maxCapacity);
+        this.maxCapacity = maxCapacity;
+        nodes = new long[maxCapacity];
+        values = new double[maxCapacity];
+        positions = new Long2IntOpenHashMap(maxCapacity);
+        positions.defaultReturnValue(NOT_IN_HEAP);
+    }
+
+    /**
+     * Sets the value of {@code node} if it's in the heap, and otherwise adds it if there is room
+     * or if it's higher than the lowest node, which is then thrown away.
+     *
+     * @param node
+     * @param value
+     * @return True if the node is in the heap afterwards
+     */
+    public boolean offer(long node, double value) {
+        int position = positions.get(node);
+        if(position != NOT_IN_HEAP) {
+            double previous = values[position];
+            values[position] = value;
+            if(value < previous)
+                siftUp(position);
+            else
+                siftDown(position);
+            return true;
+        }
+
+        if(size < maxCapacity) {
+            nodes[size] = node;
+            values[size] = value;
+            positions.put(node, size);
+            siftUp(size++);
+            return true;
+        }
+
+        if(size == 0 || compare(value, node, values[0], nodes[0]) <= 0)
+            return false;
+        positions.remove(nodes[0]);
+        nodes[0] = node;
+        values[0] = value;
+        positions.put(node, 0);
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * @param node
+     * @return True if the node was in the heap
+     */
+    public boolean remove(long node) {
+        int position = positions.remove(node);
+        if(position == NOT_IN_HEAP)
+            return false;
+        size--;
+        if(position < size) {
+            long last = nodes[size];
+            move(size, position);
+            siftUp(position);
+            if(nodes[position] == last)
+                siftDown(position);
+        }
+        return true;
+    }
+
+    public boolean contains(long node) {
+        return positions.containsKey(node);
+    }
+
+    /**
+     * @param node
+     * @return The value of {@code node}, or NaN if it isn't in the heap
+     */
+    public double value(long node) {
+        int position = positions.get(node);
+        return position == NOT_IN_HEAP ? Double.NaN : values[position];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The node with the lowest value
+     */
+    public long lowestNode() {
+        if(size == 0)
+            throw new IllegalStateException("The heap is empty");
+        return nodes[0];
+    }
+
+    /**
+     * @return The lowest value
+     */
+    public double lowestValue() {
+        if(size == 0)
+            throw new IllegalStateException("The heap is empty");
+        return values[0];
+    }
+
+    /**
+     * Offers all nodes of {@code other} to this heap.
+     * @param other
+     */
+    public void addAll(BoundedNodeHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.nodes[i], other.values[i]);
+        }
+    }
+
+    /**
+     * @return The nodes of the heap, from the highest value to the lowest
+     */
+    public long[] nodesByValue() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                return BoundedNodeHeap.compare(values[k2], nodes[k2], values[k1], nodes[k1]);
+            }
+        });
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = nodes[order[i]];
+        }
+        return sorted;
+    }
+
+    private static int compare(double value1, long node1, double value2, long node2) {
+        int compare = Double.compare(value1, value2);
+        return compare == 0 ? Long.compare(node1, node2) : compare;
+    }
+
+    private void siftUp(int position) {
+        long node = nodes[position];
+        double value = values[position];
+        while(position > 0) {
+            int parent = (position - 1) >>> 1;
+            if(compare(value, node, values[parent], nodes[parent]) >= 0)
+                break;
+            move(parent, position);
+            position = parent;
+        }
+        set(position, node, value);
+    }
+
+    private void siftDown(int position) {
+        long node = nodes[position];
+        double value = values[position];
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && compare(values[child + 1], nodes[child + 1], values[child], nodes[child]) < 0)
+                child++;
+            if(compare(value, node, values[child], nodes[child]) <= 0)
+                break;
+            move(child, position);
+            position = child;
+        }
+        set(position, node, value);
+    }
+
+    private void move(int from, int to) {
+        set(to, nodes[from], values[from]);
+    }
+
+    private void set(int position, long node, double value) {
+        nodes[position] = node;
+        values[position] = value;
+        positions.put(node, position);
+    }
+}
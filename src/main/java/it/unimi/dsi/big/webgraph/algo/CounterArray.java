@@ -0,0 +1,119 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.util.HyperLogLogCounterArray;
+
+/**
+ *
+ * An array of HyperLogLog counters, as used by the history levels of {@link DANF}. The methods
+ * are the ones of {@link HyperLogLogCounterArray} that DANF uses, so that a level can keep its
+ * registers either on the heap, by {@link HeapCounterArray}, or off the heap, by
+ * {@link OffHeapCounterArray}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public interface CounterArray {
+
+    /**
+     * Copies the registers of the counter at {@code index} to {@code dest}.
+     * @param index
+     * @param dest An array of at least {@link CounterArray#counterLongwords()} longs
+     */
+    void getCounter(long index, long[] dest);
+
+    /**
+     * Sets the registers of the counter at {@code index} to {@code source}.
+     * @param source
+     * @param index
+     */
+    void setCounter(long[] source, long index);
+
+    /**
+     * Sets the registers of {@code x} to the maximum of the registers of {@code x} and {@code y}.
+     * @param x
+     * @param y
+     */
+    void max(long[] x, long[] y);
+
+    /**
+     * Like {@link CounterArray#max(long[], long[])}, but uses the given scratch space
+     * instead of allocating it.
+     * @param x
+     * @param y
+     * @param accumulator Scratch space of {@link CounterArray#counterLongwords()} longs
+     * @param mask Scratch space of {@link CounterArray#counterLongwords()} longs
+     */
+    void max(long[] x, long[] y, long[] accumulator, long[] mask);
+
+    /**
+     * Adds {@code element} to the registers in {@code counter}.
+     * @param element
+     * @param counter
+     */
+    void add(long element, long[] counter);
+
+    /**
+     * Adds {@code element} to the counter at {@code index}.
+     * @param index
+     * @param element
+     */
+    void add(long index, long element);
+
+    /**
+     * @param index
+     * @return The estimated number of elements in the counter at {@code index}
+     */
+    double count(long index);
+
+    /**
+     * @param counter Registers laid out as the counters of this array
+     * @return The estimated number of elements in {@code counter}
+     */
+    double count(long[] counter);
+
+    /**
+     * Sets all registers of the counter at {@code index} to zero.
+     * @param index
+     */
+    void clearCounter(long index);
+
+    /**
+     * Adds {@code numCounters} cleared counters to the end of the array.
+     * @param numCounters
+     */
+    void addCounters(long numCounters);
+
+    /**
+     * Sets the counter at {@code index} to its union with the counter at {@code fromIndex} of {@code from}.
+     * @param index
+     * @param from
+     * @param fromIndex
+     */
+    void union(long index, CounterArray from, long fromIndex);
+
+    /**
+     * @return True if the counters at {@code index1} and {@code index2} have the same registers
+     */
+    boolean hasSameRegisters(long index1, long index2);
+
+    /**
+     * @return The seed used to hash the elements
+     */
+    long getJenkinsSeed();
+
+    /**
+     * @return The logarithm of the number of registers per counter
+     */
+    int log2m();
+
+    /**
+     * @return The number of longs that a counter occupies
+     */
+    int counterLongwords();
+
+    /**
+     * @return True if every counter starts at the beginning of a long, so that
+     * counters can be written without affecting their neighbors.
+     */
+    boolean longwordAligned();
+}
@@ -0,0 +1,127 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.sux4j.bits.Rank9;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Maps the nodes of a vertex cover to the counters of the lower history levels of {@link DANF}.
+ *
+ * Most nodes are ranked, which means that the counter of a node is its rank among a fixed set of
+ * nodes. The ranked nodes are kept in a bit vector with a {@link Rank9} structure, which costs about
+ * 1.25 bits per node in the id space. Nodes that get a counter after the ranked nodes are fixed are
+ * kept in an overflow map, which also marks ranked nodes that have lost their counter. When the
+ * overflow has grown too large, the counters are moved to their ranks and the index is rebuilt
+ * from the vertex cover, see {@link CounterIndex#needsCompaction()}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+final class CounterIndex {
+
+    static final long NO_COUNTER = -1;
+
+    /* The overflow may hold this many nodes plus an eighth of the ranked nodes before compaction */
+    private static final int MIN_OVERFLOW = 64;
+    private static final long NOT_IN_OVERFLOW = -2;
+
+    private final LongArrayBitVector ranked;
+    private final Rank9 rank;
+    private final Long2LongOpenHashMap overflow = new Long2LongOpenHashMap();
+
+    /**
+     * Creates an index where every node in {@code nodes} has its rank as counter.
+     *
+     * @param nodes The nodes to rank, which is copied
+     */
+    CounterIndex(LongArrayBitVector nodes) {
+        ranked = nodes.copy();
+        rank = new Rank9(ranked);
+        overflow.defaultReturnValue(NOT_IN_OVERFLOW);
+    }
+
+    /**
+     * @param node
+     * @return The counter of {@code node} or {@link CounterIndex#NO_COUNTER} if it has none
+     */
+    long get(long node) {
+        long counter = overflow.get(node);
+        if(counter != NOT_IN_OVERFLOW)
+            return counter;
+        if(node < ranked.length() && ranked.getBoolean(node))
+            return rank.rank(node);
+        return NO_COUNTER;
+    }
+
+    /**
+     * Gives {@code node} the counter {@code counter}.
+     * @param node
+     * @param counter
+     */
+    void set(long node, long counter) {
+        overflow.put(node, counter);
+    }
+
+    /**
+     * Removes the counter of {@code node}.
+     * @param node
+     */
+    void remove(long node) {
+        if(node < ranked.length() && ranked.getBoolean(node))
+            overflow.put(node, NO_COUNTER);
+        else
+            overflow.remove(node);
+    }
+
+    /**
+     * @return True if the overflow has grown so large that the counters should be moved
+     *         to the ranks of their nodes and the index rebuilt
+     */
+    boolean needsCompaction() {
+        return overflow.size() > MIN_OVERFLOW + (rank.count() >>> 3);
+    }
+
+    /**
+     * Writes the index to {@code out}, so that it can be read by {@link CounterIndex#load(DataInput)}.
+     * @param out
+     * @throws IOException
+     */
+    void store(DataOutput out) throws IOException {
+        out.writeLong(ranked.length());
+        BinIO.storeLongs(ranked.bits(), 0, words(ranked.length()), out);
+        out.writeInt(overflow.size());
+        for (Long2LongMap.Entry entry : overflow.long2LongEntrySet()) {
+            out.writeLong(entry.getLongKey());
+            out.writeLong(entry.getLongValue());
+        }
+    }
+
+    /**
+     * Reads an index written by {@link CounterIndex#store(DataOutput)}.
+     * @param in
+     * @return The index
+     * @throws IOException
+     */
+    static CounterIndex load(DataInput in) throws IOException {
+        long length = in.readLong();
+        long[] bits = new long[words(length)];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        CounterIndex index = new CounterIndex(LongArrayBitVector.wrap(bits, length));
+        for (int entries = in.readInt(); entries > 0; entries--) {
+            index.overflow.put(in.readLong(), in.readLong());
+        }
+        return index;
+    }
+
+    private static int words(long bits) {
+        return (int) ((bits + Long.SIZE - 1) / Long.SIZE);
+    }
+}
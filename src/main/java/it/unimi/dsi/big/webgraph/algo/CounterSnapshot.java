@@ -0,0 +1,173 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Lets readers count the counters of a {@link CounterArray} as they were after the last completed
+ * batch, while a batch is writing to them, without blocking the writers.
+ *
+ * Every write of a batch is done while holding the write lock of the counter's stripe, see
+ * {@link CounterSnapshot#lockForWrite(CounterArray, long)}. The first write of a batch to a counter
+ * saves a copy of its registers first, so only the counters touched by the batch are copied. Readers
+ * use optimistic reads of the stripe: they count the saved copy if there is one and the live counter
+ * otherwise, and read again if a write to the stripe interleaved. A reader that keeps failing takes the
+ * read lock of the stripe, which only waits for the write in progress.
+ *
+ * Only one batch may run at a time, but the writes of a batch may come from several threads.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+final class CounterSnapshot {
+
+    private static final int STRIPES = 1 << 10;
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    private final StampedLock[] stripes = new StampedLock[STRIPES];
+    private final ConcurrentHashMap<Long, long[]> saved = new ConcurrentHashMap<>();
+    private volatile boolean inBatch = false;
+    /* The number of counters readers may read, which are the ones of the last completed batch */
+    private volatile long numCounters;
+
+    /**
+     * @param numCounters The number of counters that can be read
+     */
+    CounterSnapshot(long numCounters) {
+        this.numCounters = numCounters;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new StampedLock();
+        }
+    }
+
+    private StampedLock stripe(long index) {
+        return stripes[(int) HashCommon.mix(index) & (STRIPES - 1)];
+    }
+
+    /**
+     * Starts a batch. Until {@link CounterSnapshot#endBatch(long)} readers see the counters as they are now.
+     */
+    void beginBatch() {
+        if(inBatch)
+            throw new IllegalStateException("A batch is already in progress");
+        inBatch = true;
+    }
+
+    /**
+     * Ends the batch and lets readers see its writes.
+     * @param numCounters The number of counters that can be read after the batch
+     */
+    void endBatch(long numCounters) {
+        this.numCounters = numCounters;
+        inBatch = false;
+        saved.clear();
+    }
+
+    /**
+     * Locks the counter at {@code index} for writing. If it's the first write to the counter
+     * in the batch, its registers are saved for the readers.
+     *
+     * @param counters The array holding the counter
+     * @param index
+     * @return The stamp to unlock with
+     */
+    long lockForWrite(CounterArray counters, long index) {
+        long stamp = stripe(index).writeLock();
+        if(inBatch && index < numCounters && !saved.containsKey(index)) {
+            long[] registers = new long[counters.counterLongwords()];
+            counters.getCounter(index, registers);
+            saved.put(index, registers);
+        }
+        return stamp;
+    }
+
+    void unlockWrite(long index, long stamp) {
+        stripe(index).unlockWrite(stamp);
+    }
+
+    /**
+     * Locks every stripe for writing, for changes such as growing the array that
+     * may affect any counter.
+     *
+     * @return The stamps to unlock with
+     */
+    long[] lockAll() {
+        long[] stamps = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stamps[i] = stripes[i].writeLock();
+        }
+        return stamps;
+    }
+
+    void unlockAll(long[] stamps) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i].unlockWrite(stamps[i]);
+        }
+    }
+
+    /**
+     * @param counters The array holding the counter
+     * @param index
+     * @return The estimated number of elements of the counter at {@code index} after the last completed batch
+     */
+    double count(CounterArray counters, long index) {
+        if(index < 0 || index >= numCounters)
+            throw new IllegalArgumentException("The counter " + index + " doesn't exist in the last completed batch");
+
+        StampedLock stripe = stripe(index);
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = stripe.tryOptimisticRead();
+            if(stamp == 0)
+                continue;
+            double count = countSavedOrLive(counters, index);
+            if(stripe.validate(stamp))
+                return count;
+        }
+
+        long stamp = stripe.readLock();
+        try {
+            return countSavedOrLive(counters, index);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    private double countSavedOrLive(CounterArray counters, long index) {
+        long[] registers = saved.get(index);
+        return registers != null ? counters.count(registers) : counters.count(index);
+    }
+
+    /**
+     * Finds the counters the batch in progress has changed.
+     *
+     * @param counters The array holding the counters
+     * @param numCounters The number of counters after the batch, of which the ones that weren't in
+     *                    the last completed batch are changed from 0
+     * @return The changed counters, sorted by index
+     */
+    NodeChanges changes(CounterArray counters, long numCounters) {
+        NodeChanges changes = new NodeChanges();
+        for (Map.Entry<Long, long[]> entry : saved.entrySet()) {
+            long index = entry.getKey();
+            double before = counters.count(entry.getValue());
+            double after = counters.count(index);
+            if(before != after)
+                changes.add(index, before, after);
+        }
+        for (long index = this.numCounters; index < numCounters; index++) {
+            changes.add(index, 0, counters.count(index));
+        }
+        changes.sort();
+        return changes;
+    }
+
+    /**
+     * @return The number of counters that can be read
+     */
+    long numCounters() {
+        return numCounters;
+    }
+}
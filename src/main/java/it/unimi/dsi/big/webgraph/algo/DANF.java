@@ -2,19 +2,36 @@ package it.unimi.dsi.big.webgraph.algo;
 
 import it.unimi.dsi.Util;
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
 import it.unimi.dsi.big.webgraph.LazyLongIterator;
 import it.unimi.dsi.big.webgraph.MutableGraph;
 import it.unimi.dsi.big.webgraph.Utils;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.util.HyperLogLogCounterArray;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  *
@@ -26,13 +43,27 @@ import java.util.Map;
  *
  * To use this class, start by initiating the class using one of the constructors. A
  * ProgressLogger and the size of partitions can be set by {@link DANF#withPartitionSize(int)} and
- * {@link DANF#withProgressLogger(ProgressLogger)}. When new edges are produced, call
+ * {@link DANF#withProgressLogger(ProgressLogger)}. The propagation runs on the executor shared by
+ * all searches, {@link MSBreadthFirst#sharedExecutor()}, unless another one is set by
+ * {@link DANF#withExecutor(ExecutorService, int)}. When new edges are produced, call
  * {@link DANF#addEdges(Edge...)}. DANF will insert the edges in the graph and the transpose.
- * DANF will also insert the edges into the vertex cover. The graphs and vertex cover
+ * DANF will also insert the edges into the vertex cover. Edges are removed by
+ * {@link DANF#removeEdges(Edge...)}, which requires graphs that support
+ * {@link MutableGraph#deleteEdge(Edge)}. The graphs and vertex cover
  * specified to DANF should never be modified outside of the instance as that will
  * introduce bugs. The history will be updated and the neighborhood function can be
  * calculated by {@link DANF#count(long, int)}.
  *
+ * The neighborhood function with reach h can be counted by other threads while edges are
+ * added or removed. Such counts are of the history after the last completed batch, see
+ * {@link CounterSnapshot}, and never wait for the batch. Counts with a lower reach wait
+ * for the batch to complete, as the batch may move the counters of the lower levels, but
+ * don't wait for each other. Only one batch can be added or removed at a time.
+ *
+ * The state of an instance can be saved by {@link DANF#checkpoint(String)} and loaded
+ * by {@link DANF#restore(String, MutableGraph, MutableGraph, int...)}, which is much faster than
+ * recalculating the history when the graph is large.
+ *
  * @author Simon Lindhén
  * @author Johan Nilsson Hansen
  */
@@ -42,24 +73,51 @@ public class DANF implements DynamicNeighborhoodFunction{
     protected MutableGraph graphTranspose;
     protected IDynamicVertexCover vc;
 
-    protected long[][] counterIndex;
+    protected CounterIndex counterIndex;
     protected long nextFreeCounterIndex = 0;
-
-    protected HyperLogLogCounterArray[] history;
+    /* The number of counters in the lower history levels, of which the ones from nextFreeCounterIndex are cleared */
+    protected long allocatedCounters = 0;
+    protected LongArrayList releasedCounterIndices = new LongArrayList();
+
+    protected CounterArray[] history;
+    /* Keeps the top level readable as it was after the last completed batch */
+    private final CounterSnapshot topLevelSnapshot;
+    /* Held for writing by batches and for reading by counts of the lower levels, which a batch may move, and by checkpoints */
+    private final ReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private final List<Consumer<NodeChanges>> changeListeners = new CopyOnWriteArrayList<>();
     private int counterLongWords;
+    /* The number of elements the counters were sized for, which decides the size of their registers */
+    private long counterNumElements;
 
     protected MSBreadthFirst transposeMSBFS;
 
     protected int h;
 
     private boolean closed = false;
+    private boolean noChangePruning = true;
 
     private static final int STATIC_LOGLOG = 0;
 
+    /* The propagation reuses these instead of allocating registers on every visit and merge */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(counterLongWords));
+    private final TravelerPool travelerPool = new TravelerPool();
+
     protected ProgressLogger pl = null;
     protected int partitionSize = DEFAULT_PARTITION_SIZE;
+    protected PartitionOrder partitionOrder = PartitionOrder.SOURCE;
 
     public static final int DEFAULT_PARTITION_SIZE = 5000;
+    /* The number of predecessors of a node that are used for its neighborhood key */
+    private static final int NEIGHBORHOOD_KEY_PREDECESSORS = 64;
+    private static final int NEIGHBORHOOD_KEY_SECOND_PREDECESSORS = 16;
+
+    private static final int CHECKPOINT_VERSION = 2;
+    public static final String CHECKPOINT_EXTENSION = ".danf";
+    public static final String COUNTER_INDEX_EXTENSION = ".counterindex";
+    public static final String REGISTERS_EXTENSION = ".registers";
+    public static final String VERTEX_COVER_EXTENSION = ".vc";
+    /* The largest number of bytes of the registers that are mapped at once */
+    private static final long MAPPED_REGISTER_BYTES = 1L << 30;
 
     /**
      * Creates the graph transpose. Initiates the vertex cover. Runs
@@ -131,21 +189,18 @@ public class DANF implements DynamicNeighborhoodFunction{
 
         vc = vertexCover;
         this.h = h;
-        history = new HyperLogLogCounterArray[h];
+        history = new CounterArray[h];
         this.graph = graph;
         this.graphTranspose = graphTranspose;
 
-        transposeMSBFS = new MSBreadthFirst(graphTranspose);
+        transposeMSBFS = new MSBreadthFirst(graphTranspose, graph);
+        topLevelSnapshot = new CounterSnapshot(graph.numNodes());
 
-        counterIndex = LongBigArrays.newBigArray(vc.getVertexCoverSize());
-
-        LazyLongIterator vcIterator = vc.getNodesInVertexCoverIterator();
-        long vcSize = vc.getVertexCoverSize();
-        long node;
-        while(vcSize-- > 0) {
-            node = vcIterator.nextLong();
-            insertNodeToCounterIndex(node);
-        }
+        counterNumElements = graph.numNodes();
+        /* The lower levels are extracted in node order, so the counter of a node is its rank in the vertex cover */
+        counterIndex = new CounterIndex(vc.getNodesInVertexCover());
+        nextFreeCounterIndex = vc.getVertexCoverSize();
+        allocatedCounters = nextFreeCounterIndex;
 
         if(pl != null)
             pl.logger().info("Starting HyperBall calculation.");
@@ -167,6 +222,180 @@ public class DANF implements DynamicNeighborhoodFunction{
         }
     }
 
+    /**
+     * Creates an instance without any history, which is filled in by
+     * {@link DANF#restore(String, MutableGraph, MutableGraph, int...)}.
+     */
+    private DANF(int h, MutableGraph graph, MutableGraph graphTranspose, IDynamicVertexCover vertexCover){
+        vc = vertexCover;
+        this.h = h;
+        history = new CounterArray[h];
+        this.graph = graph;
+        this.graphTranspose = graphTranspose;
+        transposeMSBFS = new MSBreadthFirst(graphTranspose, graph);
+        topLevelSnapshot = new CounterSnapshot(graph.numNodes());
+    }
+
+    /**
+     * Saves the history, the counter index, the vertex cover and the seed to files with the
+     * base name {@code path}, so that the instance can be created again by
+     * {@link DANF#restore(String, MutableGraph, MutableGraph, int...)}. The graphs aren't saved and
+     * have to be stored separately. The vertex cover must be a {@link DynamicVertexCover}. Waits for
+     * the batch being added or removed, if any, and batches wait for the checkpoint.
+     *
+     * @param path The base name of the files
+     * @throws IOException
+     */
+    public void checkpoint(String path) throws IOException {
+        if(!(vc instanceof DynamicVertexCover))
+            throw new UnsupportedOperationException("Only a " + DynamicVertexCover.class.getSimpleName() + " can be checkpointed");
+
+        /* A batch would change the state between the files */
+        batchLock.readLock().lock();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + CHECKPOINT_EXTENSION)))) {
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeInt(h);
+                out.writeInt(history[0].log2m());
+                out.writeLong(history[0].getJenkinsSeed());
+                out.writeLong(counterNumElements);
+                out.writeLong(graph.numNodes());
+                out.writeLong(nextFreeCounterIndex);
+                out.writeLong(allocatedCounters);
+                out.writeInt(partitionSize);
+                out.writeInt(releasedCounterIndices.size());
+                BinIO.storeLongs(releasedCounterIndices.elements(), 0, releasedCounterIndices.size(), out);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + COUNTER_INDEX_EXTENSION)))) {
+                counterIndex.store(out);
+            }
+            ((DynamicVertexCover) vc).store(path + VERTEX_COVER_EXTENSION);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + REGISTERS_EXTENSION), 1 << 16))) {
+                long[] counter = new long[counterLongWords];
+                for (int level = 0; level < h; level++) {
+                    for (long index = 0; index < numberOfCounters(level + 1); index++) {
+                        history[level].getCounter(index, counter);
+                        for (long word : counter) {
+                            out.writeLong(word);
+                        }
+                    }
+                }
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates an instance from the files saved by {@link DANF#checkpoint(String)}. The registers
+     * of the history are read through a memory mapping of the register file, and neither the vertex
+     * cover nor the history is recalculated.
+     *
+     * The levels in {@code mappedLevels} aren't copied to the heap, but are kept off-heap in a
+     * private mapping of the register file, see {@link OffHeapCounterArray#map}. The register
+     * file must then not be changed while the instance is in use.
+     *
+     * @param path The base name of the files
+     * @param graph The graph the checkpoint was made of
+     * @param graphTranspose The transpose of {@code graph}
+     * @param mappedLevels The levels, from 1 to h, to keep mapped from the register file
+     * @return The restored instance
+     * @throws IOException If the files can't be read or aren't a DANF checkpoint
+     */
+    public static DANF restore(String path, MutableGraph graph, MutableGraph graphTranspose, int... mappedLevels) throws IOException {
+        DANF danf;
+        int log2m;
+        long seed;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path + CHECKPOINT_EXTENSION)))) {
+            int version = in.readInt();
+            if(version != CHECKPOINT_VERSION)
+                throw new IOException(path + CHECKPOINT_EXTENSION + " has checkpoint version " + version + ", expected " + CHECKPOINT_VERSION);
+
+            int h = in.readInt();
+            log2m = in.readInt();
+            seed = in.readLong();
+            long counterNumElements = in.readLong();
+            long numNodes = in.readLong();
+            if(numNodes != graph.numNodes())
+                throw new IllegalArgumentException("The checkpoint has " + numNodes + " nodes but the graph has " + graph.numNodes());
+
+            danf = new DANF(h, graph, graphTranspose, DynamicVertexCover.load(path + VERTEX_COVER_EXTENSION, graph));
+            danf.counterNumElements = counterNumElements;
+            danf.nextFreeCounterIndex = in.readLong();
+            danf.allocatedCounters = in.readLong();
+            danf.partitionSize = in.readInt();
+            long[] released = new long[in.readInt()];
+            BinIO.loadLongs(in, released);
+            danf.releasedCounterIndices = LongArrayList.wrap(released);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path + COUNTER_INDEX_EXTENSION)))) {
+            danf.counterIndex = CounterIndex.load(in);
+        }
+
+        for (int level : mappedLevels) {
+            danf.checkH(level);
+        }
+
+        long position = 0;
+        for (int level = 0; level < danf.h; level++) {
+            long counters = danf.numberOfCounters(level + 1);
+            if(contains(mappedLevels, level + 1))
+                danf.history[level] = OffHeapCounterArray.map(path + REGISTERS_EXTENSION, position, counters, danf.counterNumElements, log2m, seed);
+            else
+                danf.history[level] = new HeapCounterArray(new HyperLogLogCounterArray(counters, danf.counterNumElements, log2m, seed));
+            position += counters * danf.history[level].counterLongwords() * Long.BYTES;
+        }
+        danf.counterLongWords = danf.history[0].counterLongwords();
+        danf.loadRegisters(path + REGISTERS_EXTENSION);
+        return danf;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if(element == value)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of counters in use in the history of level {@code h}
+     */
+    private long numberOfCounters(int h) {
+        return h == this.h ? graph.numNodes() : allocatedCounters;
+    }
+
+    /**
+     * Reads the registers of the history levels kept on the heap from a memory mapping of {@code file}.
+     * The file is mapped a part at a time, as a mapping holds at most 2^31 bytes.
+     */
+    private void loadRegisters(String file) throws IOException {
+        long counterBytes = (long) counterLongWords * Long.BYTES;
+        long countersPerMapping = Math.max(1, MAPPED_REGISTER_BYTES / counterBytes);
+        long[] counter = new long[counterLongWords];
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long position = 0;
+            for (int level = 0; level < h; level++) {
+                long counters = numberOfCounters(level + 1);
+                if(history[level] instanceof OffHeapCounterArray) {
+                    position += counters * counterBytes;
+                    continue;
+                }
+                for (long index = 0; index < counters; ) {
+                    long mappedCounters = Math.min(countersPerMapping, counters - index);
+                    LongBuffer registers = channel.map(FileChannel.MapMode.READ_ONLY, position, mappedCounters * counterBytes).asLongBuffer();
+                    for (long end = index + mappedCounters; index < end; index++) {
+                        registers.get(counter);
+                        history[level].setCounter(counter, index);
+                    }
+                    position += mappedCounters * counterBytes;
+                }
+            }
+        }
+    }
+
     /**
      * Set the partition size that will be used on inserted edges. The bigger the partition,
      * the faster the algorithm runs, but the more memory is required.
@@ -179,6 +408,26 @@ public class DANF implements DynamicNeighborhoodFunction{
         return this;
     }
 
+    /**
+     * @return The number of inserted edges that are propagated together
+     */
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * Set how inserted edges are ordered before they are split into partitions.
+     * Only batches that are partitioned are ordered. The default is {@link PartitionOrder#SOURCE},
+     * which suits graphs whose node ids are ordered for locality, such as the compressed webgraphs.
+     *
+     * @param partitionOrder
+     * @return
+     */
+    public DANF withPartitionOrder(PartitionOrder partitionOrder){
+        this.partitionOrder = partitionOrder;
+        return this;
+    }
+
     /**
      * Use a progress logger to monitor the progress of inserted edges.
      *
@@ -190,6 +439,49 @@ public class DANF implements DynamicNeighborhoodFunction{
         return this;
     }
 
+    /**
+     * Stop the propagation of inserted edges past a node in the vertex cover when the propagated
+     * registers don't change any of its history levels, as nothing can change further away
+     * either. Pruning is on by default and is only turned off to measure its effect.
+     *
+     * @param noChangePruning
+     * @return
+     */
+    public DANF withNoChangePruning(boolean noChangePruning){
+        this.noChangePruning = noChangePruning;
+        return this;
+    }
+
+    /**
+     * Run the propagation of inserted edges on {@code executor}. The executor can be shared by
+     * several instances and is not shut down by {@link DANF#close()}.
+     *
+     * @param executor
+     * @param parallelism The number of tasks every step of the propagation is split into
+     * @return
+     */
+    public DANF withExecutor(ExecutorService executor, int parallelism){
+        transposeMSBFS.close();
+        transposeMSBFS = new MSBreadthFirst(graphTranspose, graph, executor, parallelism);
+        return this;
+    }
+
+    /**
+     * Tells {@code listener} which nodes got another neighborhood function with the maximum reach
+     * after every batch of added or removed edges that changed any. The listener is called by the
+     * thread that added or removed the edges once the batch is completed, and the changes
+     * are found from the counters the batch wrote without counting the other nodes.
+     *
+     * @param listener
+     */
+    public void addChangeListener(Consumer<NodeChanges> listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<NodeChanges> listener) {
+        changeListeners.remove(listener);
+    }
+
     /**
      * Shuts down the MSBreadthFirst threads
      */
@@ -213,11 +505,40 @@ public class DANF implements DynamicNeighborhoodFunction{
         return vc;
     }
 
-    public HyperLogLogCounterArray getCounter(int h){
+    public CounterArray getCounter(int h){
         checkH(h);
         return history[h-1];
     }
 
+    /**
+     * Moves the history of level {@code h} off the heap, where it isn't scanned by the garbage
+     * collector. If {@code file} is null the registers are kept in direct memory, otherwise in a
+     * memory mapping of {@code file}, which lets the operating system page out seldom used
+     * registers. The registers in {@code file} are only valid while the instance is in use.
+     * A level that is already off-heap is moved to the new storage.
+     *
+     * @param h The level, from 1 to h, to move off-heap
+     * @param file The file to map, or null to use direct memory
+     * @return this
+     * @throws IOException If {@code file} can't be mapped
+     */
+    public DANF withOffHeapHistory(int h, String file) throws IOException {
+        checkH(h);
+        CounterArray counters = history[h - 1];
+        long numCounters = numberOfCounters(h);
+        OffHeapCounterArray offHeap = file == null ?
+                new OffHeapCounterArray(numCounters, counterNumElements, counters.log2m(), counters.getJenkinsSeed()) :
+                new OffHeapCounterArray(numCounters, counterNumElements, counters.log2m(), counters.getJenkinsSeed(), file);
+
+        long[] counter = new long[counterLongWords];
+        for (long index = 0; index < numCounters; index++) {
+            counters.getCounter(index, counter);
+            offHeap.setCounter(counter, index);
+        }
+        history[h - 1] = offHeap;
+        return this;
+    }
+
     /**
      *
      * Adds the specified {@code edges} to the graph and recalculates
@@ -228,30 +549,216 @@ public class DANF implements DynamicNeighborhoodFunction{
      */
     @Override
     public void addEdges(Edge ... edges)  {
-        Map<Long, IDynamicVertexCover.AffectedState> affectedNodes = new HashMap<>();
+        addEdges(EdgeBatch.of(edges));
+    }
+
+    /**
+     *
+     * Adds the specified {@code edges} to the graph and recalculates
+     * the neighborhood functions. The batch is flipped in place to be added to
+     * the transpose and is reordered, but holds the same edges when this returns.
+     *
+     * @param edges
+     */
+    @Override
+    public void addEdges(EdgeBatch edges)  {
+        runBatch(() -> insertEdges(edges));
+    }
 
-        Edge[] flippedEdges = new Edge[edges.length];
-        long maxNode = 0;
-        int i;
-        for (i = 0; i < edges.length; i++) {
-            Edge edge = edges[i];
-            maxNode = Math.max(maxNode,Math.max(edge.to,edge.from));
-            affectedNodes.putAll(vc.insertEdge(edge));
-            flippedEdges[i] = edge.flip();
+    /**
+     * Runs a batch that adds or removes edges and then tells the change listeners which nodes it changed.
+     * @param batch
+     */
+    private void runBatch(Runnable batch) {
+        batchLock.writeLock().lock();
+        topLevelSnapshot.beginBatch();
+        NodeChanges changes = null;
+        try {
+            batch.run();
+            if(!changeListeners.isEmpty())
+                changes = topLevelSnapshot.changes(history[h - 1], graph.numNodes());
+        } finally {
+            topLevelSnapshot.endBatch(graph.numNodes());
+            batchLock.writeLock().unlock();
+        }
+        if(changes != null && !changes.isEmpty()) {
+            for (Consumer<NodeChanges> listener : changeListeners) {
+                listener.accept(changes);
+            }
         }
-        addNodeToTopLevel(maxNode);
+    }
+
+    private void insertEdges(EdgeBatch edges) {
+        Map<Long, IDynamicVertexCover.AffectedState> affectedNodes = new HashMap<>();
+
+        vc.insertEdges(edges, affectedNodes);
+        addNodeToTopLevel(Math.max(0, edges.maxNode()));
 
         graph.addEdges(edges);
-        graphTranspose.addEdges(flippedEdges);
+        edges.flip();
+        try {
+            graphTranspose.addEdges(edges);
+        } finally {
+            edges.flip();
+        }
 
         /* As inserting edges can only result in nodes being added
-         * to the VC, all affected nodes will be of type AffectedState.Added
-         * and will need new memory for all of these */
-        allocateMemoryInBottomHistoryCounters(affectedNodes.size());
-
+         * to the VC, all affected nodes will be of type AffectedState.Added */
         updateAffectedNodes(affectedNodes);
 
-        propagate(edges);
+        /* Nodes added to the vertex cover got their history from the new edges, and sources of later partitions
+         * are where the BFSs of earlier partitions stop, so they may have registers their predecessors lack */
+        LongOpenHashSet notPrunable = new LongOpenHashSet(affectedNodes.keySet());
+        for (int i = 0; i < edges.size(); i++) {
+            notPrunable.add(edges.from(i));
+        }
+        propagate(edges, notPrunable);
+    }
+
+    /**
+     *
+     * Removes the specified {@code edges} from the graph and recalculates
+     * the neighborhood functions. As HyperLogLog counters can't be decremented, the
+     * history of every node that reaches the source of a removed edge within h-1 hops
+     * is rebuilt level by level from the histories of its neighbors. The rest of
+     * the history is left untouched.
+     *
+     * Both the graph and the transpose must support {@link MutableGraph#deleteEdge(Edge)}.
+     * Edges that don't exist in the graph are ignored.
+     *
+     * @param edges
+     */
+    @Override
+    public void removeEdges(Edge ... edges) {
+        runBatch(() -> deleteEdges(edges));
+    }
+
+    private void deleteEdges(Edge ... edges) {
+        Map<Long, IDynamicVertexCover.AffectedState> affectedNodes = new HashMap<>();
+        LongOpenHashSet removedSources = new LongOpenHashSet();
+
+        for (Edge edge : edges) {
+            if(!graph.deleteEdge(edge))
+                continue;
+            graphTranspose.deleteEdge(edge.flip());
+            removedSources.add(edge.from);
+
+            for (Map.Entry<Long, IDynamicVertexCover.AffectedState> entry : vc.deleteEdge(edge, graphTranspose).entrySet()) {
+                DynamicVertexCover.updateAffectedNodes(entry.getKey(), entry.getValue(), affectedNodes);
+            }
+        }
+
+        updateCounterIndex(affectedNodes);
+
+        /* A path from a node to the source of a removed edge never needs to pass through
+         * a removed edge to be shortest, so searching the updated transpose finds the same region. */
+        LongOpenHashSet nodesToRecalculate = getNodesReaching(removedSources, h - 1);
+        for(Map.Entry<Long, IDynamicVertexCover.AffectedState> entry : affectedNodes.entrySet()) {
+            if (entry.getValue() == IDynamicVertexCover.AffectedState.ADDED)
+                nodesToRecalculate.add(entry.getKey().longValue());
+        }
+
+        recalculateHistory(nodesToRecalculate);
+    }
+
+    /**
+     * Returns all nodes that can reach any of the {@code sources} within {@code maxDistance} hops,
+     * the sources included. The search is performed in the transpose.
+     *
+     * @param sources
+     * @param maxDistance
+     * @return
+     */
+    private LongOpenHashSet getNodesReaching(LongOpenHashSet sources, int maxDistance) {
+        LongOpenHashSet reached = new LongOpenHashSet(sources);
+        LongArrayList frontier = new LongArrayList(sources);
+        LongArrayList nextFrontier = new LongArrayList();
+
+        for (int d = 0; d < maxDistance && !frontier.isEmpty(); d++) {
+            for (int i = 0; i < frontier.size(); i++) {
+                long node = frontier.getLong(i);
+                LazyLongIterator predecessors = graphTranspose.successors(node);
+                long degree = graphTranspose.outdegree(node);
+
+                while(degree-- > 0) {
+                    long predecessor = predecessors.nextLong();
+                    if(reached.add(predecessor))
+                        nextFrontier.add(predecessor);
+                }
+            }
+            LongArrayList temp = frontier;
+            frontier = nextFrontier;
+            nextFrontier = temp;
+            nextFrontier.clear();
+        }
+        return reached;
+    }
+
+    /**
+     * Rebuilds every history level of {@code nodes} from the current graph. Levels are
+     * rebuilt bottom up so each level can be computed from the level below it.
+     * Only the top level is rebuilt for nodes outside the vertex cover.
+     *
+     * @param nodes
+     */
+    private void recalculateHistory(LongOpenHashSet nodes) {
+        long[] ballBits = new long[counterLongWords];
+        long[] neighborBits = new long[counterLongWords];
+
+        for (int level = 1; level <= h; level++) {
+            LongIterator nodeIt = nodes.iterator();
+            while(nodeIt.hasNext()) {
+                long node = nodeIt.nextLong();
+                if(level != h && !vc.isInVertexCover(node))
+                    continue;
+
+                Arrays.fill(ballBits, 0);
+                addBallToBits(node, level, ballBits, neighborBits);
+                if(level == h) {
+                    long stamp = topLevelSnapshot.lockForWrite(history[h - 1], node);
+                    try {
+                        history[h - 1].setCounter(ballBits, node);
+                    } finally {
+                        topLevelSnapshot.unlockWrite(node, stamp);
+                    }
+                } else {
+                    history[level - 1].setCounter(ballBits, getNodeIndex(node, level));
+                }
+            }
+        }
+    }
+
+    /**
+     * Unions the ball of radius {@code radius} around {@code node} with {@code bits}.
+     * Balls of neighbors in the vertex cover are read from the history. Neighbors
+     * outside the vertex cover only have neighbors in the vertex cover, so their
+     * balls are calculated from those.
+     *
+     * @param node
+     * @param radius
+     * @param bits
+     * @param neighborBits Scratch space of {@code counterLongWords} longs
+     */
+    private void addBallToBits(long node, int radius, long[] bits, long[] neighborBits) {
+        history[STATIC_LOGLOG].add(node, bits);
+        if(radius == 0)
+            return;
+
+        LazyLongIterator successors = graph.successors(node);
+        long degree = graph.outdegree(node);
+
+        while(degree-- > 0) {
+            long neighbor = successors.nextLong();
+
+            if(radius == 1) {
+                history[STATIC_LOGLOG].add(neighbor, bits);
+            } else if(vc.isInVertexCover(neighbor)) {
+                history[radius - 2].getCounter(getNodeIndex(neighbor, radius - 1), neighborBits);
+                history[radius - 2].max(bits, neighborBits);
+            } else {
+                addBallToBits(neighbor, radius - 1, bits, neighborBits);
+            }
+        }
     }
 
     /**
@@ -264,7 +771,13 @@ public class DANF implements DynamicNeighborhoodFunction{
         if(!graph.containsNode(node)) {
             long previousHighestNode = graph.numNodes()-1;
             long nodesToAdd = node - previousHighestNode;
-            history[h-1].addCounters(nodesToAdd);
+            /* Growing may move every counter, which readers must not see half done */
+            long[] stamps = topLevelSnapshot.lockAll();
+            try {
+                history[h-1].addCounters(nodesToAdd);
+            } finally {
+                topLevelSnapshot.unlockAll(stamps);
+            }
             for (long n = previousHighestNode+1; n <= node ; n++) {
                 history[h-1].add(n,n);
             }
@@ -272,30 +785,107 @@ public class DANF implements DynamicNeighborhoodFunction{
     }
 
     /**
-     * Updates every node that have been affected by a change in the graph.
-     * For insertions it sets a mapping index to the lower histories and
+     * Updates every node that have been affected by an insertion in the graph.
+     * It sets a mapping index to the lower histories and
      * recalculates their history.
-     * Deletions are NOT supported yet
      * @param affectedNodes
      */
     private void updateAffectedNodes(Map<Long, IDynamicVertexCover.AffectedState> affectedNodes)  {
+        updateCounterIndex(affectedNodes);
+
         for(Map.Entry<Long, IDynamicVertexCover.AffectedState> entry : affectedNodes.entrySet()) {
-            long node = entry.getKey();
-            insertNodeToCounterIndex(node);
+            if (entry.getValue() == IDynamicVertexCover.AffectedState.ADDED) {
+                calculateIncompleteHistory(entry.getKey());
+            }
         }
+    }
 
+    /**
+     * Releases the lower history counters of nodes removed from the vertex cover and
+     * assigns counters to nodes added to it. Released counters are reused before
+     * new memory is allocated.
+     * @param affectedNodes
+     */
+    private void updateCounterIndex(Map<Long, IDynamicVertexCover.AffectedState> affectedNodes) {
+        int addedNodes = 0;
         for(Map.Entry<Long, IDynamicVertexCover.AffectedState> entry : affectedNodes.entrySet()) {
-            long node = entry.getKey();
+            if (entry.getValue() == IDynamicVertexCover.AffectedState.REMOVED) {
+                releasedCounterIndices.add(counterIndex.get(entry.getKey()));
+                counterIndex.remove(entry.getKey());
+            } else {
+                addedNodes++;
+            }
+        }
 
+        long freeCounters = releasedCounterIndices.size() + allocatedCounters - nextFreeCounterIndex;
+        allocateMemoryInBottomHistoryCounters(Math.max(0, addedNodes - freeCounters));
+
+        for(Map.Entry<Long, IDynamicVertexCover.AffectedState> entry : affectedNodes.entrySet()) {
             if (entry.getValue() == IDynamicVertexCover.AffectedState.ADDED) {
+                insertNodeToCounterIndex(entry.getKey());
+            }
+        }
+
+        if(counterIndex.needsCompaction())
+            compactCounters();
+    }
+
+    /**
+     * Moves the lower history counters so that the counter of every node in the vertex cover
+     * is its rank in the vertex cover, and rebuilds the counter index from the vertex cover.
+     * The counters are permuted in place by following the cycles of the permutation, so
+     * only one counter per level is kept on the side.
+     */
+    private void compactCounters() {
+        long vcSize = vc.getVertexCoverSize();
+
+        /* The counter to move to each position, where counters nobody moves to fill the positions from vcSize */
+        long[][] source = LongBigArrays.newBigArray(allocatedCounters);
+        LongArrayBitVector moved = LongArrayBitVector.ofLength(allocatedCounters);
+        LazyLongIterator vcIterator = vc.getNodesInVertexCoverIterator();
+        for (long position = 0; position < vcSize; position++) {
+            long counter = counterIndex.get(vcIterator.nextLong());
+            LongBigArrays.set(source, position, counter);
+            moved.set(counter);
+        }
+        for (long counter = 0, position = vcSize; counter < allocatedCounters; counter++) {
+            if(!moved.getBoolean(counter))
+                LongBigArrays.set(source, position++, counter);
+        }
 
-                calculateIncompleteHistory(node);
+        long[][] saved = new long[h - 1][counterLongWords];
+        long[] counter = new long[counterLongWords];
+        LongArrayBitVector done = LongArrayBitVector.ofLength(allocatedCounters);
+        for (long start = 0; start < allocatedCounters; start++) {
+            if(done.getBoolean(start) || LongBigArrays.get(source, start) == start)
+                continue;
+
+            for (int level = 0; level < h - 1; level++) {
+                history[level].getCounter(start, saved[level]);
+            }
+            long position = start;
+            for (long from = LongBigArrays.get(source, position); from != start; from = LongBigArrays.get(source, position)) {
+                for (int level = 0; level < h - 1; level++) {
+                    history[level].getCounter(from, counter);
+                    history[level].setCounter(counter, position);
+                }
+                done.set(position);
+                position = from;
+            }
+            for (int level = 0; level < h - 1; level++) {
+                history[level].setCounter(saved[level], position);
+            }
+            done.set(position);
+        }
 
-            } else if (entry.getValue() == IDynamicVertexCover.AffectedState.REMOVED) {
-                // TODO When deleteEdge is added there should be a case here
-                throw new RuntimeException("Removed nodes not supported in DANF.updateAffectedNodes");
+        for (long position = vcSize; position < allocatedCounters; position++) {
+            for (int level = 0; level < h - 1; level++) {
+                history[level].clearCounter(position);
             }
         }
+        counterIndex = new CounterIndex(vc.getNodesInVertexCover());
+        nextFreeCounterIndex = vcSize;
+        releasedCounterIndices.clear();
     }
 
     /**
@@ -315,6 +905,15 @@ public class DANF implements DynamicNeighborhoodFunction{
      * @param node The node just added to the VC
      */
     private void calculateIncompleteHistory(long node){
+        long stamp = topLevelSnapshot.lockForWrite(history[h - 1], node);
+        try {
+            addIncompleteHistory(node);
+        } finally {
+            topLevelSnapshot.unlockWrite(node, stamp);
+        }
+    }
+
+    private void addIncompleteHistory(long node){
 
         LazyLongIterator successors = graph.successors(node);
         long degree = graph.outdegree(node);
@@ -343,10 +942,11 @@ public class DANF implements DynamicNeighborhoodFunction{
      * Allocates {@code newCounters} new counters in all history counters.
      * @param newCounters The number of counters to allocate
      */
-    private void allocateMemoryInBottomHistoryCounters(int newCounters) {
+    private void allocateMemoryInBottomHistoryCounters(long newCounters) {
         for (int i = 0; i < history.length - 1; i++) {
             history[i].addCounters(newCounters );
         }
+        allocatedCounters += newCounters;
     }
 
     private void checkH(int h){
@@ -371,16 +971,24 @@ public class DANF implements DynamicNeighborhoodFunction{
         }
 
 
-        return LongBigArrays.get(counterIndex,node);
+        return counterIndex.get(node);
     }
 
     /**
-     * Assigns {@code node} to a new unique index in the HyperLolLol counters
+     * Assigns {@code node} to a new unique index in the HyperLolLol counters.
+     * A released index is reused, and cleared, if there is one.
      * @param node
      */
     private void insertNodeToCounterIndex(long node) {
-        counterIndex = LongBigArrays.grow(counterIndex,node+1);
-        LongBigArrays.set(counterIndex,node,nextFreeCounterIndex++);
+        if(releasedCounterIndices.isEmpty()) {
+            counterIndex.set(node, nextFreeCounterIndex++);
+        } else {
+            long index = releasedCounterIndices.popLong();
+            for (int i = 0; i < h - 1; i++) {
+                history[i].clearCounter(index);
+            }
+            counterIndex.set(node, index);
+        }
     }
 
     /**
@@ -392,9 +1000,9 @@ public class DANF implements DynamicNeighborhoodFunction{
         checkH(h);
         counterLongWords = counter.counterLongwords;
         if(h == this.h) {
-            history[h-1] = counter;
+            history[h-1] = new HeapCounterArray(counter);
         } else {
-            history[h - 1] = counter.extract(vc.getNodesInVertexCoverIterator(), vc.getVertexCoverSize());
+            history[h - 1] = new HeapCounterArray(counter.extract(vc.getNodesInVertexCoverIterator(), vc.getVertexCoverSize()));
         }
     }
 
@@ -406,30 +1014,52 @@ public class DANF implements DynamicNeighborhoodFunction{
      * The neighborhood function with reach less than the specified h
      * in the constructor is only available for nodes in the vertex cover.
      *
+     * With the reach specified in the constructor this may be called while another
+     * thread adds or removes edges, and then counts the history of the last completed batch.
+     * With a lower reach it waits for the batch being added or removed, if any.
+     *
      * @param node
      * @param h
      * @return The approximate neighborhood function for the specified node using the specified number of hops.
      */
     public double count(long node, int h) {
         checkH(h);
-        checkNode(node);
-        if(!vc.isInVertexCover(node) && h != this.h)
-            throw new IllegalArgumentException("Node " + node + " wasn't in the vertex cover.");
-        return history[h-1].count(getNodeIndex(node, h));
+        if(h == this.h)
+            return topLevelSnapshot.count(history[h - 1], node);
+        batchLock.readLock().lock();
+        try {
+            checkNode(node);
+            if(!vc.isInVertexCover(node))
+                throw new IllegalArgumentException("Node " + node + " wasn't in the vertex cover.");
+            return history[h-1].count(getNodeIndex(node, h));
+        } finally {
+            batchLock.readLock().unlock();
+        }
     }
 
+    /**
+     * Returns the approximate neighborhood function of every reach for a node in the vertex cover.
+     * Waits for the batch being added or removed, if any.
+     *
+     * @param node
+     * @return The approximate neighborhood functions with reach 1 to h
+     */
     public double[] count(long node){
-        checkNode(node);
-        if(!vc.isInVertexCover(node))
-            throw new IllegalArgumentException("Node " + node + " wasn't in the vertex cover.");
-        double[] ret = new double[h];
-        int i = 0;
-        for(HyperLogLogCounterArray counter : history) {
-            ret[i] = counter.count(getNodeIndex(node, i + 1));
-            i++;
+        batchLock.readLock().lock();
+        try {
+            checkNode(node);
+            if(!vc.isInVertexCover(node))
+                throw new IllegalArgumentException("Node " + node + " wasn't in the vertex cover.");
+            double[] ret = new double[h];
+            int i = 0;
+            for(CounterArray counter : history) {
+                ret[i] = counter.count(getNodeIndex(node, i + 1));
+                i++;
+            }
+            return ret;
+        } finally {
+            batchLock.readLock().unlock();
         }
-        return ret;
-
     }
 
     /**
@@ -438,16 +1068,16 @@ public class DANF implements DynamicNeighborhoodFunction{
      * from the surrounding vertex cover nodes.
      *
      * @param node
-     * @return
+     * @param historyBits Cleared registers of {@code h} levels to add the history to
      */
-    private long[][] calculateHistory(long node){
-        long[][] historyBits = new long[h][counterLongWords];
+    private void calculateHistory(long node, long[][] historyBits){
         if(vc.isInVertexCover(node)) {
             history[STATIC_LOGLOG].add(node, historyBits[0]);
             for (int i = 1; i < h; i++) {
                 history[i-1].getCounter(getNodeIndex(node, i), historyBits[i]);
             }
         } else {
+            Scratch scratch = this.scratch.get();
             LazyLongIterator successors = graph.successors(node);
             long degree = graph.outdegree(node);
 
@@ -463,54 +1093,56 @@ public class DANF implements DynamicNeighborhoodFunction{
                 for (int i = 1; i < h-1; i++) {
                     history[STATIC_LOGLOG].add(neighbor, historyBits[i + 1]);
 
-                    long[] neighborBits = new long[counterLongWords];
-                    history[i-1].getCounter(getNodeIndex(neighbor, i), neighborBits);
-                    history[i].max(historyBits[i + 1], neighborBits);
+                    history[i-1].getCounter(getNodeIndex(neighbor, i), scratch.counterBits);
+                    scratch.max(history[i], historyBits[i + 1], scratch.counterBits);
                 }
             }
         }
-        return historyBits;
     }
 
     /**
      * Propagates the effects of the added edges
      *
      * @param edges
+     * @param notPrunable Nodes where the BFSs must not be stopped for leaving the history unchanged
      */
-    private void propagate(Edge ... edges) {
-        sortEdgesByDANFValues(edges);
+    private void propagate(EdgeBatch edges, LongOpenHashSet notPrunable) {
+        sortEdgesForPartitioning(edges);
 
         /* otherSourceNodes are used to prune BFSs early. If a BFS reach a source node of a later
-         * BFS, the current can be pruned. */
+         * BFS which is in the vertex cover, the current can be pruned. */
         LongOpenHashSet otherSourceNodes = getSourceNodesAsHashSet(edges);
 
+        int numEdges = edges.size();
         try {
-            initiateLogger(edges);
-            PropagationTraveler[] travelers = new PropagationTraveler[Math.min(partitionSize, edges.length)];
-            long[] fromNodes = new long[Math.min(partitionSize, edges.length)];
-            for (int i = 0, j = 0; i < edges.length; i++, j++) {
+            travelerPool.reset();
+            initiateLogger(numEdges);
+            PropagationTraveler[] travelers = new PropagationTraveler[Math.min(partitionSize, numEdges)];
+            long[] fromNodes = new long[Math.min(partitionSize, numEdges)];
+            for (int i = 0, j = 0; i < numEdges; i++, j++) {
 
-                travelers[j] = generateTraveler(edges[i]);
-                fromNodes[j] = edges[i].from;
+                travelers[j] = generateTraveler(edges.from(i), edges.to(i));
+                fromNodes[j] = edges.from(i);
 
                 /* Remove nodes from the current partition as BFSs should not prune at sources of the current partition. */
-                otherSourceNodes.remove(edges[i].from);
+                otherSourceNodes.remove(edges.from(i));
 
                 if (j == partitionSize - 1) {
-                    transposeMSBFS.breadthFirstSearch(fromNodes, propagateVisitor(otherSourceNodes), travelers);
+                    transposeMSBFS.search(fromNodes, propagateVisitor(otherSourceNodes, notPrunable), travelers);
+                    travelerPool.reset();
                     if(pl != null)
                         pl.update();
 
-                    if (edges.length - i - 1 < partitionSize) {
-                        travelers = new PropagationTraveler[edges.length - i - 1];
-                        fromNodes = new long[edges.length - i - 1];
+                    if (numEdges - i - 1 < partitionSize) {
+                        travelers = new PropagationTraveler[numEdges - i - 1];
+                        fromNodes = new long[numEdges - i - 1];
                     }
                     j = -1;
                 }
             }
 
             if (fromNodes.length > 0) {
-                transposeMSBFS.breadthFirstSearch(fromNodes, propagateVisitor(otherSourceNodes), travelers);
+                transposeMSBFS.search(fromNodes, propagateVisitor(otherSourceNodes, notPrunable), travelers);
                 if(pl != null)
                     pl.update();
             }
@@ -522,37 +1154,41 @@ public class DANF implements DynamicNeighborhoodFunction{
         }
     }
 
-    private void initiateLogger(Edge[] edges) {
+    private void initiateLogger(int numEdges) {
         if(pl != null) {
             pl.itemsName = "Partitions";
-            pl.expectedUpdates = (int) Math.ceil((float) edges.length / partitionSize);
-            pl.start("Starting insertion of " + edges.length + " edges in " +
-                    (int)Math.ceil((float) edges.length / partitionSize) + " partitions of size " + partitionSize);
+            pl.expectedUpdates = (int) Math.ceil((float) numEdges / partitionSize);
+            pl.start("Starting insertion of " + numEdges + " edges in " +
+                    (int)Math.ceil((float) numEdges / partitionSize) + " partitions of size " + partitionSize);
         }
     }
 
     /**
-     * Returns a new Traveler using the nodes present in {@code edge}.
-     * @param edge
+     * Returns a Traveler from the pool using the nodes of the edge {@code from -> to}.
+     * @param from
+     * @param to
      * @return
      */
-    private PropagationTraveler generateTraveler(Edge edge) {
-         return new PropagationTraveler(getTravelerHistory(edge));
+    private PropagationTraveler generateTraveler(long from, long to) {
+        PropagationTraveler traveler = travelerPool.take(h);
+        addTravelerHistory(from, to, traveler.bits);
+        return traveler;
     }
 
     /**
-     * Returns the history that should follow the traveler
-     * from the to node of {@code edge}.
-     * @param edge
-     * @return
+     * Adds the history that should follow the traveler
+     * from the to node of the edge {@code from -> to}
+     * to {@code travelerHistory}.
+     * @param from
+     * @param to
+     * @param travelerHistory
      */
-    private long[][] getTravelerHistory(Edge edge) {
-        long[][] travelerHistory = calculateHistory(edge.to);
+    private void addTravelerHistory(long from, long to, long[][] travelerHistory) {
+        calculateHistory(to, travelerHistory);
 
-        if(vc.isInVertexCover(edge.from)) {
-            addNodesHistoryToTravelerHistory(edge.from, travelerHistory);
+        if(vc.isInVertexCover(from)) {
+            addNodesHistoryToTravelerHistory(from, travelerHistory);
         }
-        return travelerHistory;
     }
 
     /**
@@ -564,20 +1200,22 @@ public class DANF implements DynamicNeighborhoodFunction{
      * @param travelerHistory
      */
     private void addNodesHistoryToTravelerHistory(long node, long[][] travelerHistory) {
-        long[] visitorHistory = new long[counterLongWords];
+        Scratch scratch = this.scratch.get();
 
         for (int k = 0; k < h; k++) {
             long visitNodeIndex = getNodeIndex(node, k + 1);
-            history[k].getCounter(visitNodeIndex, visitorHistory);
-            history[k].max(travelerHistory[k], visitorHistory);
+            history[k].getCounter(visitNodeIndex, scratch.counterBits);
+            scratch.max(history[k], travelerHistory[k], scratch.counterBits);
         }
     }
 
     /**
-     * This method is used to speed up the MS-BFS.
-     * Sorting the partitions by DANF values increase
-     * the performance of the MS-BFS by up to
-     * 40%.
+     * This method is used to speed up the MS-BFS. The BFSs of a partition
+     * are searched together, so the order decides which BFSs can share their
+     * frontiers. Sorting the partitions by DANF values increase the
+     * performance of the MS-BFS by up to 40% compared to not sorting them,
+     * and sorting them by source is faster still when the node ids follow
+     * the locality of the graph.
      *
      * The edges will only be sorted if they will be partitioned.
      *
@@ -585,15 +1223,52 @@ public class DANF implements DynamicNeighborhoodFunction{
      *
      * @param edges The edges to sort
      */
-    private void sortEdgesByDANFValues(Edge[] edges) {
-        if(edges.length > partitionSize * 1.1) {
-            double[] values = new double[(int)graph.numNodes()];
-            for (Edge e : edges) {
-                values[(int) e.from] = count(e.from, h);
+    private void sortEdgesForPartitioning(EdgeBatch edges) {
+        if(edges.size() > partitionSize * 1.1) {
+            switch (partitionOrder) {
+                case DANF_VALUES:
+                    double[] values = new double[edges.size()];
+                    for (int i = 0; i < edges.size(); i++) {
+                        values[i] = history[h - 1].count(edges.from(i));
+                    }
+                    edges.sort(values);
+                    break;
+                case SOURCE:
+                    edges.sort();
+                    break;
+                case NEIGHBORHOOD:
+                    long[] keys = new long[edges.size()];
+                    for (int i = 0; i < edges.size(); i++) {
+                        keys[i] = i > 0 && edges.from(i) == edges.from(i - 1) ? keys[i - 1] : neighborhoodKey(edges.from(i));
+                    }
+                    edges.sort(keys);
+                    break;
             }
+        }
+    }
 
-            Arrays.sort(edges, (e1, e2) -> Double.compare(values[(int)e1.from], values[(int)e2.from]));
+    /**
+     * Returns a MinHash of {@code node} and the nodes at most two steps before it, which are the
+     * first nodes its BFS in the transpose reaches. Two nodes get the same key with a probability
+     * equal to the Jaccard similarity of these sets. Only the first predecessors of a node are used,
+     * to bound the work for nodes of high indegree.
+     *
+     * @param node
+     * @return The smallest hash of the nodes
+     */
+    private long neighborhoodKey(long node) {
+        long key = HashCommon.mix(node);
+        LazyLongIterator predecessors = graphTranspose.successors(node);
+        for (long d = Math.min(graphTranspose.outdegree(node), NEIGHBORHOOD_KEY_PREDECESSORS); d > 0; d--) {
+            long predecessor = predecessors.nextLong();
+            key = Math.min(key, HashCommon.mix(predecessor));
+
+            LazyLongIterator secondPredecessors = graphTranspose.successors(predecessor);
+            for (long d2 = Math.min(graphTranspose.outdegree(predecessor), NEIGHBORHOOD_KEY_SECOND_PREDECESSORS); d2 > 0; d2--) {
+                key = Math.min(key, HashCommon.mix(secondPredecessors.nextLong()));
+            }
         }
+        return key;
     }
 
     /**
@@ -605,12 +1280,12 @@ public class DANF implements DynamicNeighborhoodFunction{
      * @return A hash set of source nodes or an empty hash set
      *         if the edges shouldn't be partitioned.
      */
-    private LongOpenHashSet getSourceNodesAsHashSet(Edge[] edges) {
+    private LongOpenHashSet getSourceNodesAsHashSet(EdgeBatch edges) {
         LongOpenHashSet sourceNodes = new LongOpenHashSet();
 
-        if(edges.length > partitionSize * 1.1) {
-            for (Edge edge : edges) {
-                sourceNodes.add(edge.from);
+        if(edges.size() > partitionSize * 1.1) {
+            for (int i = 0; i < edges.size(); i++) {
+                sourceNodes.add(edges.from(i));
             }
         }
 
@@ -630,46 +1305,89 @@ public class DANF implements DynamicNeighborhoodFunction{
         return vc.getMemoryUsageBytes();
     }
 
+    /**
+     * The registers of the travelers are counted by the pool keeping them.
+     * @return
+     */
     public long getMemoryUsageMsBfsBytes() {
-        return transposeMSBFS.getMemoryUsageBytes(trav -> (long)((PropagationTraveler)trav).bits.length*counterLongWords*Long.BYTES);
+        return transposeMSBFS.getMemoryUsageBytes(trav -> 0L) + travelerPool.getMemoryUsageBytes();
     }
 
     @Override
     public long getMemoryUsageBytes() {
         return graph.getMemoryUsageBytes() + graphTranspose.getMemoryUsageBytes() +
-                Utils.getMemoryUsage(vc, counterIndex, history) +
-                transposeMSBFS.getMemoryUsageBytes(trav -> (long)((PropagationTraveler)trav).bits.length*counterLongWords*Long.BYTES);
+                Utils.getMemoryUsage(vc, counterIndex, history) + getMemoryUsageMsBfsBytes();
     }
 
-    private MSBreadthFirst.Visitor propagateVisitor(LongOpenHashSet otherSourceNodes){
-        boolean needsSync = !history[STATIC_LOGLOG].longwordAligned;
+    /**
+     * @param otherSourceNodes Sources of later partitions, where the BFSs are stopped if the source is in
+     *                         the vertex cover. The traveler of the source's own BFS then carries its history
+     *                         levels, including what the stopped BFSs added. Sources outside the vertex cover
+     *                         only keep their top level, so the BFSs must continue past them.
+     * @param notPrunable Nodes whose predecessors may lack registers the node has, where the BFSs
+     *                    are never stopped for leaving the history unchanged.
+     */
+    private MSBreadthFirst.Visitor propagateVisitor(LongOpenHashSet otherSourceNodes, LongOpenHashSet notPrunable){
+        boolean needsSync = !history[STATIC_LOGLOG].longwordAligned();
 
         return (long visitNode, BitSet bfsVisits, BitSet seen, int d, MSBreadthFirst.Traveler t) -> {
             int depth = d + 1;
             PropagationTraveler propTraver = (PropagationTraveler) t;
-
-            if (vc.isInVertexCover(visitNode)) {
-                long[] visitNodeBits = new long[counterLongWords];
+            Scratch scratch = this.scratch.get();
+
+            /* Only nodes in the vertex cover have all levels, so only they can show that
+             * the traveler has nothing new to give the nodes further away */
+            boolean unchanged = false;
+            boolean inVertexCover = vc.isInVertexCover(visitNode);
+            if (inVertexCover) {
+                unchanged = !notPrunable.contains(visitNode);
                 for (int i = 0; i < h + 1 - depth; i++) {
                     long visitNodeIndex = getNodeIndex(visitNode, i + depth);
                     int historyIndex = i + depth - 1;
-                    unionVisitNodeWithTraveler(needsSync, propTraver, visitNodeBits, visitNodeIndex, historyIndex, i);
+                    if(unionVisitNodeWithTraveler(needsSync, propTraver, scratch, visitNodeIndex, historyIndex, i))
+                        unchanged = false;
                 }
             } else {
-                long[] visitNodeBits = new long[counterLongWords];
-                unionVisitNodeWithTraveler(needsSync, propTraver, visitNodeBits, visitNode, h - 1, h-depth);
+                unionVisitNodeWithTraveler(needsSync, propTraver, scratch, visitNode, h - 1, h-depth);
             }
 
-            if (depth == h || otherSourceNodes.contains(visitNode)) {
+            if (depth == h || (inVertexCover && otherSourceNodes.contains(visitNode)) || (noChangePruning && unchanged)) {
                 bfsVisits.clear();
             }
         };
     }
 
-    private void unionVisitNodeWithTraveler(boolean needsSync, PropagationTraveler propTraver, long[] visitNodeBits, long visitNodeIndex, int historyIndex, int bitsIndex) {
+    /**
+     * Unions the counter at {@code visitNodeIndex} of level {@code historyIndex} with the traveler's
+     * bits at {@code bitsIndex}. The counter is only written if it changed.
+     *
+     * @return True if the counter changed
+     */
+    private boolean unionVisitNodeWithTraveler(boolean needsSync, PropagationTraveler propTraver, Scratch scratch,
+                                               long visitNodeIndex, int historyIndex, int bitsIndex) {
+        long[] visitNodeBits = scratch.counterBits;
         history[historyIndex].getCounter(visitNodeIndex, visitNodeBits);
-        history[historyIndex].max(visitNodeBits, propTraver.bits[bitsIndex]);
+        System.arraycopy(visitNodeBits, 0, scratch.previousBits, 0, counterLongWords);
+        scratch.max(history[historyIndex], visitNodeBits, propTraver.bits[bitsIndex]);
+        if(Arrays.equals(visitNodeBits, scratch.previousBits))
+            return false;
+
+        if(historyIndex == h - 1) {
+            long stamp = topLevelSnapshot.lockForWrite(history[historyIndex], visitNodeIndex);
+            try {
+                /* Another BFS may have written the counter since it was read */
+                history[historyIndex].getCounter(visitNodeIndex, visitNodeBits);
+                scratch.max(history[historyIndex], visitNodeBits, propTraver.bits[bitsIndex]);
+                setVisitNodeCounter(needsSync, visitNodeBits, visitNodeIndex, historyIndex);
+            } finally {
+                topLevelSnapshot.unlockWrite(visitNodeIndex, stamp);
+            }
+        } else
+            setVisitNodeCounter(needsSync, visitNodeBits, visitNodeIndex, historyIndex);
+        return true;
+    }
 
+    private void setVisitNodeCounter(boolean needsSync, long[] visitNodeBits, long visitNodeIndex, int historyIndex) {
         if(needsSync) {
             synchronized (history[historyIndex]) {
                 history[historyIndex].setCounter(visitNodeBits, visitNodeIndex);
@@ -678,26 +1396,160 @@ public class DANF implements DynamicNeighborhoodFunction{
             history[historyIndex].setCounter(visitNodeBits, visitNodeIndex);
     }
 
-    private class PropagationTraveler extends MSBreadthFirst.Traveler{
-        long[][] bits;
+    /**
+     * The orders that the edges of a batch can be given before they are split into partitions,
+     * see {@link DANF#withPartitionOrder(PartitionOrder)}.
+     */
+    public enum PartitionOrder {
+        /** By the estimated size of the source's ball of radius h, smallest first */
+        DANF_VALUES,
+        /** By source node, which keeps close sources together if the node ids follow the graph's locality */
+        SOURCE,
+        /** By a MinHash of the sources' predecessors within two steps, which keeps sources whose BFSs overlap together */
+        NEIGHBORHOOD
+    }
 
-        PropagationTraveler(long[][] bits){
-            this.bits = bits;
+    /**
+     * Carries the registers of {@code levels} history levels, where level {@code i} of the
+     * traveler is added to level {@code i + depth} of the visited nodes. The registers are
+     * kept by the {@link TravelerPool} and reused by later partitions.
+     */
+    private class PropagationTraveler extends MSBreadthFirst.Traveler{
+        final long[][] bits = new long[h][];
+        int levels;
+
+        /**
+         * Clears the registers of the first {@code levels} levels, allocating them
+         * the first time they are used.
+         * @param levels
+         */
+        void reuse(int levels) {
+            clearShouldClone();
+            this.levels = levels;
+            for (int i = 0; i < levels; i++) {
+                if(bits[i] == null)
+                    bits[i] = new long[counterLongWords];
+                else
+                    Arrays.fill(bits[i], 0);
+            }
         }
 
         @Override
         public MSBreadthFirst.Traveler merge(MSBreadthFirst.Traveler mergeWith, int d) {
 
             int depth = d + 1;
-            long[][] clonedBits = shouldClone() ? new long[h + 1 - depth][counterLongWords] : bits;
+            PropagationTraveler merged = this;
+            if(shouldClone()) {
+                merged = travelerPool.take(h + 1 - depth);
+                for (int i = 0; i < merged.levels; i++) {
+                    System.arraycopy(bits[i], 0, merged.bits[i], 0, counterLongWords);
+                }
+            }
             PropagationTraveler otherTraveler = (PropagationTraveler) mergeWith;
+            Scratch scratch = DANF.this.scratch.get();
 
-            for (int i = 0; i < clonedBits.length; i++) {
-                if(shouldClone())
-                    clonedBits[i] = bits[i].clone();
-                history[STATIC_LOGLOG].max(clonedBits[i], otherTraveler.bits[i]);
+            for (int i = 0; i < merged.levels; i++) {
+                scratch.max(history[STATIC_LOGLOG], merged.bits[i], otherTraveler.bits[i]);
             }
-            return shouldClone() ? new PropagationTraveler(clonedBits) : this;
+            return merged;
+        }
+    }
+
+    /**
+     * Hands out the travelers of the partition being propagated. Travelers are never
+     * returned one by one, instead all of them are reused once the partition has been
+     * propagated and the search no longer references them.
+     *
+     * Travelers can be taken by several threads at once, but {@link TravelerPool#reset()}
+     * must only be called when no traveler is in use.
+     */
+    private class TravelerPool {
+
+        private static final int SEGMENT_SHIFT = 8;
+        private static final int TRAVELERS_PER_SEGMENT = 1 << SEGMENT_SHIFT;
+        private static final int SEGMENT_MASK = TRAVELERS_PER_SEGMENT - 1;
+
+        private final AtomicInteger taken = new AtomicInteger();
+        private volatile PropagationTraveler[][] segments = new PropagationTraveler[0][];
+
+        /**
+         * @param levels
+         * @return A traveler with cleared registers of {@code levels} levels
+         */
+        PropagationTraveler take(int levels) {
+            int index = taken.getAndIncrement();
+            if(index < 0)
+                throw new IllegalStateException("Too many travelers were taken without resetting the pool");
+            PropagationTraveler traveler = segment(index >>> SEGMENT_SHIFT)[index & SEGMENT_MASK];
+            traveler.reuse(levels);
+            return traveler;
+        }
+
+        private PropagationTraveler[] segment(int segment) {
+            PropagationTraveler[][] segments = this.segments;
+            if(segment < segments.length)
+                return segments[segment];
+
+            synchronized (this) {
+                segments = this.segments;
+                if(segment >= segments.length) {
+                    int oldLength = segments.length;
+                    segments = Arrays.copyOf(segments, Math.max(segment + 1, 2 * oldLength));
+                    for (int i = oldLength; i < segments.length; i++) {
+                        segments[i] = new PropagationTraveler[TRAVELERS_PER_SEGMENT];
+                        for (int j = 0; j < TRAVELERS_PER_SEGMENT; j++) {
+                            segments[i][j] = new PropagationTraveler();
+                        }
+                    }
+                    this.segments = segments;
+                }
+                return segments[segment];
+            }
+        }
+
+        /**
+         * Makes all travelers available again.
+         */
+        void reset() {
+            taken.set(0);
+        }
+
+        long getMemoryUsageBytes() {
+            long registers = 0;
+            for (PropagationTraveler[] segment : segments) {
+                for (PropagationTraveler traveler : segment) {
+                    for (long[] levelBits : traveler.bits) {
+                        if(levelBits != null)
+                            registers++;
+                    }
+                }
+            }
+            return registers * counterLongWords * Long.BYTES;
+        }
+    }
+
+    /**
+     * The registers a thread works on while propagating, so that visits and merges don't allocate any.
+     * It's kept by the threads, so it must not reference the DANF.
+     */
+    private static class Scratch {
+        final long[] counterBits;
+        final long[] previousBits;
+        private final long[] accumulator;
+        private final long[] mask;
+
+        Scratch(int counterLongWords) {
+            counterBits = new long[counterLongWords];
+            previousBits = new long[counterLongWords];
+            accumulator = new long[counterLongWords];
+            mask = new long[counterLongWords];
+        }
+
+        /**
+         * Sets {@code x} to the maximum of the registers of {@code x} and {@code y}.
+         */
+        void max(CounterArray counters, long[] x, long[] y) {
+            counters.max(x, y, accumulator, mask);
         }
     }
 }
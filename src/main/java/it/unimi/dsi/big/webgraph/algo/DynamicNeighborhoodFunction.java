@@ -1,6 +1,7 @@
 package it.unimi.dsi.big.webgraph.algo;
 
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
 
 /**
  * @author Simon Lindhén
@@ -9,6 +10,8 @@ import it.unimi.dsi.big.webgraph.Edge;
 public interface DynamicNeighborhoodFunction {
 
     void addEdges(Edge... edges);
+    void addEdges(EdgeBatch edges);
+    void removeEdges(Edge... edges);
     void close();
 
     long getMemoryUsageBytes();
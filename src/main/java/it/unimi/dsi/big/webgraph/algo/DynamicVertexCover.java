@@ -1,12 +1,15 @@
 package it.unimi.dsi.big.webgraph.algo;
 
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
 import it.unimi.dsi.big.webgraph.LazyLongIterator;
 import it.unimi.dsi.big.webgraph.MutableGraph;
 import it.unimi.dsi.big.webgraph.NodeIterator;
 import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongBigArrays;
 
+import java.io.*;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -31,6 +34,8 @@ public class DynamicVertexCover implements IDynamicVertexCover {
     private long maximalMatchingLength;
 
     private LongArrayBitVector vertexCover;
+    /* The number of set bits in vertexCover, kept so that the size is known without counting them */
+    private long vertexCoverSize = 0;
     private MutableGraph graph;
     private float resizeFactor = 1.1f;
 
@@ -50,6 +55,55 @@ public class DynamicVertexCover implements IDynamicVertexCover {
         });
     }
 
+    private DynamicVertexCover(MutableGraph graph, long[][] maximalMatching, long maximalMatchingLength, LongArrayBitVector vertexCover) {
+        this.graph = graph;
+        this.maximalMatching = maximalMatching;
+        this.maximalMatchingLength = maximalMatchingLength;
+        this.vertexCover = vertexCover;
+        vertexCoverSize = vertexCover.count();
+    }
+
+    /**
+     * Stores the maximal matching and the vertex cover to {@code file}, so that the vertex cover
+     * can be loaded by {@link DynamicVertexCover#load(String, MutableGraph)} without going through
+     * all edges of the graph.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void store(String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeLong(maximalMatchingLength);
+            BinIO.storeLongs(maximalMatching, 0, maximalMatchingLength, out);
+
+            long[] bits = vertexCover.bits();
+            int words = (int) ((vertexCover.length() + Long.SIZE - 1) / Long.SIZE);
+            out.writeLong(vertexCover.length());
+            BinIO.storeLongs(bits, 0, words, out);
+        }
+    }
+
+    /**
+     * Loads a vertex cover stored by {@link DynamicVertexCover#store(String)}.
+     *
+     * @param file
+     * @param graph The graph the vertex cover was stored from
+     * @return The loaded vertex cover
+     * @throws IOException
+     */
+    public static DynamicVertexCover load(String file, MutableGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long maximalMatchingLength = in.readLong();
+            long[][] maximalMatching = LongBigArrays.newBigArray(maximalMatchingLength);
+            BinIO.loadLongs(in, maximalMatching, 0, maximalMatchingLength);
+
+            long vertexCoverLength = in.readLong();
+            long[] bits = new long[(int) ((vertexCoverLength + Long.SIZE - 1) / Long.SIZE)];
+            BinIO.loadLongs(in, bits);
+            return new DynamicVertexCover(graph, maximalMatching, maximalMatchingLength, LongArrayBitVector.wrap(bits, vertexCoverLength));
+        }
+    }
+
 
     public long getMemoryUsageBytes() {
         return maximalMatchingLength * Long.BYTES + vertexCover.length() / Byte.SIZE;
@@ -59,16 +113,37 @@ public class DynamicVertexCover implements IDynamicVertexCover {
     @Override
     public Map<Long, AffectedState> insertEdge(Edge edge) {
         Map<Long, AffectedState> affectedNodes = new HashMap<>();
-        if(isInVertexCover(edge.from) || isInVertexCover(edge.to)) {
-            return affectedNodes;
-        }
+        if(insertEdge(edge.from, edge.to))
+            updateAffectedNodesFromEdge(edge, AffectedState.ADDED, affectedNodes);
 
-        addEdgeToMaximalMatching(edge);
-        addEdgeToVertexCover(edge);
+        return affectedNodes;
+    }
 
-        updateAffectedNodesFromEdge(edge, AffectedState.ADDED, affectedNodes);
+    @Override
+    public void insertEdges(EdgeBatch edges, Map<Long, AffectedState> affectedNodes) {
+        for (int i = 0; i < edges.size(); i++) {
+            long from = edges.from(i), to = edges.to(i);
+            if(insertEdge(from, to)) {
+                updateAffectedNodes(from, AffectedState.ADDED, affectedNodes);
+                updateAffectedNodes(to, AffectedState.ADDED, affectedNodes);
+            }
+        }
+    }
 
-        return affectedNodes;
+    /**
+     * Adds the edge to the maximal matching if neither endpoint is covered.
+     * @param from
+     * @param to
+     * @return True if the endpoints were added to the vertex cover
+     */
+    private boolean insertEdge(long from, long to) {
+        if(isInVertexCover(from) || isInVertexCover(to)) {
+            return false;
+        }
+
+        addEdgeToMaximalMatching(from, to);
+        addEdgeToVertexCover(from, to);
+        return true;
     }
 
 
@@ -162,12 +237,11 @@ public class DynamicVertexCover implements IDynamicVertexCover {
             long successorOfCurrentNode = succ.nextLong();
 
             if(!isInVertexCover(successorOfCurrentNode)){
-                Edge edge = new Edge(currentNode, successorOfCurrentNode);
-                addEdgeToMaximalMatching(edge);
-                addEdgeToVertexCover(edge);
+                addEdgeToMaximalMatching(currentNode, successorOfCurrentNode);
+                addEdgeToVertexCover(currentNode, successorOfCurrentNode);
 
-                addedNodes.add(edge.from);
-                addedNodes.add(edge.to);
+                addedNodes.add(currentNode);
+                addedNodes.add(successorOfCurrentNode);
 
                 break;
             }
@@ -206,9 +280,8 @@ public class DynamicVertexCover implements IDynamicVertexCover {
                 continue;
             }
 
-            Edge incomingEdge = new Edge(neighbor, node);
-            addEdgeToMaximalMatching(incomingEdge);
-            addEdgeToVertexCover(incomingEdge);
+            addEdgeToMaximalMatching(neighbor, node);
+            addEdgeToVertexCover(neighbor, node);
 
             addedNodes.add(node);
             addedNodes.add(neighbor);
@@ -244,21 +317,23 @@ public class DynamicVertexCover implements IDynamicVertexCover {
         return true;
     }
 
-    private void addEdgeToMaximalMatching(Edge edge) {
-        if(edge.from >= maximalMatchingLength) {
-            maximalMatching = LongBigArrays.ensureCapacity(maximalMatching, getNewLength(maximalMatchingLength, edge.from + 1, resizeFactor));
+    private void addEdgeToMaximalMatching(long from, long to) {
+        if(from >= maximalMatchingLength) {
+            maximalMatching = LongBigArrays.ensureCapacity(maximalMatching, getNewLength(maximalMatchingLength, from + 1, resizeFactor));
             long newLength = LongBigArrays.length(maximalMatching);
             LongBigArrays.fill(maximalMatching, maximalMatchingLength, newLength, -1);
             maximalMatchingLength = newLength;
         }
 
-        LongBigArrays.set(maximalMatching, edge.from, edge.to);
+        LongBigArrays.set(maximalMatching, from, to);
     }
 
-    private void addEdgeToVertexCover(Edge edge) {
-        checkArrayCapacity(edge);
-        vertexCover.set(edge.from, true);
-        vertexCover.set(edge.to, true);
+    private void addEdgeToVertexCover(long from, long to) {
+        checkArrayCapacity(from, to);
+        if(!vertexCover.set(from, true))
+            vertexCoverSize++;
+        if(!vertexCover.set(to, true))
+            vertexCoverSize++;
     }
 
     private void removeEdgeFromMaximalMatching(Edge edge) {
@@ -270,13 +345,15 @@ public class DynamicVertexCover implements IDynamicVertexCover {
     }
 
     private void removeEdgeFromVertexCover(Edge edge) {
-        checkArrayCapacity(edge);
-        vertexCover.set(edge.from, false);
-        vertexCover.set(edge.to,   false);
+        checkArrayCapacity(edge.from, edge.to);
+        if(vertexCover.set(edge.from, false))
+            vertexCoverSize--;
+        if(vertexCover.set(edge.to, false))
+            vertexCoverSize--;
     }
 
-    private void checkArrayCapacity(Edge edge) {
-        long largestNode = Math.max(edge.from, edge.to);
+    private void checkArrayCapacity(long from, long to) {
+        long largestNode = Math.max(from, to);
         long limit = vertexCover.length();
 
         if (limit < largestNode + 1) {
@@ -301,9 +378,13 @@ public class DynamicVertexCover implements IDynamicVertexCover {
         return new VertexCoverIterator();
     }
 
+    /**
+     * Runs in O(1).
+     * @return The number of nodes in the vertex cover
+     */
     @Override
     public long getVertexCoverSize() {
-        return vertexCover.count();
+        return vertexCoverSize;
     }
 
     /**
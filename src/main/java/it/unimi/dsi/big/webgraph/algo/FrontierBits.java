@@ -0,0 +1,273 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stores one row of {@code numSources} bits for every node touched by a
+ * {@link MSBreadthFirst}. The bits are packed into flat {@code long} words
+ * kept in fixed-size segments, instead of one {@link BitSet} object per node.
+ *
+ * Rows are handed out in the order nodes are added, so the rows in use also
+ * form a list of the touched nodes. The node to row mapping is a sparse set,
+ * which makes {@link FrontierBits#reset(long, int)} O(1) and lets the memory
+ * be reused by every iteration and search without being cleared.
+ *
+ * Rows are added without locking by {@link FrontierBits#addRow(long)}. A node claims
+ * its row with a compare-and-set on its mapping, which is tagged with the generation
+ * of the matrix so that mappings left from earlier generations are never mistaken for
+ * current ones. Reading and writing the words of a row is not synchronized.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+final class FrontierBits {
+
+    static final long NO_ROW = -1;
+
+    private static final int ROW_SEGMENT_SHIFT = 12;
+    private static final int ROWS_PER_SEGMENT = 1 << ROW_SEGMENT_SHIFT;
+    private static final int ROW_SEGMENT_MASK = ROWS_PER_SEGMENT - 1;
+
+    private static final int NODE_SEGMENT_SHIFT = 20;
+    private static final int NODES_PER_SEGMENT = 1 << NODE_SEGMENT_SHIFT;
+    private static final int NODE_SEGMENT_MASK = NODES_PER_SEGMENT - 1;
+
+    /* A mapping holds the generation in its high bits and the row in its low bits */
+    private static final int GENERATION_SHIFT = 40;
+    private static final long ROW_MASK = (1L << GENERATION_SHIFT) - 1;
+    private static final long MAX_GENERATION = (1L << (Long.SIZE - 1 - GENERATION_SHIFT)) - 1;
+    /* The row of a mapping whose row is being added by another thread */
+    private static final long CLAIMED = ROW_MASK;
+
+    private int words;
+    private long numNodes;
+    private long generation = 0;
+    private final AtomicLong rows = new AtomicLong();
+
+    private AtomicLongArray[] rowOf = new AtomicLongArray[0];
+    private AtomicReferenceArray<long[]> rowOwner = new AtomicReferenceArray<>(0);
+    private AtomicReferenceArray<long[]> bits = new AtomicReferenceArray<>(0);
+
+    /**
+     * Removes all rows and prepares the matrix for {@code numNodes} nodes
+     * and {@code numSources} bits per row. Memory is kept if the number of
+     * words per row doesn't change.
+     *
+     * @param numNodes
+     * @param numSources
+     */
+    void reset(long numNodes, int numSources) {
+        if(numNodes > ROW_MASK)
+            throw new IllegalArgumentException("At most " + ROW_MASK + " nodes are supported");
+
+        int words = (numSources + Long.SIZE - 1) / Long.SIZE;
+        if(words != this.words) {
+            this.words = words;
+            bits = new AtomicReferenceArray<>(0);
+            rowOwner = new AtomicReferenceArray<>(0);
+        }
+
+        int nodeSegments = (int) ((numNodes + NODES_PER_SEGMENT - 1) >>> NODE_SEGMENT_SHIFT);
+        if(nodeSegments > rowOf.length) {
+            int oldLength = rowOf.length;
+            rowOf = Arrays.copyOf(rowOf, nodeSegments);
+            for (int i = oldLength; i < nodeSegments; i++) {
+                rowOf[i] = new AtomicLongArray(NODES_PER_SEGMENT);
+            }
+        }
+
+        int rowSegments = (int) ((numNodes + ROWS_PER_SEGMENT - 1) >>> ROW_SEGMENT_SHIFT);
+        if(rowSegments > bits.length()) {
+            bits = grow(bits, rowSegments);
+            rowOwner = grow(rowOwner, rowSegments);
+        }
+
+        /* Generation 0 is never used, so untouched mappings are never valid */
+        generation = generation == MAX_GENERATION ? 1 : generation + 1;
+        this.numNodes = numNodes;
+        rows.set(0);
+    }
+
+    private static AtomicReferenceArray<long[]> grow(AtomicReferenceArray<long[]> array, int length) {
+        AtomicReferenceArray<long[]> grown = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < array.length(); i++) {
+            grown.set(i, array.get(i));
+        }
+        return grown;
+    }
+
+    /**
+     * @return The number of longs in a row
+     */
+    int words() {
+        return words;
+    }
+
+    /**
+     * @return The number of rows in use
+     */
+    long rows() {
+        return rows.get();
+    }
+
+    /**
+     * @param row
+     * @return The node owning {@code row}
+     */
+    long node(long row) {
+        return rowOwner.get((int) (row >>> ROW_SEGMENT_SHIFT))[(int) (row & ROW_SEGMENT_MASK)];
+    }
+
+    /**
+     * @param node
+     * @return The row of {@code node} or {@link FrontierBits#NO_ROW} if it has none.
+     */
+    long row(long node) {
+        long row = currentRow(rowOf[(int) (node >>> NODE_SEGMENT_SHIFT)].get((int) (node & NODE_SEGMENT_MASK)), node);
+        return row == CLAIMED ? NO_ROW : row;
+    }
+
+    /**
+     * @param mapping
+     * @param node
+     * @return The row in {@code mapping} if it's a mapping of the current generation, otherwise NO_ROW
+     */
+    private long currentRow(long mapping, long node) {
+        if(mapping >>> GENERATION_SHIFT != generation)
+            return NO_ROW;
+        long row = mapping & ROW_MASK;
+        /* After the generation has wrapped around an old mapping may look current */
+        if(row != CLAIMED && (row >= rows.get() || !isOwner(row, node)))
+            return NO_ROW;
+        return row;
+    }
+
+    private boolean isOwner(long row, long node) {
+        long[] owners = rowOwner.get((int) (row >>> ROW_SEGMENT_SHIFT));
+        return owners != null && owners[(int) (row & ROW_SEGMENT_MASK)] == node;
+    }
+
+    /**
+     * Returns the row of {@code node}, adding a cleared row if it has none.
+     * If several threads add the same node at once, one of them adds the row
+     * while the others wait for it.
+     *
+     * @param node
+     * @return The row of {@code node}
+     */
+    long addRow(long node) {
+        if(node >= numNodes)
+            throw new IllegalArgumentException("Node " + node + " is outside of the " + numNodes + " nodes of the matrix");
+
+        AtomicLongArray nodeSegment = rowOf[(int) (node >>> NODE_SEGMENT_SHIFT)];
+        int index = (int) (node & NODE_SEGMENT_MASK);
+        long generationBits = generation << GENERATION_SHIFT;
+
+        while(true) {
+            long mapping = nodeSegment.get(index);
+            long row = currentRow(mapping, node);
+            if(row == CLAIMED) {
+                Thread.yield();
+            } else if(row != NO_ROW) {
+                return row;
+            } else if(nodeSegment.compareAndSet(index, mapping, generationBits | CLAIMED)) {
+                row = rows.getAndIncrement();
+                initializeRow(row, node);
+                nodeSegment.set(index, generationBits | row);
+                return row;
+            }
+        }
+    }
+
+    private void initializeRow(long row, long node) {
+        int segment = (int) (row >>> ROW_SEGMENT_SHIFT);
+        if(bits.get(segment) == null)
+            bits.compareAndSet(segment, null, new long[ROWS_PER_SEGMENT * words]);
+        if(rowOwner.get(segment) == null)
+            rowOwner.compareAndSet(segment, null, new long[ROWS_PER_SEGMENT]);
+
+        Arrays.fill(bits.get(segment), offset(row), offset(row) + words, 0);
+        rowOwner.get(segment)[(int) (row & ROW_SEGMENT_MASK)] = node;
+    }
+
+    /**
+     * @param row
+     * @return The segment holding the words of {@code row}
+     */
+    long[] segment(long row) {
+        return bits.get((int) (row >>> ROW_SEGMENT_SHIFT));
+    }
+
+    /**
+     * @param row
+     * @return The index of the first word of {@code row} in its segment
+     */
+    int offset(long row) {
+        return (int) (row & ROW_SEGMENT_MASK) * words;
+    }
+
+    void set(long row, int bit) {
+        segment(row)[offset(row) + (bit >>> 6)] |= 1L << bit;
+    }
+
+    boolean isEmpty(long row) {
+        long[] segment = segment(row);
+        for (int i = offset(row), end = i + words; i < end; i++) {
+            if(segment[i] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param row
+     * @param numBits
+     * @return True if the first {@code numBits} bits of {@code row} are all set
+     */
+    boolean isFull(long row, int numBits) {
+        long[] segment = segment(row);
+        int offset = offset(row);
+        for (int i = 0; i < numBits / Long.SIZE; i++) {
+            if(segment[offset + i] != -1L)
+                return false;
+        }
+        int remainingBits = numBits % Long.SIZE;
+        return remainingBits == 0 || segment[offset + numBits / Long.SIZE] == (1L << remainingBits) - 1;
+    }
+
+    /**
+     * Sets {@code row} to the bits of {@code bitSet}
+     * @param row
+     * @param bitSet
+     */
+    void setFrom(long row, BitSet bitSet) {
+        long[] segment = segment(row);
+        int offset = offset(row);
+        Arrays.fill(segment, offset, offset + words, 0);
+        for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit + 1)) {
+            segment[offset + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Sets {@code bitSet} to the bits of {@code row}
+     * @param row
+     * @param bitSet
+     */
+    void copyTo(long row, BitSet bitSet) {
+        bitSet.clear();
+        long[] segment = segment(row);
+        int offset = offset(row);
+        for (int i = 0; i < words; i++) {
+            long word = segment[offset + i];
+            while(word != 0) {
+                bitSet.set(i * Long.SIZE + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+}
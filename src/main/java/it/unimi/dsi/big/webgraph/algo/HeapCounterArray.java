@@ -0,0 +1,115 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.util.HyperLogLogCounterArray;
+
+/**
+ *
+ * A {@link CounterArray} keeping its registers on the heap in a {@link HyperLogLogCounterArray}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class HeapCounterArray implements CounterArray {
+
+    private final HyperLogLogCounterArray counters;
+
+    public HeapCounterArray(HyperLogLogCounterArray counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * @return The counters holding the registers
+     */
+    public HyperLogLogCounterArray getCounters() {
+        return counters;
+    }
+
+    @Override
+    public void getCounter(long index, long[] dest) {
+        counters.getCounter(index, dest);
+    }
+
+    @Override
+    public void setCounter(long[] source, long index) {
+        counters.setCounter(source, index);
+    }
+
+    @Override
+    public void max(long[] x, long[] y) {
+        counters.max(x, y);
+    }
+
+    @Override
+    public void max(long[] x, long[] y, long[] accumulator, long[] mask) {
+        counters.max(x, y, accumulator, mask);
+    }
+
+    @Override
+    public void add(long element, long[] counter) {
+        counters.add(element, counter);
+    }
+
+    @Override
+    public void add(long index, long element) {
+        counters.add(index, element);
+    }
+
+    @Override
+    public double count(long index) {
+        return counters.count(index);
+    }
+
+    @Override
+    public double count(long[] counter) {
+        return counters.count(counter, 0);
+    }
+
+    @Override
+    public void clearCounter(long index) {
+        counters.clearCounter(index);
+    }
+
+    @Override
+    public void addCounters(long numCounters) {
+        counters.addCounters(numCounters);
+    }
+
+    @Override
+    public void union(long index, CounterArray from, long fromIndex) {
+        if(from instanceof HeapCounterArray) {
+            counters.union(index, ((HeapCounterArray) from).counters, fromIndex);
+        } else {
+            long[] bits = new long[counters.counterLongwords];
+            long[] fromBits = new long[counters.counterLongwords];
+            counters.getCounter(index, bits);
+            from.getCounter(fromIndex, fromBits);
+            counters.max(bits, fromBits);
+            counters.setCounter(bits, index);
+        }
+    }
+
+    @Override
+    public boolean hasSameRegisters(long index1, long index2) {
+        return counters.hasSameRegisters(index1, index2);
+    }
+
+    @Override
+    public long getJenkinsSeed() {
+        return counters.getJenkinsSeed();
+    }
+
+    @Override
+    public int log2m() {
+        return counters.log2m;
+    }
+
+    @Override
+    public int counterLongwords() {
+        return counters.counterLongwords;
+    }
+
+    @Override
+    public boolean longwordAligned() {
+        return counters.longwordAligned;
+    }
+}
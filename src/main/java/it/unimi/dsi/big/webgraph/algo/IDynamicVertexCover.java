@@ -1,6 +1,7 @@
 package it.unimi.dsi.big.webgraph.algo;
 
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
 import it.unimi.dsi.big.webgraph.LazyLongIterator;
 import it.unimi.dsi.big.webgraph.MutableGraph;
 import it.unimi.dsi.bits.LongArrayBitVector;
@@ -16,6 +17,15 @@ public interface IDynamicVertexCover {
     enum AffectedState {ADDED, REMOVED}
 
     Map<Long, AffectedState> insertEdge(Edge edge);
+
+    /**
+     * Inserts every edge of {@code edges} and adds the nodes whose membership
+     * in the vertex cover changed to {@code affectedNodes}.
+     *
+     * @param edges
+     * @param affectedNodes
+     */
+    void insertEdges(EdgeBatch edges, Map<Long, AffectedState> affectedNodes);
     Map<Long, AffectedState> deleteEdge(Edge edge, MutableGraph graphTranspose);
 
     boolean isInVertexCover(long node);
@@ -0,0 +1,417 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of edges that any number of threads can add edges to, which are inserted into a
+ * {@link DynamicNeighborhoodFunction} by a thread of the queue.
+ *
+ * Edges are inserted in groups. The queue waits until it holds {@code maxBatchSize} edges or the oldest
+ * waiting edge has waited {@code maxDelay}, and then inserts up to {@code maxBatchSize} edges at once.
+ * The edges that arrive while a group is inserted are waiting when it is done, so the groups grow with
+ * the load. A larger {@code maxBatchSize} and {@code maxDelay} give fewer and larger groups, which is a
+ * higher throughput, at the cost of a longer time until an edge is counted, see
+ * {@link IngestionQueue#withMaxBatchSize(int)} and {@link IngestionQueue#withMaxDelay(long, TimeUnit)}.
+ *
+ * When the queue is full, {@link IngestionQueue#put(long, long)} waits for room and
+ * {@link IngestionQueue#offer(long, long)} returns false, so that producers are slowed down to the rate
+ * of the insertions. Edges are stored as primitives until they are inserted.
+ *
+ * If the insertion of a group fails, the queue is closed and the exception is the cause of the
+ * {@link IllegalStateException} thrown by later calls.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class IngestionQueue implements AutoCloseable {
+
+    private static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final DynamicNeighborhoodFunction function;
+    private final long[] from;
+    private final long[] to;
+    /* When each edge was added, so that an edge waits at most the max delay however the edges before it were grouped */
+    private final long[] addedNanos;
+    private int head = 0;
+    private int size = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition inserted = lock.newCondition();
+
+    private volatile int maxBatchSize;
+    private volatile long maxDelayNanos = DEFAULT_MAX_DELAY_NANOS;
+
+    private long numAdded = 0;
+    private long numInserted = 0;
+    private long numBatches = 0;
+    private boolean closed = false;
+    private Throwable failure;
+
+    private final Thread inserter;
+
+    /**
+     * Creates a queue that inserts groups of up to the partition size of {@code danf}.
+     *
+     * @param danf
+     * @param capacity The number of edges the queue can hold
+     */
+    public IngestionQueue(DANF danf, int capacity) {
+        this(danf, capacity, danf.getPartitionSize());
+    }
+
+    /**
+     * @param function The function to insert the edges into, which mustn't be given edges in any other way
+     *                 while the queue is open
+     * @param capacity The number of edges the queue can hold
+     * @param maxBatchSize The largest number of edges to insert at once
+     */
+    public IngestionQueue(DynamicNeighborhoodFunction function, int capacity, int maxBatchSize) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive, was " + capacity);
+        this.function = function;
+        from = new long[capacity];
+        to = new long[capacity];
+        addedNanos = new long[capacity];
+        withMaxBatchSize(maxBatchSize);
+
+        inserter = new Thread(this::insertGroups, "IngestionQueue inserter");
+        inserter.setDaemon(true);
+        inserter.start();
+    }
+
+    /**
+     * Set the largest number of edges to insert at once. The queue waits for this many
+     * edges unless the oldest one has waited for the max delay.
+     *
+     * @param maxBatchSize
+     * @return
+     */
+    public IngestionQueue withMaxBatchSize(int maxBatchSize) {
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("The max batch size must be positive, was " + maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+        signalGroup();
+        return this;
+    }
+
+    /**
+     * Set how long an edge may wait for more edges before it's inserted. The default is 10 milliseconds.
+     *
+     * @param maxDelay
+     * @param unit
+     * @return
+     */
+    public IngestionQueue withMaxDelay(long maxDelay, TimeUnit unit) {
+        if(maxDelay < 0)
+            throw new IllegalArgumentException("The max delay can't be negative, was " + maxDelay);
+        maxDelayNanos = unit.toNanos(maxDelay);
+        signalGroup();
+        return this;
+    }
+
+    private void signalGroup() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the edge {@code from -> to}, waiting for room if the queue is full.
+     *
+     * @param from
+     * @param to
+     * @throws InterruptedException
+     */
+    public void put(long from, long to) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(size == this.from.length) {
+                checkOpen();
+                notFull.await();
+            }
+            checkOpen();
+            enqueue(from, to, System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the edge if there is room in the queue.
+     *
+     * @param from
+     * @param to
+     * @return If the edge was added
+     */
+    public boolean offer(long from, long to) {
+        lock.lock();
+        try {
+            checkOpen();
+            if(size == this.from.length)
+                return false;
+            enqueue(from, to, System.nanoTime());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the edge, waiting up to {@code timeout} for room if the queue is full.
+     *
+     * @param from
+     * @param to
+     * @param timeout
+     * @param unit
+     * @return If the edge was added
+     * @throws InterruptedException
+     */
+    public boolean offer(long from, long to, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(size == this.from.length) {
+                checkOpen();
+                if(nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            checkOpen();
+            enqueue(from, to, System.nanoTime());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds all edges of the batch, waiting for room whenever the queue is full. The edges are
+     * added in order, but the edges of other threads may come in between when the queue is full.
+     *
+     * @param edges
+     * @throws InterruptedException
+     */
+    public void put(EdgeBatch edges) throws InterruptedException {
+        int i = 0;
+        while(i < edges.size()) {
+            lock.lockInterruptibly();
+            try {
+                while(size == from.length) {
+                    checkOpen();
+                    notFull.await();
+                }
+                checkOpen();
+                long now = System.nanoTime();
+                for (; i < edges.size() && size < from.length; i++) {
+                    enqueue(edges.from(i), edges.to(i), now);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds all edges, see {@link IngestionQueue#put(EdgeBatch)}.
+     *
+     * @param edges
+     * @throws InterruptedException
+     */
+    public void put(Edge ... edges) throws InterruptedException {
+        put(EdgeBatch.of(edges));
+    }
+
+    private void enqueue(long from, long to, long nanos) {
+        int tail = head + size;
+        if(tail >= this.from.length)
+            tail -= this.from.length;
+        this.from[tail] = from;
+        this.to[tail] = to;
+        addedNanos[tail] = nanos;
+        size++;
+        numAdded++;
+        if(size == 1 || size == maxBatchSize)
+            notEmpty.signal();
+    }
+
+    private void checkOpen() {
+        if(failure != null)
+            throw new IllegalStateException("Inserting edges from the queue failed", failure);
+        if(closed)
+            throw new IllegalStateException("The queue is closed");
+    }
+
+    /**
+     * Waits until all edges added before the call have been inserted.
+     *
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long target = numAdded;
+            while(numInserted < target) {
+                if(failure != null)
+                    throw new IllegalStateException("Inserting edges from the queue failed", failure);
+                notEmpty.signal();
+                inserted.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the edges that are in the queue and stops the thread of the queue. No more edges
+     * can be added. The function isn't closed. If the calling thread is interrupted while waiting,
+     * its interrupt flag is set again and a {@link RuntimeException} is thrown.
+     *
+     * @throws IllegalStateException If inserting edges failed
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            inserter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if(failure != null)
+            throw new IllegalStateException("Inserting edges from the queue failed", failure);
+    }
+
+    /**
+     * Inserts groups of edges until the queue is closed and empty.
+     */
+    private void insertGroups() {
+        EdgeBatch batch = new EdgeBatch(maxBatchSize);
+        while(true) {
+            lock.lock();
+            try {
+                if(!awaitGroup())
+                    return;
+                int batchSize = Math.min(size, maxBatchSize);
+                batch.clear();
+                for (int i = 0; i < batchSize; i++) {
+                    batch.add(from[head], to[head]);
+                    if(++head == from.length)
+                        head = 0;
+                }
+                size -= batchSize;
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                fail(new RuntimeException(e));
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            /* Errors are kept too, as the threads waiting for the edges would otherwise wait forever */
+            Throwable exception = null;
+            try {
+                function.addEdges(batch);
+            } catch (Throwable e) {
+                exception = e;
+            }
+
+            lock.lock();
+            try {
+                if(exception != null) {
+                    fail(exception);
+                    return;
+                }
+                numInserted += batch.size();
+                numBatches++;
+                inserted.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the queue because of {@code exception}. Must hold the lock.
+     * @param exception
+     */
+    private void fail(Throwable exception) {
+        failure = exception;
+        closed = true;
+        notFull.signalAll();
+        inserted.signalAll();
+    }
+
+    /**
+     * Waits until a group should be inserted. Must hold the lock.
+     *
+     * @return False if the queue is closed and empty
+     * @throws InterruptedException
+     */
+    private boolean awaitGroup() throws InterruptedException {
+        while(size == 0) {
+            if(closed)
+                return false;
+            notEmpty.await();
+        }
+        while(size < maxBatchSize && !closed && !lock.hasWaiters(inserted)) {
+            long wait = addedNanos[head] + maxDelayNanos - System.nanoTime();
+            if(wait <= 0)
+                break;
+            notEmpty.awaitNanos(wait);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of edges waiting to be inserted
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of edges inserted into the function
+     */
+    public long getNumInsertedEdges() {
+        lock.lock();
+        try {
+            return numInserted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of groups the edges have been inserted in
+     */
+    public long getNumBatches() {
+        lock.lock();
+        try {
+            return numBatches;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
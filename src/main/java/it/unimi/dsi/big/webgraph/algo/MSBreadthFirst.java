@@ -5,14 +5,20 @@ import it.unimi.dsi.big.webgraph.LazyLongIterator;
 import it.unimi.dsi.big.webgraph.MutableGraph;
 import it.unimi.dsi.big.webgraph.NodeIterator;
 import it.unimi.dsi.big.webgraph.Utils;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
 import it.unimi.dsi.fastutil.objects.ObjectBigArrays;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 
@@ -21,41 +27,181 @@ import java.util.function.Function;
  * A class to perform Multi-source Breadth-first searches on graphs using the algorithm
  * developed in the paper: "The More the Merrier: Efficient Multi-Source Graph Traversal"
  *
+ * The BFS bits of the nodes are packed into flat words by {@link FrontierBits}, whose
+ * memory is reused by every iteration and every search of this object. The bits are
+ * only copied to {@link BitSet}s when they are handed to a {@link Visitor} or returned
+ * by {@link MSBreadthFirst#breadthFirstSearch(long[], Visitor, Traveler[])}.
+ *
+ * Every level is either dense or sparse. A dense level scans every node id for
+ * nodes to visit, while a sparse level only visits the nodes in its frontier.
+ * As most levels of short searches have tiny frontiers, they cost
+ * O(frontier) instead of O(numNodes).
+ *
+ * If the graph with all edges reversed is given, large frontiers are handled by bottom-up
+ * levels: every unseen node pulls the BFSs from its in-neighbors instead of the frontier
+ * pushing them, so a node's bits are only written by one thread. The search switches to
+ * bottom-up when the edges of the frontier exceed a fraction of the unexplored edges and
+ * back when the frontier shrinks below a fraction of the nodes, as described in
+ * "Direction-Optimizing Breadth-First Search" by Beamer et al.
+ *
+ * The work of every phase of a level is divided into many more chunks than there are threads,
+ * and the threads claim chunks from a shared counter until none are left. Chunks of nodes
+ * are balanced by the number of arcs using an {@link EliasFanoCumulativeOutdegreeList},
+ * so that a few nodes of very high degree don't leave the other threads idle. The calling
+ * thread waits on a {@link Phaser} until every task of a phase is done before it starts the
+ * next phase.
+ *
+ * The tasks run on an {@link ExecutorService} that may be shared with other searches. Unless
+ * one is given, all searches share {@link MSBreadthFirst#sharedExecutor()}. As the tasks never
+ * wait for each other, a search always makes progress no matter how few threads the executor has.
+ * The executor may also be {@link MSBreadthFirst#newVirtualThreadExecutor()} on Java 21 or later.
+ *
  * @author Simon Lindhén
  * @author Johan Nilsson Hansen
  */
 public class MSBreadthFirst {
 
     private MutableGraph graph;
+    private MutableGraph oppositeGraph;
     private int numSources;
-    private int threadsLeft;
     private Visitor visitor;
     private Traveler[][] travelers;
     private Traveler[][] travelersNext;
     private boolean threadFailure;
 
-    private ExecutorService threadManager;
-    private int threads;
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+    /* The number of tasks every phase is run on */
+    private int parallelism;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private static ExecutorService sharedExecutor;
     private static AtomicInteger threadFactoryID = new AtomicInteger(0);
 
     private AtomicBoolean visitHadContent;
-    private BitSet[][] visit;
-    private BitSet[][] seen;
-    private BitSet[][] visitNext;
+    private FrontierBits visit = new FrontierBits();
+    private FrontierBits seen = new FrontierBits();
+    private FrontierBits visitNext = new FrontierBits();
+    /* Striped locks serializing the updates of a node in visitNext and its traveler */
+    private Object[] locks;
     private int iteration;
+
+    /* A level is sparse when its frontier is estimated to have fewer edges than this fraction of the nodes,
+     * in the same way as HyperBall decides on local iterations. */
+    private static final double SPARSE_FRONTIER_THRESHOLD = 0.1;
+    private boolean sparse;
+    private long[] frontier = new long[0];
+    private int frontierSize;
+    private long[] frontierSuccessorsStart = new long[1];
+    private long[][] frontierSuccessors = LongBigArrays.EMPTY_BIG_ARRAY;
+
+    /* The switching parameters of Beamer et al. */
+    private static final int BOTTOM_UP_ALPHA = 14;
+    private static final int BOTTOM_UP_BETA = 24;
+    private boolean bottomUp;
+    private AtomicLong frontierEdges = new AtomicLong();
     private boolean hasTraveler;
 
+    /* Every phase is divided into about this many chunks per thread */
+    private static final int CHUNKS_PER_THREAD = 16;
+    /* The smallest number of rows in a chunk of rows */
+    private static final int MIN_ROWS_PER_CHUNK = 64;
+    private DegreeBalancedChunks graphChunks;
+    private DegreeBalancedChunks oppositeChunks;
+    private long[] nodeChunks;
+    private int[] frontierChunks = new int[1];
+    private int numFrontierChunks;
+    /* The next chunk to claim in each phase of a level */
+    private final AtomicLong[] nextChunk = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
     /**
-     * Initialize a Breadth-first search in {@code graph}.
+     * Initialize a Breadth-first search in {@code graph} that runs on {@link MSBreadthFirst#sharedExecutor()}.
+     * @param graph
+     */
+    public MSBreadthFirst(MutableGraph graph){
+        this(graph, null);
+    }
+
+    /**
+     * Initialize a Breadth-first search in {@code graph} that may use bottom-up levels
+     * for large frontiers. It runs on {@link MSBreadthFirst#sharedExecutor()}.
+     *
+     * @param graph
+     * @param oppositeGraph The transpose of {@code graph}, or {@code null} to only search top-down.
+     *                      It must be kept equal to the transpose as {@code graph} changes.
+     */
+    public MSBreadthFirst(MutableGraph graph, MutableGraph oppositeGraph){
+        this(graph, oppositeGraph, sharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialize a Breadth-first search in {@code graph} with its own pool of {@code threads} threads.
      *
      * <b>WARNING:</b> Not calling {@link MSBreadthFirst#close()} can quickly eat up
      * the Heap due to idle threads.
      * @param graph
+     * @param oppositeGraph The transpose of {@code graph}, or {@code null} to only search top-down.
+     * @param threads
      */
-    public MSBreadthFirst(MutableGraph graph){
+    public MSBreadthFirst(MutableGraph graph, MutableGraph oppositeGraph, int threads){
+        this(graph, oppositeGraph, Executors.newFixedThreadPool(Math.max(1, threads),
+                new MSBreadthFirstThreadFactory("MSBreadthFirstPool-" + threadFactoryID.getAndIncrement(), false)), threads);
+        ownsExecutor = true;
+    }
+
+    /**
+     * Initialize a Breadth-first search in {@code graph} that runs on {@code executor}. The executor
+     * is not shut down by {@link MSBreadthFirst#close()}.
+     *
+     * @param graph
+     * @param oppositeGraph The transpose of {@code graph}, or {@code null} to only search top-down.
+     * @param executor The executor to run the tasks of the search on
+     * @param parallelism The number of tasks every phase of a level is split into, one of which
+     *                    is run by the thread calling the search.
+     */
+    public MSBreadthFirst(MutableGraph graph, MutableGraph oppositeGraph, ExecutorService executor, int parallelism){
+        if(parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least one, got " + parallelism);
         this.graph = graph;
-        threads = Runtime.getRuntime().availableProcessors() * 2;
-        threadManager = Executors.newFixedThreadPool(threads, new MSBreadthFirstThreadFactory(threadFactoryID.getAndIncrement()));
+        this.oppositeGraph = oppositeGraph;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        int numChunks = parallelism == 1 ? 1 : parallelism * CHUNKS_PER_THREAD;
+        graphChunks = new DegreeBalancedChunks(graph, numChunks);
+        if(oppositeGraph != null)
+            oppositeChunks = new DegreeBalancedChunks(oppositeGraph, numChunks);
+        locks = new Object[Math.max(1 << 10, Integer.highestOneBit(parallelism) << 7)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The executor used by all searches that aren't given one. It has one daemon thread
+     * per available processor, so it never keeps the JVM alive, and it is never shut down.
+     */
+    public static synchronized ExecutorService sharedExecutor() {
+        if(sharedExecutor == null)
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new MSBreadthFirstThreadFactory("MSBreadthFirstSharedPool", true));
+        return sharedExecutor;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for every task, so that searches
+     * cost no threads while they are idle. Virtual threads were added in Java 21, so the
+     * executor is created reflectively.
+     *
+     * @return A new executor running every task on its own virtual thread
+     * @throws UnsupportedOperationException If the JVM doesn't support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create an executor of virtual threads", e);
+        }
     }
 
     public long getMemoryUsageBytes(Function<Traveler,Long> travelerSize){
@@ -79,18 +225,14 @@ public class MSBreadthFirst {
     }
 
     /**
-     * Shuts down the threads maintained by this object.
+     * Shuts down the threads maintained by this object. A shared or given executor is left running.
      */
     public void close(){
-        if(!threadManager.isShutdown()) {
-            threadManager.shutdownNow();
+        if(ownsExecutor && !executor.isShutdown()) {
+            executor.shutdownNow();
         }
     }
 
-    private BitSet[][] createBitsets(){
-        return ObjectBigArrays.newBigArray(new BitSet[0][0],graph.numNodes());
-    }
-
     public BitSet[][] breadthFirstSearch(long[] bfsSources, Visitor visitor) throws InterruptedException {
         return breadthFirstSearch(bfsSources,visitor,null);
     }
@@ -112,26 +254,35 @@ public class MSBreadthFirst {
      * @throws InterruptedException
      */
     public BitSet[][] breadthFirstSearch(long[] bfsSources, Visitor visitor, Traveler[] travelers) throws InterruptedException {
+        search(bfsSources, visitor, travelers);
+        return seenBitSets();
+    }
+
+    /**
+     * Performs a Multi-Source Breadth-first search in the same way as
+     * {@link MSBreadthFirst#breadthFirstSearch(long[], Visitor, Traveler[])}, but
+     * without creating a BitSet for every seen node afterwards. Use this when
+     * the result is given by the visitor.
+     *
+     * @throws InterruptedException
+     */
+    public void search(long[] bfsSources, Visitor visitor, Traveler[] travelers) throws InterruptedException {
 
         numSources = bfsSources.length;
         this.visitor = visitor;
         hasTraveler = travelers != null;
-        if(travelers == null) {
-            this.travelers = null;
-            this.travelersNext = null;
-        }else {
-            this.travelers = ObjectBigArrays.newBigArray(new Traveler[0][0], graph.numNodes());
-            travelersNext = ObjectBigArrays.newBigArray(new Traveler[0][0], graph.numNodes());
-        }
+        if(hasTraveler)
+            reuseTravelerArrays();
         threadFailure = false;
-        visit = createBitsets();
-        seen = createBitsets();
+        failure.set(null);
+        visit.reset(graph.numNodes(), numSources);
+        seen.reset(graph.numNodes(), numSources);
 
         Traveler temp;
         for(int bfs = 0; bfs < numSources; bfs++){
             long node = bfsSources[bfs];
-            setBfs(visit,node,bfs);
-            setBfs(seen,node,bfs);
+            visit.set(visit.addRow(node),bfs);
+            seen.set(seen.addRow(node),bfs);
             if(hasTraveler) {
                 temp = ObjectBigArrays.get(this.travelers,node);
                 temp = temp == null ? travelers[bfs] : temp.merge(travelers[bfs],0);
@@ -139,19 +290,41 @@ public class MSBreadthFirst {
             }
         }
 
-        MSBFS();
-
-        return seen;
-
+        try {
+            MSBFS();
+        } finally {
+            if(threadFailure) {
+                /* The traveler arrays may still reference travelers of the failed search */
+                this.travelers = null;
+                this.travelersNext = null;
+            }
+        }
     }
 
-    private void setBfs(BitSet[][] arr, long node, int bfs){
+    /**
+     * The traveler arrays only hold travelers of nodes in the current frontier
+     * and are cleared as the frontier is visited, so they can be reused as long
+     * as they are large enough.
+     */
+    private void reuseTravelerArrays() {
+        long numNodes = graph.numNodes();
+        if(this.travelers == null || ObjectBigArrays.length(this.travelers) < numNodes) {
+            this.travelers = ObjectBigArrays.newBigArray(new Traveler[0][0], numNodes);
+            this.travelersNext = ObjectBigArrays.newBigArray(new Traveler[0][0], numNodes);
+        }
+    }
 
-        BitSet bitSet = ObjectBigArrays.get(arr,node);
-        if(bitSet == null)
-            bitSet = new BitSet(numSources);
-        bitSet.set(bfs);
-        ObjectBigArrays.set(arr,node,bitSet);
+    /**
+     * @return The seen bits of the latest search as one BitSet per seen node
+     */
+    private BitSet[][] seenBitSets() {
+        BitSet[][] seenBitSets = ObjectBigArrays.newBigArray(new BitSet[0][0], graph.numNodes());
+        for (long row = 0; row < seen.rows(); row++) {
+            BitSet bitSet = new BitSet(numSources);
+            seen.copyTo(row, bitSet);
+            ObjectBigArrays.set(seenBitSets, seen.node(row), bitSet);
+        }
+        return seenBitSets;
     }
 
     /**
@@ -160,209 +333,623 @@ public class MSBreadthFirst {
      */
     private void MSBFS() throws InterruptedException {
 
-        visitNext = createBitsets();
+        visitNext.reset(graph.numNodes(), numSources);
         visitHadContent = new AtomicBoolean(true);
 
-        long nodesPerProcessor = graph.numNodes() / threads;
         iteration = 0;
+        bottomUp = false;
+        long exploredEdges = 0;
+        long previousFrontierNodes = 0;
+        long previousFrontierEdges = 0;
         while(visitHadContent.get()){
 
-            iterate(nodesPerProcessor);
+            long frontierNodes = visit.rows();
+            if(oppositeGraph != null)
+                bottomUp = shouldUseBottomUp(frontierNodes, previousFrontierNodes, previousFrontierEdges, exploredEdges);
+
+            frontierEdges.set(0);
+            iterate();
             iteration++;
 
+            previousFrontierNodes = frontierNodes;
+            previousFrontierEdges = frontierEdges.get();
+            exploredEdges += previousFrontierEdges;
+
             if(visitHadContent.get()) {
 
                 Traveler[][] temp = travelers;
                 travelers = travelersNext;
                 travelersNext = temp;
 
+                FrontierBits tempBits = visit;
                 visit = visitNext;
-                visitNext = createBitsets();
+                visitNext = tempBits;
+                visitNext.reset(graph.numNodes(), numSources);
             }
         }
 
     }
 
-    private void iterate(long nodesPerProcessor) throws InterruptedException {
+    /**
+     * Decides the direction of the next level. The edges of the frontier are estimated
+     * from the edges of the previous frontier, as they are counted while it's expanded.
+     *
+     * @return True if the next level should be bottom-up
+     */
+    private boolean shouldUseBottomUp(long frontierNodes, long previousFrontierNodes, long previousFrontierEdges, long exploredEdges) {
+        if(bottomUp)
+            return frontierNodes >= graph.numNodes() / BOTTOM_UP_BETA;
+
+        double estimatedFrontierEdges = previousFrontierNodes == 0 ?
+                (double) frontierNodes * graph.numArcs() / Math.max(1, graph.numNodes()) :
+                (double) previousFrontierEdges * frontierNodes / previousFrontierNodes;
+        long unexploredEdges = Math.max(0, graph.numArcs() - exploredEdges);
+        return estimatedFrontierEdges > (double) unexploredEdges / BOTTOM_UP_ALPHA;
+    }
+
+    private void iterate() throws InterruptedException {
         visitHadContent.set(false);
-        ArrayList<Future<?>> futures = new ArrayList<>(threads);
-        threadsLeft = threads;
 
-        for(long i = 0; i < threads; i++) {
-            long start = i*nodesPerProcessor;
-            long end = i == threads-1 ? graph.numNodes() : start + nodesPerProcessor;
-            futures.add(threadManager.submit(bothPhasesIterator(start,end, graph.nodeIterator(start))));
+        sparse = !bottomUp && isSparse();
+        if(sparse)
+            loadFrontier();
+        else
+            nodeChunks = bottomUp ? oppositeChunks.boundaries() : graphChunks.boundaries();
 
+        for (AtomicLong chunk : nextChunk) {
+            chunk.set(0);
+        }
+        if(bottomUp) {
+            runPhase(this::visitFrontier);
+            if(visitHadContent.get())
+                runPhase(this::pullFromFrontier);
+            /* Every task must be done pulling before the travelers of the frontier can be removed */
+            if(hasTraveler)
+                runPhase(this::removeFrontierTravelers);
+        } else {
+            runPhase(this::firstPhase);
+            if(visitHadContent.get())
+                runPhase(this::secondPhase);
         }
-        awaitThreads(futures);
     }
 
-    private void awaitThreads(ArrayList<Future<?>> futures) throws InterruptedException {
+    /**
+     * Runs {@code phase} on {@code parallelism} tasks, one of which is run by the calling thread,
+     * and waits until all of them are done. If a task failed, its exception is rethrown here.
+     *
+     * @param phase
+     * @throws InterruptedException
+     */
+    private void runPhase(Runnable phase) throws InterruptedException {
+        Phaser phaser = new Phaser(1);
+        Runnable task = () -> {
+            try {
+                phase.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                phaser.arriveAndDeregister();
+            }
+        };
 
-        int running = threads;
-        boolean superBreak = false;
-        while (true) {
-            for (Future<?> future : futures) {
+        try {
+            for (int i = 1; i < parallelism; i++) {
+                phaser.register();
                 try {
-                    future.get(2, TimeUnit.SECONDS);
-                    if(running-- == 0){
-                        superBreak = true;
-                    }
-                } catch (InterruptedException e) {
-                    if (!threadFailure) {
-                        throw e;
-                    }else {
-                        superBreak = true;
-                    }
-                } catch (ExecutionException e) {
-
-                    threadFailure = true;
-                    for (Future<?> future2 : futures)
-                        future2.cancel(true);
-
-                    if (e.getCause() instanceof RuntimeException)
-                        throw (RuntimeException) e.getCause();
-                    else
-                        throw new RuntimeException("Some of the breadth-first search threads threw an exception", e.getCause());
-                } catch (TimeoutException e) {
-                    // EMPTY ON PURPOSE
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    phaser.arriveAndDeregister();
+                    throw e;
                 }
             }
-            if(superBreak)
-                break;
+            phaser.register();
+            task.run();
+            phaser.awaitAdvanceInterruptibly(phaser.arrive());
+        } catch (InterruptedException | RuntimeException e) {
+            /* Makes the tasks that are still running stop claiming chunks */
+            failure.compareAndSet(null, e);
+            threadFailure = true;
+            throw e;
+        }
+
+        Throwable e = failure.get();
+        if(e != null) {
+            threadFailure = true;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            else if (e instanceof Error)
+                throw (Error) e;
+            else
+                throw new RuntimeException("Some of the breadth-first search threads threw an exception", e);
         }
     }
 
     /**
-     * Used to synchronize all the threads in bothPhasesIterator.
-     *
-     * @return True if the thread should continue calculation.
+     * @return The number of rows in every chunk when {@code rows} rows are divided
      */
-    private synchronized boolean synchronize() throws InterruptedException {
-        if(threadFailure){
-            this.notifyAll();
-            return false;
-        }else {
-            if (--threadsLeft == 0)
-                this.notifyAll();
-            else {
-                try {
-                    this.wait();
-                }catch (InterruptedException e){
-                    if(!threadFailure)
-                        throw e;
-                }
+    private long rowsPerChunk(long rows) {
+        return Math.max(MIN_ROWS_PER_CHUNK, rows / (parallelism * CHUNKS_PER_THREAD));
+    }
+
+    /**
+     * @return True if the frontier is small enough for a sparse level
+     */
+    private boolean isSparse() {
+        double averageDegree = graph.numNodes() == 0 ? 0 : (double) graph.numArcs() / graph.numNodes();
+        return visit.rows() * averageDegree < SPARSE_FRONTIER_THRESHOLD * graph.numNodes();
+    }
+
+    /**
+     * Collects the nodes of the frontier in order together with their successors.
+     * The successors are read here, by a single thread, as random access to the
+     * successors isn't safe from several threads for every graph.
+     */
+    private void loadFrontier() {
+        frontier = LongArrays.ensureCapacity(frontier, (int) visit.rows());
+        frontierSize = 0;
+        for (long row = 0; row < visit.rows(); row++) {
+            if(!visit.isEmpty(row))
+                frontier[frontierSize++] = visit.node(row);
+            else
+                takeTraveler(visit.node(row));
+        }
+        Arrays.sort(frontier, 0, frontierSize);
+
+        frontierSuccessorsStart = LongArrays.ensureCapacity(frontierSuccessorsStart, frontierSize + 1);
+        long numSuccessors = 0;
+        for (int i = 0; i < frontierSize; i++) {
+            frontierSuccessorsStart[i] = numSuccessors;
+            long degree = graph.outdegree(frontier[i]);
+            frontierSuccessors = LongBigArrays.grow(frontierSuccessors, numSuccessors + degree);
+            LazyLongIterator successors = graph.successors(frontier[i]);
+            while(degree-- > 0) {
+                LongBigArrays.set(frontierSuccessors, numSuccessors++, successors.nextLong());
             }
-            return !threadFailure;
         }
+        frontierSuccessorsStart[frontierSize] = numSuccessors;
+
+        /* Every node of the frontier costs one visit plus the relaxation of its edges */
+        long costPerChunk = Math.max(MIN_ROWS_PER_CHUNK, (frontierSize + numSuccessors) / (parallelism * CHUNKS_PER_THREAD));
+        frontierChunks = IntArrays.ensureCapacity(frontierChunks, frontierSize + 1);
+        numFrontierChunks = 0;
+        long cost = 0;
+        for (int i = 0; i < frontierSize; i++) {
+            if(cost == 0)
+                frontierChunks[numFrontierChunks++] = i;
+            cost += 1 + frontierSuccessorsStart[i + 1] - frontierSuccessorsStart[i];
+            if(cost >= costPerChunk)
+                cost = 0;
+        }
+        frontierChunks[numFrontierChunks] = frontierSize;
     }
 
     /**
-     * Returns a runnable that performs both stages of an iteration for nodes  from startNode inclusive to endNode exclusive.
-     * The position of the nodeIterator should be at the startNode.
-     * @param startNode
-     * @param endNode
-     * @param nodeIt
-     * @return
+     * Claims the next chunk of {@code phase}.
+     * @return The index of the claimed chunk, or -1 if there are no more chunks or the level failed.
      */
-    private Runnable bothPhasesIterator(long startNode, long endNode, NodeIterator nodeIt){
-        return () -> {
-            try {
-                firstPhaseIterator(startNode, endNode, nodeIt);
-                if(synchronize() && visitHadContent.get())
-                    secondPhaseIterator(startNode, endNode);
-            }catch (InterruptedException e){
-                if(!threadFailure)
-                    throw new RuntimeException(e);
+    private long claimChunk(int phase, long numChunks) {
+        if(failure.get() != null)
+            return -1;
+        long chunk = nextChunk[phase].getAndIncrement();
+        return chunk < numChunks ? chunk : -1;
+    }
+
+    /**
+     * The first phase of a top-down level, which visits the frontier and relaxes its edges.
+     */
+    private void firstPhase() {
+        BitSet visitBits = new BitSet(numSources);
+        BitSet seenBits = new BitSet(numSources);
+        boolean visited = false;
+        long chunk;
+        if(sparse) {
+            while((chunk = claimChunk(0, numFrontierChunks)) >= 0)
+                visited |= sparseFirstPhaseIterator(frontierChunks[(int) chunk], frontierChunks[(int) chunk + 1], visitBits, seenBits);
+        } else {
+            long numNodes = graph.numNodes();
+            while((chunk = claimChunk(0, nodeChunks.length - 1)) >= 0) {
+                long start = chunkStart(chunk, numNodes);
+                long end = chunkEnd(chunk, numNodes);
+                if(start < end)
+                    visited |= firstPhaseIterator(start, end, graph.nodeIterator(start), visitBits, seenBits);
             }
-        };
+        }
+        if(visited)
+            visitHadContent.set(true);
+    }
+
+    /**
+     * The second phase of a top-down level, which removes the seen BFSs from the next visits.
+     */
+    private void secondPhase() {
+        long rows = visitNext.rows();
+        long rowsPerChunk = rowsPerChunk(rows);
+        long chunk;
+        while((chunk = claimChunk(1, (rows + rowsPerChunk - 1) / rowsPerChunk)) >= 0)
+            secondPhaseIterator(chunk * rowsPerChunk, Math.min(rows, (chunk + 1) * rowsPerChunk));
     }
 
-    private void firstPhaseIterator(long startNode, long endNode, NodeIterator nodeIt){
+    /**
+     * The first phase of a bottom-up level, which calls the visitor for the frontier.
+     */
+    private void visitFrontier() {
+        long rows = visit.rows();
+        long rowsPerChunk = rowsPerChunk(rows);
+        BitSet visitBits = new BitSet(numSources);
+        BitSet seenBits = new BitSet(numSources);
+        boolean visited = false;
+        long chunk;
+        while((chunk = claimChunk(0, (rows + rowsPerChunk - 1) / rowsPerChunk)) >= 0) {
+            for (long row = chunk * rowsPerChunk, end = Math.min(rows, row + rowsPerChunk); row < end; row++) {
+                long node = visit.node(row);
+                visited |= visitNode(node, row, hasTraveler ? ObjectBigArrays.get(travelers, node) : null, visitBits, seenBits);
+            }
+        }
+        if(visited)
+            visitHadContent.set(true);
+    }
+
+    /**
+     * The second phase of a bottom-up level, where every node pulls the BFSs from its in-neighbors.
+     */
+    private void pullFromFrontier() {
+        long numNodes = Math.min(graph.numNodes(), oppositeGraph.numNodes());
+        long chunk;
+        while((chunk = claimChunk(1, nodeChunks.length - 1)) >= 0) {
+            long start = chunkStart(chunk, numNodes);
+            long end = chunkEnd(chunk, numNodes);
+            if(start < end)
+                pullIterator(start, end, oppositeGraph.nodeIterator(start));
+        }
+    }
+
+    /**
+     * The last phase of a bottom-up level, which removes the travelers of the frontier.
+     */
+    private void removeFrontierTravelers() {
+        long rows = visit.rows();
+        long rowsPerChunk = rowsPerChunk(rows);
+        long chunk;
+        while((chunk = claimChunk(2, (rows + rowsPerChunk - 1) / rowsPerChunk)) >= 0) {
+            for (long row = chunk * rowsPerChunk, end = Math.min(rows, row + rowsPerChunk); row < end; row++) {
+                takeTraveler(visit.node(row));
+            }
+        }
+    }
+
+    private long chunkStart(long chunk, long numNodes) {
+        return Math.min(nodeChunks[(int) chunk], numNodes);
+    }
+
+    /* The last chunk ends at the current number of nodes, which may have grown since the chunks were built */
+    private long chunkEnd(long chunk, long numNodes) {
+        return chunk == nodeChunks.length - 2 ? numNodes : Math.min(nodeChunks[(int) chunk + 1], numNodes);
+    }
+
+    /**
+     * Lets every node from startNode inclusive to endNode exclusive pull the BFSs visiting its
+     * in-neighbors. Only the thread owning a node writes its bits, so no locking is needed
+     * other than when a row is added.
+     */
+    private void pullIterator(long startNode, long endNode, NodeIterator oppositeNodeIt) {
+        int words = visit.words();
+        long[] pulled = new long[words];
+        LongArrayList pulledFrom = new LongArrayList();
+        long edges = 0;
+        long degree;
+        long inNeighbor;
+        long visitRow;
+        long seenRow;
+        long[] segment;
+        int offset;
+        boolean anyPulled;
+        LazyLongIterator inNeighbors;
+
+        for (long node = startNode; node < endNode; node++) {
+            oppositeNodeIt.nextLong();
+            seenRow = seen.row(node);
+            if(seenRow != FrontierBits.NO_ROW && seen.isFull(seenRow, numSources))
+                continue;
+
+            degree = oppositeNodeIt.outdegree();
+            if(degree == 0)
+                continue;
+
+            Arrays.fill(pulled, 0);
+            pulledFrom.clear();
+            inNeighbors = oppositeNodeIt.successors();
+            while(degree-- > 0) {
+                inNeighbor = inNeighbors.nextLong();
+                visitRow = visit.row(inNeighbor);
+                if(visitRow == FrontierBits.NO_ROW || visit.isEmpty(visitRow))
+                    continue;
+
+                edges++;
+                segment = visit.segment(visitRow);
+                offset = visit.offset(visitRow);
+                for (int i = 0; i < words; i++) {
+                    pulled[i] |= segment[offset + i];
+                }
+                if(hasTraveler)
+                    pulledFrom.add(inNeighbor);
+            }
+
+            anyPulled = false;
+            if(seenRow != FrontierBits.NO_ROW) {
+                segment = seen.segment(seenRow);
+                offset = seen.offset(seenRow);
+                for (int i = 0; i < words; i++) {
+                    pulled[i] &= ~segment[offset + i];
+                    anyPulled |= pulled[i] != 0;
+                }
+            } else {
+                for (int i = 0; i < words; i++) {
+                    anyPulled |= pulled[i] != 0;
+                }
+            }
+            if(!anyPulled)
+                continue;
+
+            seenRow = seen.addRow(node);
+            segment = seen.segment(seenRow);
+            offset = seen.offset(seenRow);
+            for (int i = 0; i < words; i++) {
+                segment[offset + i] |= pulled[i];
+            }
+            long nextRow = visitNext.addRow(node);
+            System.arraycopy(pulled, 0, visitNext.segment(nextRow), visitNext.offset(nextRow), words);
+
+            if(hasTraveler) {
+                Traveler nodeTraveler = null;
+                for (int i = 0; i < pulledFrom.size(); i++) {
+                    Traveler inNeighborTraveler = ObjectBigArrays.get(travelers, pulledFrom.getLong(i));
+                    nodeTraveler = nodeTraveler == null ? inNeighborTraveler : nodeTraveler.merge(inNeighborTraveler, iteration + 1);
+                }
+                ObjectBigArrays.set(travelersNext, node, nodeTraveler);
+            }
+        }
+        frontierEdges.addAndGet(edges);
+    }
+
+    /**
+     * Visits the nodes from startNode inclusive to endNode exclusive and relaxes their edges.
+     * {@code visitBits} and {@code seenBits} are reused to hand the bits of every visited node
+     * to the visitor.
+     * @return True if any node was visited
+     */
+    private boolean firstPhaseIterator(long startNode, long endNode, NodeIterator nodeIt, BitSet visitBits, BitSet seenBits){
         //Declaring all local variables to skip unnecessary reallocation
         long prevNode = startNode;
         long degree;
-        long neighbor;
-
+        long edges = 0;
+        boolean visited = false;
+        long visitRow;
         Traveler nodeTraveler;
         LazyLongIterator neighbors;
-        BitSet visitN;
-        BitSet visitNeigh;
-        BitSet seenSet;
 
         if(startNode < endNode)
             nodeIt.nextLong();
         for(long node = startNode; node < endNode; node++) {
-            visitN = ObjectBigArrays.get(visit,node);
-            if (visitN == null || visitN.isEmpty())
+            visitRow = visit.row(node);
+            if (visitRow == FrontierBits.NO_ROW)
                 continue;
 
-            if (visitor != null) {
-                visitor.visit(node,visitN, ObjectBigArrays.get(seen,node),iteration, hasTraveler ? ObjectBigArrays.get(travelers,node) : null);
-                if(visitN.isEmpty())
-                    continue;
-            }
+            nodeTraveler = takeTraveler(node);
+            if(!visitNode(node, visitRow, nodeTraveler, visitBits, seenBits))
+                continue;
 
             nodeIt.skip(node-prevNode);
             prevNode = node;
+            visited = true;
 
-            visitHadContent.set(true);
             neighbors = nodeIt.successors();
-            nodeTraveler = null;
-            if(hasTraveler) {
-                nodeTraveler = ObjectBigArrays.get(travelers, node);
-                nodeTraveler.markShouldClone();
-            }
             degree = nodeIt.outdegree();
+            edges += degree;
             for (long d = 0; d < degree; d++) {
-                neighbor = neighbors.nextLong();
+                relax(neighbors.nextLong(), visitRow, nodeTraveler);
+            }
+        }
+        frontierEdges.addAndGet(edges);
+        return visited;
+    }
 
-                seenSet = getOrSetBitSetAtomic(neighbor, seen);
+    /**
+     * Visits the frontier from position start inclusive to end exclusive and relaxes the edges
+     * loaded by {@link MSBreadthFirst#loadFrontier()}.
+     * @return True if any node was visited
+     */
+    private boolean sparseFirstPhaseIterator(int start, int end, BitSet visitBits, BitSet seenBits){
+        long node;
+        long edges = 0;
+        boolean visited = false;
+        long visitRow;
+        Traveler nodeTraveler;
 
-                synchronized  (seenSet) {
-                    visitNeigh = getOrSetBitSet(neighbor, visitNext);
+        for (int i = start; i < end; i++) {
+            node = frontier[i];
+            visitRow = visit.row(node);
+            nodeTraveler = takeTraveler(node);
+            if(!visitNode(node, visitRow, nodeTraveler, visitBits, seenBits))
+                continue;
 
-                    if (hasTraveler) {
-                        mergeTravelers(neighbor, nodeTraveler, visitNeigh);
-                    }
-                    visitNeigh.or(visitN);
-                }
+            visited = true;
+            edges += frontierSuccessorsStart[i + 1] - frontierSuccessorsStart[i];
+            for (long s = frontierSuccessorsStart[i]; s < frontierSuccessorsStart[i + 1]; s++) {
+                relax(LongBigArrays.get(frontierSuccessors, s), visitRow, nodeTraveler);
             }
-            if(hasTraveler)
-                ObjectBigArrays.set(travelers,node,null);
         }
+        frontierEdges.addAndGet(edges);
+        return visited;
+    }
+
+    /**
+     * Removes and returns the traveler of {@code node}, or null if there are no travelers.
+     * @param node
+     * @return
+     */
+    private Traveler takeTraveler(long node) {
+        if(!hasTraveler)
+            return null;
+        Traveler nodeTraveler = ObjectBigArrays.get(travelers, node);
+        ObjectBigArrays.set(travelers, node, null);
+        return nodeTraveler;
     }
 
-    private void mergeTravelers(long neighbor, Traveler nodeTraveler, BitSet visitNeigh) {
+    /**
+     * Calls the visitor for {@code node} if there is one.
+     * @return True if any BFS should propagate from {@code node}
+     */
+    private boolean visitNode(long node, long visitRow, Traveler nodeTraveler, BitSet visitBits, BitSet seenBits) {
+        if (visit.isEmpty(visitRow))
+            return false;
+
+        if (visitor != null) {
+            visit.copyTo(visitRow, visitBits);
+            seen.copyTo(seen.row(node), seenBits);
+            visitor.visit(node, visitBits, seenBits, iteration, nodeTraveler);
+            visit.setFrom(visitRow, visitBits);
+            if(visitBits.isEmpty())
+                return false;
+        }
+
+        if(hasTraveler)
+            nodeTraveler.markShouldClone();
+        return true;
+    }
+
+    /**
+     * Adds the BFSs in {@code visitRow} to the next visit of {@code neighbor}
+     * and merges {@code nodeTraveler} into its traveler. The row of the neighbor
+     * is added without locking, and only the stripe of the neighbor is locked
+     * while its bits and traveler are updated.
+     */
+    private void relax(long neighbor, long visitRow, Traveler nodeTraveler) {
+        int words = visit.words();
+        long[] visitSegment = visit.segment(visitRow);
+        int visitOffset = visit.offset(visitRow);
+        long neighborRow = visitNext.addRow(neighbor);
+        long[] neighborSegment = visitNext.segment(neighborRow);
+        int neighborOffset = visitNext.offset(neighborRow);
+
+        /* Bits are only ever added during the phase, so if the neighbor already has all of them
+         * there is nothing to do. Travelers must be merged on every arrival though. */
+        if(!hasTraveler && containsAll(neighborSegment, neighborOffset, visitSegment, visitOffset, words))
+            return;
+
+        synchronized (lock(neighbor)) {
+            if (hasTraveler) {
+                mergeTravelers(neighbor, nodeTraveler, visitNext.isEmpty(neighborRow));
+            }
+            for (int i = 0; i < words; i++) {
+                neighborSegment[neighborOffset + i] |= visitSegment[visitOffset + i];
+            }
+        }
+    }
+
+    private static boolean containsAll(long[] segment, int offset, long[] otherSegment, int otherOffset, int words) {
+        for (int i = 0; i < words; i++) {
+            if((otherSegment[otherOffset + i] & ~segment[offset + i]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private Object lock(long node) {
+        return locks[(int) (node ^ (node >>> 32)) & (locks.length - 1)];
+    }
+
+    private void mergeTravelers(long neighbor, Traveler nodeTraveler, boolean firstArrival) {
         Traveler toSet = nodeTraveler;
-        if (!visitNeigh.isEmpty())
+        if (!firstArrival)
             toSet = ObjectBigArrays.get(travelersNext, neighbor).merge(toSet, iteration + 1);
         ObjectBigArrays.set(travelersNext, neighbor, toSet);
     }
 
-    private BitSet getOrSetBitSet(long neighbor, BitSet[][] visitNext) {
-        BitSet visitNeigh;
-        visitNeigh = ObjectBigArrays.get(visitNext, neighbor);
-        if (visitNeigh == null) {
-            visitNeigh = new BitSet(numSources);
-            ObjectBigArrays.set(visitNext, neighbor, visitNeigh);
+    /**
+     * Removes the already seen BFSs from the rows of {@code visitNext} from startRow
+     * inclusive to endRow exclusive, and marks the rest as seen.
+     */
+    private void secondPhaseIterator(long startRow, long endRow){
+        int words = visitNext.words();
+        long[] visitNextSegment;
+        int visitNextOffset;
+        long seenRow;
+        long[] seenSegment;
+        int seenOffset;
+
+        for(long visitNextRow = startRow; visitNextRow < endRow ; visitNextRow++) {
+            seenRow = seen.addRow(visitNext.node(visitNextRow));
+            visitNextSegment = visitNext.segment(visitNextRow);
+            visitNextOffset = visitNext.offset(visitNextRow);
+            seenSegment = seen.segment(seenRow);
+            seenOffset = seen.offset(seenRow);
+            for (int i = 0; i < words; i++) {
+                visitNextSegment[visitNextOffset + i] &= ~seenSegment[seenOffset + i];
+                seenSegment[seenOffset + i] |= visitNextSegment[visitNextOffset + i];
+            }
         }
-        return visitNeigh;
     }
 
-    private synchronized BitSet getOrSetBitSetAtomic(long neighbor, BitSet[][] bitset) {
-        return getOrSetBitSet(neighbor, bitset);
-    }
+    /**
+     * Divides the nodes of a graph into chunks with about the same number of arcs, using an
+     * {@link EliasFanoCumulativeOutdegreeList} in the same way as {@link HyperBall}. As the chunks
+     * only balance the work they don't need to be exact, so they are only rebuilt when the number
+     * of nodes or arcs has changed by more than {@link DegreeBalancedChunks#STALE_FRACTION}.
+     */
+    private static class DegreeBalancedChunks {
 
-    private void secondPhaseIterator(long startNode, long endNode){
-        BitSet visitNextBits;
-        for(long node = startNode; node < endNode ; node++) {
-            visitNextBits = ObjectBigArrays.get(visitNext,node);
-            if(visitNextBits == null || visitNextBits.isEmpty())
-                continue;
+        private static final double STALE_FRACTION = 0.125;
+
+        private final MutableGraph graph;
+        private final int numChunks;
+        private long[] boundaries;
+        private long builtNodes;
+        private long builtArcs;
+
+        DegreeBalancedChunks(MutableGraph graph, int numChunks) {
+            this.graph = graph;
+            this.numChunks = numChunks;
+        }
 
-            visitNextBits.andNot(ObjectBigArrays.get(seen,node));
-            ObjectBigArrays.get(seen,node).or(visitNextBits);
+        /**
+         * @return The first node of every chunk followed by the number of nodes when the chunks were built.
+         * The last chunk should be extended to the current number of nodes.
+         */
+        long[] boundaries() {
+            long numNodes = graph.numNodes();
+            long numArcs = graph.numArcs();
+            if(boundaries == null || isStale(numNodes, builtNodes) || isStale(numArcs, builtArcs))
+                build(numNodes, numArcs);
+            return boundaries;
+        }
+
+        private static boolean isStale(long current, long built) {
+            return Math.abs(current - built) > built * STALE_FRACTION;
+        }
+
+        private void build(long numNodes, long numArcs) {
+            builtNodes = numNodes;
+            builtArcs = numArcs;
+            LongArrayList chunkStarts = new LongArrayList(numChunks + 1);
+            chunkStarts.add(0);
+
+            if(numChunks > 1 && numNodes > 0 && numArcs > 0) {
+                EliasFanoCumulativeOutdegreeList cumulativeOutdegrees = new EliasFanoCumulativeOutdegreeList(graph, numArcs);
+                long arcsPerChunk = (numArcs + numChunks - 1) / numChunks;
+                for (long target = arcsPerChunk; target < numArcs; target += arcsPerChunk) {
+                    cumulativeOutdegrees.skipTo(target);
+                    long node = cumulativeOutdegrees.currentIndex();
+                    if(node < numNodes && node > chunkStarts.getLong(chunkStarts.size() - 1))
+                        chunkStarts.add(node);
+                }
+            } else if(numChunks > 1) {
+                for (int i = 1; i < numChunks; i++) {
+                    chunkStarts.add(numNodes / numChunks * i);
+                }
+            }
+
+            chunkStarts.add(numNodes);
+            boundaries = chunkStarts.toLongArray();
         }
     }
 
@@ -398,6 +985,11 @@ public class MSBreadthFirst {
 
         void markShouldClone(){ shouldClone = true; }
 
+        /**
+         * Unmarks the traveler, for travelers that are reused by later searches.
+         */
+        protected void clearShouldClone(){ shouldClone = false; }
+
         /**
          * @return true if the object should be cloned on a merge.
          */
@@ -426,16 +1018,20 @@ public class MSBreadthFirst {
 
     private static class MSBreadthFirstThreadFactory implements ThreadFactory {
 
-        private int factoryID;
+        private String poolName;
+        private boolean daemon;
         private AtomicInteger threadID = new AtomicInteger(1);
 
-        public MSBreadthFirstThreadFactory(int factoryID) {
-            this.factoryID = factoryID;
+        public MSBreadthFirstThreadFactory(String poolName, boolean daemon) {
+            this.poolName = poolName;
+            this.daemon = daemon;
         }
 
         @Override
         public Thread newThread(Runnable r) {
-            return new Thread(r,"MSBreadthFirstPool-" + factoryID + "-thread-" + threadID.getAndIncrement());
+            Thread thread = new Thread(r,poolName + "-thread-" + threadID.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
         }
     }
 
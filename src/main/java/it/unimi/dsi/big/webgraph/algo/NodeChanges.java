@@ -0,0 +1,102 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+/**
+ * The nodes whose neighborhood function with the maximum reach changed in a batch, with the
+ * estimates before and after the batch, sorted by node. Nodes that were added by the batch have
+ * the estimate 0 before it. See {@link DANF#addChangeListener(java.util.function.Consumer)}.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public final class NodeChanges {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] nodes = new long[DEFAULT_CAPACITY];
+    private double[] before = new double[DEFAULT_CAPACITY];
+    private double[] after = new double[DEFAULT_CAPACITY];
+    private int size;
+
+    NodeChanges() {
+    }
+
+    void add(long node, double before, double after) {
+        if(size == nodes.length) {
+            nodes = LongArrays.grow(nodes, size + 1, size);
+            this.before = DoubleArrays.grow(this.before, size + 1, size);
+            this.after = DoubleArrays.grow(this.after, size + 1, size);
+        }
+        nodes[size] = node;
+        this.before[size] = before;
+        this.after[size++] = after;
+    }
+
+    void sort() {
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, size, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                return Long.compare(nodes[k1], nodes[k2]);
+            }
+        }, (a, b) -> {
+            long node = nodes[a];
+            nodes[a] = nodes[b];
+            nodes[b] = node;
+            double value = before[a];
+            before[a] = before[b];
+            before[b] = value;
+            value = after[a];
+            after[a] = after[b];
+            after[b] = value;
+        });
+    }
+
+    /**
+     * @return The number of changed nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index
+     * @return The {@code index}th changed node
+     */
+    public long node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param index
+     * @return The estimate of the {@code index}th changed node before the batch
+     */
+    public double before(int index) {
+        return before[index];
+    }
+
+    /**
+     * @param index
+     * @return The estimate of the {@code index}th changed node after the batch
+     */
+    public double after(int index) {
+        return after[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if(i > 0)
+                builder.append(", ");
+            builder.append(nodes[i]).append(": ").append(before[i]).append(" -> ").append(after[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,265 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import it.unimi.dsi.util.HyperLogLogCounterArray;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ *
+ * A {@link CounterArray} keeping its registers outside of the heap, so that they are never
+ * scanned or moved by the garbage collector. The registers are either kept in direct memory
+ * or in a memory-mapped file, where pages that are seldom used can be evicted by the operating system.
+ * Every counter starts at the beginning of a long, and the counters are kept in segments
+ * of at most 2^30 bytes as a buffer can't be larger than 2^31 bytes.
+ *
+ * The arithmetic of the registers is done by a {@link HyperLogLogCounterArray} of a single
+ * counter, which must be created with the same parameters as the counters of the level.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class OffHeapCounterArray implements CounterArray {
+
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    /* A single counter with the same register layout as this array, used for the register arithmetic */
+    private final HyperLogLogCounterArray registers;
+    private final int counterLongwords;
+    private final long countersPerSegment;
+    /* The file backing the registers, or null if the segments are in direct memory */
+    private final String file;
+    private LongBuffer[] segments = new LongBuffer[0];
+    private long numCounters;
+
+    /**
+     * Creates an array of cleared counters in direct memory.
+     *
+     * @param numCounters The number of counters
+     * @param numElements The expected number of elements of a counter, which decides the size of the registers
+     * @param log2m The logarithm of the number of registers per counter
+     * @param seed The seed used to hash the elements
+     */
+    public OffHeapCounterArray(long numCounters, long numElements, int log2m, long seed) {
+        this(new HyperLogLogCounterArray(1, numElements, log2m, seed), null);
+        addCounters(numCounters);
+    }
+
+    /**
+     * Creates an array of cleared counters in a memory-mapped file. Any content of
+     * the file is removed.
+     *
+     * @param numCounters The number of counters
+     * @param numElements The expected number of elements of a counter, which decides the size of the registers
+     * @param log2m The logarithm of the number of registers per counter
+     * @param seed The seed used to hash the elements
+     * @param file The file to keep the registers in
+     * @throws IOException
+     */
+    public OffHeapCounterArray(long numCounters, long numElements, int log2m, long seed, String file) throws IOException {
+        this(new HyperLogLogCounterArray(1, numElements, log2m, seed), file);
+        try (RandomAccessFile registerFile = new RandomAccessFile(file, "rw")) {
+            registerFile.setLength(0);
+        }
+        addCounters(numCounters);
+    }
+
+    private OffHeapCounterArray(HyperLogLogCounterArray registers, String file) {
+        this.registers = registers;
+        this.file = file;
+        counterLongwords = registers.counterLongwords;
+        countersPerSegment = Math.max(1, MAX_SEGMENT_BYTES / counterBytes());
+    }
+
+    /**
+     * Maps {@code numCounters} counters stored from {@code position} in {@code file}, where every
+     * counter is {@link CounterArray#counterLongwords()} big-endian longs. The mapping is private,
+     * so the counters can be modified without changing the file. Pages are only copied when they
+     * are modified, and counters added later are kept in direct memory.
+     *
+     * @param file
+     * @param position The position in bytes of the first counter
+     * @param numCounters The number of counters
+     * @param numElements The expected number of elements of a counter, which decides the size of the registers
+     * @param log2m The logarithm of the number of registers per counter
+     * @param seed The seed used to hash the elements
+     * @return The mapped counters
+     * @throws IOException
+     */
+    public static OffHeapCounterArray map(String file, long position, long numCounters, long numElements, int log2m, long seed) throws IOException {
+        OffHeapCounterArray counters = new OffHeapCounterArray(new HyperLogLogCounterArray(1, numElements, log2m, seed), null);
+        long counterBytes = counters.counterBytes();
+        counters.segments = new LongBuffer[counters.segmentsFor(numCounters)];
+        /* A private mapping needs a channel open for writing, although the file is never written */
+        try (RandomAccessFile registerFile = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = registerFile.getChannel();
+            for (int segment = 0; segment < counters.segments.length; segment++) {
+                long first = segment * counters.countersPerSegment;
+                long size = Math.min(counters.countersPerSegment, numCounters - first) * counterBytes;
+                counters.segments[segment] = channel.map(FileChannel.MapMode.PRIVATE, position + first * counterBytes, size).asLongBuffer();
+            }
+        }
+        counters.numCounters = numCounters;
+        return counters;
+    }
+
+    private long counterBytes() {
+        return (long) counterLongwords * Long.BYTES;
+    }
+
+    private int segmentsFor(long numCounters) {
+        return (int) ((numCounters + countersPerSegment - 1) / countersPerSegment);
+    }
+
+    /**
+     * @return The number of counters in the array
+     */
+    public long size() {
+        return numCounters;
+    }
+
+    @Override
+    public void getCounter(long index, long[] dest) {
+        LongBuffer segment = segments[(int) (index / countersPerSegment)];
+        int offset = (int) (index % countersPerSegment) * counterLongwords;
+        for (int i = 0; i < counterLongwords; i++) {
+            dest[i] = segment.get(offset + i);
+        }
+    }
+
+    @Override
+    public void setCounter(long[] source, long index) {
+        LongBuffer segment = segments[(int) (index / countersPerSegment)];
+        int offset = (int) (index % countersPerSegment) * counterLongwords;
+        for (int i = 0; i < counterLongwords; i++) {
+            segment.put(offset + i, source[i]);
+        }
+    }
+
+    @Override
+    public void max(long[] x, long[] y) {
+        registers.max(x, y);
+    }
+
+    @Override
+    public void max(long[] x, long[] y, long[] accumulator, long[] mask) {
+        registers.max(x, y, accumulator, mask);
+    }
+
+    @Override
+    public void add(long element, long[] counter) {
+        registers.add(element, counter);
+    }
+
+    @Override
+    public void add(long index, long element) {
+        long[] counter = new long[counterLongwords];
+        getCounter(index, counter);
+        registers.add(element, counter);
+        setCounter(counter, index);
+    }
+
+    @Override
+    public double count(long index) {
+        long[] counter = new long[counterLongwords];
+        getCounter(index, counter);
+        return registers.count(counter, 0);
+    }
+
+    @Override
+    public double count(long[] counter) {
+        return registers.count(counter, 0);
+    }
+
+    @Override
+    public void clearCounter(long index) {
+        setCounter(new long[counterLongwords], index);
+    }
+
+    /**
+     * Adds cleared counters. The last segment grows to twice its size, or to the size
+     * of a full segment, when it runs out of space.
+     */
+    @Override
+    public void addCounters(long numCounters) {
+        if(numCounters < 0)
+            throw new IllegalArgumentException("The number of counters to add must not be negative, got " + numCounters);
+
+        long newNumCounters = this.numCounters + numCounters;
+        int oldSegments = segments.length;
+        segments = Arrays.copyOf(segments, Math.max(oldSegments, segmentsFor(newNumCounters)));
+        try {
+            for (int segment = Math.max(0, oldSegments - 1); segment < segments.length; segment++) {
+                long needed = Math.min(countersPerSegment, newNumCounters - segment * countersPerSegment);
+                long capacity = segments[segment] == null ? 0 : segments[segment].capacity() / counterLongwords;
+                if(capacity < needed)
+                    segments[segment] = growSegment(segment, Math.min(countersPerSegment, Math.max(needed, 2 * capacity)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map more counters in " + file, e);
+        }
+        this.numCounters = newNumCounters;
+    }
+
+    private LongBuffer growSegment(int segment, long capacity) throws IOException {
+        long bytes = capacity * counterBytes();
+        if(file != null) {
+            /* The registers already in the file are kept, and the file grows with cleared registers */
+            try (RandomAccessFile registerFile = new RandomAccessFile(file, "rw")) {
+                return registerFile.getChannel().map(FileChannel.MapMode.READ_WRITE, segment * countersPerSegment * counterBytes(), bytes).asLongBuffer();
+            }
+        }
+
+        LongBuffer grown = ByteBuffer.allocateDirect((int) bytes).asLongBuffer();
+        LongBuffer old = segments[segment];
+        if(old != null) {
+            for (int i = 0; i < old.capacity(); i++) {
+                grown.put(i, old.get(i));
+            }
+        }
+        return grown;
+    }
+
+    @Override
+    public void union(long index, CounterArray from, long fromIndex) {
+        long[] bits = new long[counterLongwords];
+        long[] fromBits = new long[counterLongwords];
+        getCounter(index, bits);
+        from.getCounter(fromIndex, fromBits);
+        registers.max(bits, fromBits);
+        setCounter(bits, index);
+    }
+
+    @Override
+    public boolean hasSameRegisters(long index1, long index2) {
+        long[] counter1 = new long[counterLongwords];
+        long[] counter2 = new long[counterLongwords];
+        getCounter(index1, counter1);
+        getCounter(index2, counter2);
+        return Arrays.equals(counter1, counter2);
+    }
+
+    @Override
+    public long getJenkinsSeed() {
+        return registers.getJenkinsSeed();
+    }
+
+    @Override
+    public int log2m() {
+        return registers.log2m;
+    }
+
+    @Override
+    public int counterLongwords() {
+        return counterLongwords;
+    }
+
+    @Override
+    public boolean longwordAligned() {
+        return true;
+    }
+}
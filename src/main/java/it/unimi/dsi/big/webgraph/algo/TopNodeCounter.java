@@ -2,33 +2,44 @@ package it.unimi.dsi.big.webgraph.algo;
 
 import it.unimi.dsi.big.webgraph.Edge;
 import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.logging.ProgressLogger;
 import javafx.util.Pair;
 
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
- *  Provides a continuously updated TreeSet, sorted by the nodes' HLL value. Useful for maintaining
- *  the top nodes in DANF.
+ *  Provides the continuously updated nodes with the highest HLL values, kept in a
+ *  {@link BoundedNodeHeap}. Useful for maintaining the top nodes in DANF.
  *
  *  Must be updated whenever DANF is updated, else node values might be wrong.
  *
  *  Usage:
+ *  danf.addChangeListener(topNodeCounter::updateNodeSets);
  *  danf.addEdges(newEdges);
- *  topNodeCounter.updateNodeSets(newEdges);
+ *
+ *  The changes DANF reports include the nodes that changed by the propagation, and no node is
+ *  counted again. The nodes of the edges can instead be counted before and after every batch by
+ *  {@link #updateNodeSetsBefore(Edge...)} and {@link #updateNodeSetsAfter(Edge...)}, which
+ *  misses the nodes that only changed by the propagation.
  *
  *  @author Simon Lindhén
  *  @author Johan Nilsson Hansen
  */
 public class TopNodeCounter {
 
+    /* The number of node ranges per thread that the nodes are counted in at initiation */
+    private static final int INIT_RANGES_PER_THREAD = 4;
+
     private DANF danf;
-    private BoundedTreeSet<Pair<Double, Long>> nodesSortedByValue;
+    private BoundedNodeHeap topNodes;
 
-    private HashMap<Long, Double> updatedNodesWithValueBeforeUpdate;
-    private HashMap<Long, Double> updatedNodesWithValueAfterUpdate;
-    private HashMap<Long, Double> rapidlyChangingNodes;
+    private Long2DoubleOpenHashMap updatedNodesWithValueBeforeUpdate;
+    private Long2DoubleOpenHashMap updatedNodesWithValueAfterUpdate;
+    private Long2DoubleOpenHashMap rapidlyChangingNodes;
 
     private long timeOfLastUpdate;
     private final long updateIntervalms;
@@ -73,8 +84,8 @@ public class TopNodeCounter {
     }
 
     /**
-     * Adds all current nodes with values in DANF to the interally
-     * sorted list of nodes/value pairs.
+     * Adds all current nodes with values in DANF to the top nodes. The nodes are
+     * counted in parallel over ranges of nodes, which each keep their own top nodes.
      * @param graph The graph containing all nodes in DANF
      */
     private void initNodeSets(MutableGraph graph) {
@@ -82,17 +93,30 @@ public class TopNodeCounter {
         ProgressLogger pl = new ProgressLogger();
         pl.expectedUpdates = graph.numNodes();
 
-        nodesSortedByValue = new BoundedTreeSet<>(counterCapacity ,nodeScoreComparator());
-        updatedNodesWithValueBeforeUpdate = new HashMap<>();
-        updatedNodesWithValueAfterUpdate = new HashMap<>();
-        rapidlyChangingNodes = new HashMap<>();
+        updatedNodesWithValueBeforeUpdate = new Long2DoubleOpenHashMap();
+        updatedNodesWithValueAfterUpdate = new Long2DoubleOpenHashMap();
+        rapidlyChangingNodes = new Long2DoubleOpenHashMap();
         timeOfLastUpdate = System.currentTimeMillis();
 
+        long numNodes = graph.numNodes();
+        int h = danf.getMaxH();
+        int nrRanges = (int) Math.max(1, Math.min(numNodes, (long) Runtime.getRuntime().availableProcessors() * INIT_RANGES_PER_THREAD));
         pl.start();
-        for (long node = 0; node < graph.numNodes(); node++) {
-            nodesSortedByValue.add(new Pair<>(danf.count(node, danf.getMaxH()), node));
-            pl.update(1);
-        }
+        topNodes = IntStream.range(0, nrRanges).parallel().mapToObj(range -> {
+            long start = numNodes * range / nrRanges;
+            long end = numNodes * (range + 1) / nrRanges;
+            BoundedNodeHeap rangeTopNodes = new BoundedNodeHeap(counterCapacity);
+            for (long node = start; node < end; node++) {
+                rangeTopNodes.offer(node, danf.count(node, h));
+            }
+            synchronized (pl) {
+                pl.update(end - start);
+            }
+            return rangeTopNodes;
+        }).reduce((topNodes, rangeTopNodes) -> {
+            topNodes.addAll(rangeTopNodes);
+            return topNodes;
+        }).orElseGet(() -> new BoundedNodeHeap(counterCapacity));
         pl.done();
         pl.logger.info( pl.toString() );
     }
@@ -106,18 +130,38 @@ public class TopNodeCounter {
      */
     public void updateNodeSetsAfter(Edge ... edges) {
         insertUpdatedValuesToTemporalSet(updatedNodesWithValueAfterUpdate, true, edges);
+        updateIfIntervalPassed();
+    }
 
+    /**
+     * Updates the node/value pairs for the nodes DANF reported changed by a batch, see
+     * {@link DANF#addChangeListener(Consumer)}. The values are not counted again. Otherwise
+     * the same as {@link #updateNodeSetsAfter(Edge...)}.
+     * @param changes The changes of a batch
+     */
+    public void updateNodeSets(NodeChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            long node = changes.node(i);
+            //All nodes have 1 value in the beginning
+            if(!updatedNodesWithValueBeforeUpdate.containsKey(node))
+                updatedNodesWithValueBeforeUpdate.put(node, Math.max(1, changes.before(i)));
+            updatedNodesWithValueAfterUpdate.put(node, changes.after(i));
+        }
+        updateIfIntervalPassed();
+    }
+
+    private void updateIfIntervalPassed() {
         long currentTime = System.currentTimeMillis();
         if(currentTime - timeOfLastUpdate >= updateIntervalms) {
             mergeNodeSets();
             TreeSet<Pair<Double, Long>> nodesWithPercentageChange = getRapidlyChangingNodes();
 
             nodesWithPercentageChange.stream().forEach(pair -> {
-                Double value = rapidlyChangingNodes.get(pair.getValue());
-                if(value == null) {
-                    rapidlyChangingNodes.put(pair.getValue(), pair.getKey());
+                long node = pair.getValue();
+                if(rapidlyChangingNodes.containsKey(node)) {
+                    rapidlyChangingNodes.put(node, pair.getKey() * rapidlyChangingNodes.get(node));
                 } else {
-                    rapidlyChangingNodes.put(pair.getValue(), pair.getKey() * value);
+                    rapidlyChangingNodes.put(node, pair.getKey().doubleValue());
                 }
             });
 
@@ -129,9 +173,9 @@ public class TopNodeCounter {
         }
     }
 
-    public HashMap<Long, Double> getRapidlyChangedNodes() {
-        HashMap<Long, Double> ret = rapidlyChangingNodes;
-        rapidlyChangingNodes = new HashMap<>();
+    public Long2DoubleOpenHashMap getRapidlyChangedNodes() {
+        Long2DoubleOpenHashMap ret = rapidlyChangingNodes;
+        rapidlyChangingNodes = new Long2DoubleOpenHashMap();
         return ret;
     }
 
@@ -141,33 +185,26 @@ public class TopNodeCounter {
     }
 
     /**
-     * Merges the temporal node/value set with the full set.
-     * Any node present in the temporal set is first removed
-     * from the full set, and then inserted with its new value.
+     * Merges the temporal node/value set with the top nodes. The nodes
+     * that are top nodes get their new values in place.
      */
     private void mergeNodeSets() {
-        Iterator<Pair<Double, Long>> it = nodesSortedByValue.iterator();
-        while(it.hasNext()) {
-            Pair<Double, Long> pair = it.next();
-            Double currentValue = updatedNodesWithValueAfterUpdate.get(pair.getValue());
-            if(currentValue != null) { //If null, then the value haven't changed
-                it.remove();
-            }
+        for (Long2DoubleMap.Entry entry : updatedNodesWithValueAfterUpdate.long2DoubleEntrySet()) {
+            topNodes.offer(entry.getLongKey(), entry.getDoubleValue());
         }
-
-        updatedNodesWithValueAfterUpdate.forEach((key, value) -> nodesSortedByValue.add(new Pair<>(value, key)));
     }
 
     private TreeSet<Pair<Double, Long>> getRapidlyChangingNodes() {
         TreeSet<Pair<Double, Long>> nodesWithPercentageChange = new TreeSet<>(nodeScoreComparator());
 
-        updatedNodesWithValueAfterUpdate.forEach( (node, newValue) -> {
+        for (Long2DoubleMap.Entry entry : updatedNodesWithValueAfterUpdate.long2DoubleEntrySet()) {
+            long node = entry.getLongKey();
             double oldValue = updatedNodesWithValueBeforeUpdate.get(node);
-            double percentageChange = newValue / oldValue;
+            double percentageChange = entry.getDoubleValue() / oldValue;
             if(percentageChange > percentageChangeLimit && oldValue >= minNodeCountLimit) {
                 nodesWithPercentageChange.add(new Pair<>(percentageChange, node));
             }
-        });
+        }
 
         updatedNodesWithValueAfterUpdate.clear();
         updatedNodesWithValueBeforeUpdate.clear();
@@ -175,16 +212,38 @@ public class TopNodeCounter {
         return nodesWithPercentageChange;
     }
 
+    /**
+     * @return A new set of the top nodes and their values, sorted by {@link #nodeScoreComparator()}
+     */
     public TreeSet<Pair<Double, Long>> getNodesSortedByValue() {
+        TreeSet<Pair<Double, Long>> nodesSortedByValue = new TreeSet<>(nodeScoreComparator());
+        for (long node : topNodes.nodesByValue()) {
+            nodesSortedByValue.add(new Pair<>(topNodes.value(node), node));
+        }
         return nodesSortedByValue;
     }
 
+    /**
+     * @return The top nodes, from the highest value to the lowest
+     */
+    public long[] getTopNodes() {
+        return topNodes.nodesByValue();
+    }
+
+    /**
+     * @param node
+     * @return The value of {@code node} if it's a top node, otherwise NaN
+     */
+    public double getTopNodeValue(long node) {
+        return topNodes.value(node);
+    }
+
     /**
      * Inserts all nodes in {@code edges} in to the temporal set, along with
      * their danf values.
      * @param edges
      */
-    private void insertUpdatedValuesToTemporalSet(Map<Long, Double> map, boolean overrideOldValues, Edge ... edges) {
+    private void insertUpdatedValuesToTemporalSet(Long2DoubleMap map, boolean overrideOldValues, Edge ... edges) {
         for (int i = 0; i < edges.length; i++) {
             Edge edge = edges[i];
 
@@ -193,7 +252,7 @@ public class TopNodeCounter {
         }
     }
 
-    private void addLongDoublePairToMap(Map<Long, Double> map, boolean overrideOldValues, long node) {
+    private void addLongDoublePairToMap(Long2DoubleMap map, boolean overrideOldValues, long node) {
         if(overrideOldValues || !map.containsKey(node)) {
             double value;
             try {
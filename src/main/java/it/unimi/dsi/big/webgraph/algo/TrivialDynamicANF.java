@@ -58,6 +58,11 @@ public class TrivialDynamicANF implements DynamicNeighborhoodFunction{
         transposeGraph = graph.transpose();
         this.h = h;
 
+        counters = runHyperBall(log2m, seed);
+
+    }
+
+    private HyperLogLogCounterArray runHyperBall(int log2m, long seed){
         HyperBall hb = new HyperBall(graph, transposeGraph,log2m,seed);
         try {
             hb.run(h);
@@ -65,8 +70,7 @@ public class TrivialDynamicANF implements DynamicNeighborhoodFunction{
         } catch (IOException e) {
             throw new RuntimeException("Should never happen as it's not external",e);
         }
-        counters = hb.getCounter();
-
+        return hb.getCounter();
     }
 
     @Override
@@ -104,6 +108,16 @@ public class TrivialDynamicANF implements DynamicNeighborhoodFunction{
         return counters.count(node);
     }
 
+    /**
+     * Adds the given edges to the graph and updates the neighborhood function.
+     * @see TrivialDynamicANF#addEdges(Edge...)
+     * @param edges
+     */
+    @Override
+    public void addEdges(EdgeBatch edges){
+        addEdges(edges.toEdges());
+    }
+
     /**
      *
      * Adds the given edges to the graph and updates the neighborhood function.
@@ -140,6 +154,27 @@ public class TrivialDynamicANF implements DynamicNeighborhoodFunction{
         pl.stop();
     }
 
+    /**
+     *
+     * Removes the given edges from the graph and recalculates the neighborhood function
+     * from scratch. The graph must support {@link MutableGraph#deleteEdge(Edge)}.
+     *
+     * <b>Warning:</b> This implementation is very slow and was only implemented to be compared
+     * to DANF. Use DANF if you want to calculate the approximate neighborhood function dynamically.
+     *
+     * @see DANF
+     *
+     * @param edges
+     */
+    @Override
+    public void removeEdges(Edge... edges){
+        for (Edge edge : edges) {
+            if(graph.deleteEdge(edge))
+                transposeGraph.deleteEdge(edge.flip());
+        }
+        counters = runHyperBall(counters.log2m, counters.getJenkinsSeed());
+    }
+
     @Override
     public void close() {}
 
@@ -0,0 +1,79 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures how long adding a bulk of edges to an {@link ImmutableGraphWrapper} takes when the graph is
+ * stored before the edges are added and when it's stored in the background, together with how
+ * often and for how long the graph was stored.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class BackgroundCompactionBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkBackgroundCompaction" + dateString + ".data";
+
+    private final int bulkSize = 20000;
+    private final int nrBulks = 200;
+    private final float ratioThreshold = 1.0f;
+    private final long seed = 918273645501928374L;
+
+    /**
+     * Adds the same bulks of random edges to a wrapper that stores the graph before returning and to
+     * one that stores it in the background, and saves the times into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; " + nrBulks + " bulks of " + bulkSize + " random edges; the graph " +
+                "is stored when the added edges take " + ratioThreshold + " times the memory of the graph;");
+        writer.println("%background meanAddMicros p99AddMicros maxAddMicros numCompactions compactionMillis compactionMB");
+
+        for (boolean background : new boolean[]{false, true}) {
+            ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile), ratioThreshold)
+                    .withBackgroundCompaction(background);
+            long numNodes = graph.numNodes();
+            Random rand = new Random(seed);
+
+            long[] addNanos = new long[nrBulks];
+            for (int bulk = 0; bulk < nrBulks; bulk++) {
+                EdgeBatch edges = new EdgeBatch(bulkSize);
+                for (int i = 0; i < bulkSize; i++) {
+                    edges.add((rand.nextLong() >>> 1) % numNodes, (rand.nextLong() >>> 1) % numNodes);
+                }
+                long start = System.nanoTime();
+                graph.addEdges(edges);
+                addNanos[bulk] = System.nanoTime() - start;
+            }
+            graph.awaitCompaction();
+
+            long mean = Arrays.stream(addNanos).sum() / nrBulks / 1000;
+            Arrays.sort(addNanos);
+            String result = background + " " + mean + " " + addNanos[(int) (nrBulks * 0.99)] / 1000 + " " + addNanos[nrBulks - 1] / 1000 + " " +
+                    graph.getNumCompactions() + " " + graph.getCompactionMillis() + " " + graph.getCompactionBytesWritten() / (1024 * 1024);
+            System.out.println(result);
+            writer.println(result);
+            writer.flush();
+            graph.close();
+        }
+        writer.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        new BackgroundCompactionBenchmark().benchmark();
+    }
+}
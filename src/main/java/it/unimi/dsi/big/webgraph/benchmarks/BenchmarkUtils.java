@@ -1,7 +1,9 @@
 package it.unimi.dsi.big.webgraph.benchmarks;
 
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
 import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.NodeIterator;
 import it.unimi.dsi.big.webgraph.Utils;
 
 import java.io.PrintWriter;
@@ -81,4 +83,25 @@ public class BenchmarkUtils {
         writer.println(modifiedInMillions + " " + dps + " " + heapSize + " " + elapsedTimeSinceStart  + " " + /*graph.getNumberOfArcs()*/0 + " " + graph.numNodes());
         writer.flush();
     }
+
+    /**
+     * Reads all successors of all nodes of {@code graph} with a node iterator.
+     * @param graph
+     * @return The time the scan took
+     * @throws IllegalStateException If the number of arcs scanned isn't the number of arcs of the graph
+     */
+    public static long scanMillis(MutableGraph graph) {
+        long start = System.currentTimeMillis();
+        long arcs = 0;
+        NodeIterator it = graph.nodeIterator();
+        while(it.hasNext()) {
+            it.nextLong();
+            LazyLongIterator neighIt = it.successors();
+            while(neighIt.nextLong() != -1)
+                arcs++;
+        }
+        if(arcs != graph.numArcs())
+            throw new IllegalStateException("Scanned " + arcs + " arcs but the graph has " + graph.numArcs());
+        return System.currentTimeMillis() - start;
+    }
 }
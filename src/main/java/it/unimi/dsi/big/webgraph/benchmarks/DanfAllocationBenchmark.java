@@ -0,0 +1,102 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures the number of bytes allocated on the heap while DANF inserts bulks of random edges,
+ * summed over all live threads so that the threads of the MS-BFS are included. Requires a JVM
+ * that supports measuring the allocations of threads, such as HotSpot.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class DanfAllocationBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkDanfAllocation" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int bulkSize = 10000;
+    private final int nrBulks = 10;
+    private final long seed = 8516942932596937874L;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Inserts {@code nrBulks} bulks of random edges and saves the allocated bytes and the
+     * time of every bulk into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        if(!threads.isThreadAllocatedMemorySupported())
+            throw new UnsupportedOperationException("The JVM can't measure the allocations of threads");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MutableGraph graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile));
+        DANF danf = new DANF(h, log2m, graph, seed);
+        Random rand = new Random(seed);
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; Allocations of the insertion of " + nrBulks + " bulks of " +
+                bulkSize + " random edges; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%bulk allocatedMB millis MBPerSecond bytesPerEdge");
+
+        for (int bulk = 0; bulk < nrBulks; bulk++) {
+            EdgeBatch edges = new EdgeBatch(bulkSize);
+            for (int i = 0; i < bulkSize; i++) {
+                edges.add(nextNode(graph.numNodes(), rand), nextNode(graph.numNodes(), rand));
+            }
+
+            long allocatedBefore = allocatedBytes();
+            long startTime = System.currentTimeMillis();
+            danf.addEdges(edges);
+            long millis = System.currentTimeMillis() - startTime;
+            long allocated = allocatedBytes() - allocatedBefore;
+
+            double allocatedMB = allocated / (double) (1 << 20);
+            double rate = millis == 0 ? 0 : allocatedMB / (millis / 1000.0);
+            System.out.println("Bulk " + bulk + " allocated " + allocatedMB + "MB in " + millis + "ms, " + rate + "MB/s");
+            writer.println(bulk + " " + allocatedMB + " " + millis + " " + rate + " " + allocated / bulkSize);
+            writer.flush();
+        }
+
+        danf.close();
+        writer.close();
+    }
+
+    /**
+     * @return The number of bytes allocated by the live threads
+     */
+    private long allocatedBytes() {
+        long bytes = 0;
+        for (long threadBytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if(threadBytes > 0)
+                bytes += threadBytes;
+        }
+        return bytes;
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DanfAllocationBenchmark().benchmark();
+    }
+}
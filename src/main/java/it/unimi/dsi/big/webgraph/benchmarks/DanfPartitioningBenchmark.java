@@ -0,0 +1,136 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraph;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
+import it.unimi.dsi.big.webgraph.NodeIterator;
+import it.unimi.dsi.big.webgraph.TraverseGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Compares the time DANF takes to insert edges for each {@link DANF.PartitionOrder}. The edges
+ * are either random or real arcs of the graph, which are held out of the graph DANF starts with
+ * and inserted in a random order.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class DanfPartitioningBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkDanfPartitioning" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int bulkSize = 20000;
+    private final int nrBulks = 5;
+    private final int partitionSize = 2000;
+    private final long seed = 8516942932596937874L;
+
+    /**
+     * Inserts the same edges with every partition order and saves the time of the
+     * insertions into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; Insertion of " + nrBulks + " bulks of " + bulkSize +
+                " edges in partitions of " + partitionSize + " edges; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%edgeType partitionOrder millis");
+
+        EdgeBatch arcs = shuffledArcs();
+        for (boolean realArcs : new boolean[]{false, true}) {
+            String edgeType = realArcs ? "real" : "random";
+            for (DANF.PartitionOrder order : DANF.PartitionOrder.values()) {
+                long time = insertEdges(arcs, realArcs, order);
+                System.out.println(edgeType + " edges ordered by " + order + " took " + time + "ms");
+                writer.println(edgeType + " " + order + " " + time);
+                writer.flush();
+            }
+        }
+
+        writer.close();
+    }
+
+    /**
+     * Builds a graph of all but the last {@code nrBulks * bulkSize} arcs and inserts
+     * {@code nrBulks} bulks of edges into a new DANF on it.
+     * @param arcs The arcs of the graph in the order they are inserted
+     * @param realArcs If the held out arcs should be inserted instead of random edges
+     * @param order
+     * @return The time of the insertions in millis
+     */
+    private long insertEdges(EdgeBatch arcs, boolean realArcs, DANF.PartitionOrder order) {
+        int heldOut = nrBulks * bulkSize;
+        EdgeBatch initialArcs = new EdgeBatch(arcs.size() - heldOut);
+        for (int i = 0; i < arcs.size() - heldOut; i++) {
+            initialArcs.add(arcs.from(i), arcs.to(i));
+        }
+        TraverseGraph graph = new TraverseGraph(initialArcs);
+        DANF danf = new DANF(h, log2m, graph, seed).withPartitionSize(partitionSize).withPartitionOrder(order);
+        Random rand = new Random(seed);
+
+        long totalTime = 0;
+        for (int bulk = 0; bulk < nrBulks; bulk++) {
+            EdgeBatch edges = new EdgeBatch(bulkSize);
+            for (int i = 0; i < bulkSize; i++) {
+                if(realArcs) {
+                    int arc = arcs.size() - heldOut + bulk * bulkSize + i;
+                    edges.add(arcs.from(arc), arcs.to(arc));
+                } else {
+                    edges.add(nextNode(graph.numNodes(), rand), nextNode(graph.numNodes(), rand));
+                }
+            }
+
+            long startTime = System.currentTimeMillis();
+            danf.addEdges(edges);
+            totalTime += System.currentTimeMillis() - startTime;
+        }
+
+        danf.close();
+        return totalTime;
+    }
+
+    /**
+     * @return The arcs of the graph in a random order
+     * @throws IOException
+     */
+    private EdgeBatch shuffledArcs() throws IOException {
+        ImmutableGraph graph = BVGraph.loadMapped(graphFile);
+        EdgeBatch arcs = new EdgeBatch((int) graph.numArcs());
+        NodeIterator nodeIt = graph.nodeIterator();
+        while(nodeIt.hasNext()) {
+            long node = nodeIt.nextLong();
+            LazyLongIterator successors = nodeIt.successors();
+            for (long d = nodeIt.outdegree(); d > 0; d--) {
+                arcs.add(node, successors.nextLong());
+            }
+        }
+
+        Random rand = new Random(seed);
+        double[] keys = new double[arcs.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rand.nextDouble();
+        }
+        arcs.sort(keys);
+        return arcs;
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DanfPartitioningBenchmark().benchmark();
+    }
+}
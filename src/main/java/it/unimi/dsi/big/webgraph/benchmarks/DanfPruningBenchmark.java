@@ -0,0 +1,128 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures how much faster DANF inserts edges when the propagation stops at nodes
+ * whose history doesn't change. Random edges are compared with edges closing
+ * paths of length two, which are mostly redundant in dense parts of the graph.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class DanfPruningBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkDanfPruning" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int bulkSize = 10000;
+    private final int nrBulks = 10;
+    private final long seed = 8516942932596937874L;
+
+    /**
+     * Inserts the same edges into DANF with and without pruning and saves the
+     * time of the insertions into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; Insertion of " + nrBulks + " bulks of " + bulkSize +
+                " edges with and without stopping the propagation at unchanged nodes; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%edgeType prunedMillis unprunedMillis speedup");
+
+        for (boolean closingPaths : new boolean[]{false, true}) {
+            long prunedTime = insertEdges(closingPaths, true);
+            long unprunedTime = insertEdges(closingPaths, false);
+            float speedup = prunedTime == 0 ? 1 : (float) unprunedTime / prunedTime;
+            String edgeType = closingPaths ? "closing" : "random";
+
+            System.out.println(edgeType + " edges took " + prunedTime + "ms pruned and " + unprunedTime + "ms unpruned, speedup " + speedup);
+            writer.println(edgeType + " " + prunedTime + " " + unprunedTime + " " + speedup);
+            writer.flush();
+        }
+
+        writer.close();
+    }
+
+    /**
+     * Loads the graph and inserts {@code nrBulks} bulks of edges into a new DANF.
+     * The edges only depend on the seed, so both runs insert the same edges.
+     * @param closingPaths If the edges should close paths of length two instead of being random
+     * @param pruning
+     * @return The time of the insertions in millis
+     * @throws IOException
+     */
+    private long insertEdges(boolean closingPaths, boolean pruning) throws IOException {
+        MutableGraph graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile));
+        DANF danf = new DANF(h, log2m, graph, seed).withNoChangePruning(pruning);
+        Random rand = new Random(seed);
+
+        long totalTime = 0;
+        for (int bulk = 0; bulk < nrBulks; bulk++) {
+            EdgeBatch edges = closingPaths ? generatePathClosingEdges(graph, rand) : generateRandomEdges(graph.numNodes(), rand);
+
+            long startTime = System.currentTimeMillis();
+            danf.addEdges(edges);
+            totalTime += System.currentTimeMillis() - startTime;
+        }
+
+        danf.close();
+        return totalTime;
+    }
+
+    private EdgeBatch generateRandomEdges(long numNodes, Random rand) {
+        EdgeBatch edges = new EdgeBatch(bulkSize);
+        for (int i = 0; i < bulkSize; i++) {
+            edges.add(nextNode(numNodes, rand), nextNode(numNodes, rand));
+        }
+        return edges;
+    }
+
+    /**
+     * Generates edges {@code u -> w} where {@code u -> v -> w} is a path in the graph.
+     */
+    private EdgeBatch generatePathClosingEdges(MutableGraph graph, Random rand) {
+        EdgeBatch edges = new EdgeBatch(bulkSize);
+        while (edges.size() < bulkSize) {
+            long from = nextNode(graph.numNodes(), rand);
+            long via = randomSuccessor(graph, from, rand);
+            long to = via == -1 ? -1 : randomSuccessor(graph, via, rand);
+            if(to != -1)
+                edges.add(from, to);
+        }
+        return edges;
+    }
+
+    private static long randomSuccessor(MutableGraph graph, long node, Random rand) {
+        long outdegree = graph.outdegree(node);
+        if(outdegree == 0)
+            return -1;
+        LazyLongIterator successors = graph.successors(node);
+        successors.skip(nextNode(outdegree, rand));
+        return successors.nextLong();
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DanfPruningBenchmark().benchmark();
+    }
+}
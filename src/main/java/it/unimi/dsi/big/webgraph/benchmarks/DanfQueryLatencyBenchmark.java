@@ -0,0 +1,147 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures the latency of {@link DANF#count(long, int)} from several reader threads, both while
+ * nothing is inserted and while another thread inserts bulks of random edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class DanfQueryLatencyBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkDanfQueryLatency" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int bulkSize = 10000;
+    private final int nrBulks = 10;
+    private final int nrReaders = 2;
+    private final long idleMillis = 5000;
+    private final long seed = 8516942932596937874L;
+
+    /**
+     * Counts random nodes without and with concurrent insertions and saves the
+     * percentiles of the latencies into a data file.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void benchmark() throws IOException, InterruptedException {
+        MutableGraph graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile));
+        DANF danf = new DANF(h, log2m, graph, seed);
+        long numNodes = graph.numNodes();
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; Latency of counting with " + nrReaders + " reader threads while " +
+                nrBulks + " bulks of " + bulkSize + " random edges are inserted; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%ingesting queries p50Nanos p99Nanos p999Nanos maxNanos ingestionMillis");
+
+        for (boolean ingesting : new boolean[]{false, true}) {
+            AtomicBoolean done = new AtomicBoolean(false);
+            LongArrayList[] latencies = new LongArrayList[nrReaders];
+            Thread[] readers = new Thread[nrReaders];
+            for (int i = 0; i < nrReaders; i++) {
+                latencies[i] = new LongArrayList();
+                readers[i] = new Thread(new Reader(danf, numNodes, seed + i, done, latencies[i]));
+                readers[i].start();
+            }
+
+            long ingestionMillis = 0;
+            if(ingesting) {
+                Random rand = new Random(seed);
+                for (int bulk = 0; bulk < nrBulks; bulk++) {
+                    EdgeBatch edges = new EdgeBatch(bulkSize);
+                    for (int i = 0; i < bulkSize; i++) {
+                        edges.add(nextNode(numNodes, rand), nextNode(numNodes, rand));
+                    }
+                    long startTime = System.currentTimeMillis();
+                    danf.addEdges(edges);
+                    ingestionMillis += System.currentTimeMillis() - startTime;
+                }
+            } else {
+                Thread.sleep(idleMillis);
+            }
+            done.set(true);
+
+            LongArrayList all = new LongArrayList();
+            for (int i = 0; i < nrReaders; i++) {
+                readers[i].join();
+                all.addAll(latencies[i]);
+            }
+            long[] sorted = all.toLongArray();
+            Arrays.sort(sorted);
+
+            String result = ingesting + " " + sorted.length + " " + percentile(sorted, 0.5) + " " + percentile(sorted, 0.99) + " " +
+                    percentile(sorted, 0.999) + " " + sorted[sorted.length - 1] + " " + ingestionMillis;
+            System.out.println(result);
+            writer.println(result);
+            writer.flush();
+        }
+
+        danf.close();
+        writer.close();
+    }
+
+    /**
+     * Counts random nodes until told to stop and records the time of every count.
+     */
+    private class Reader implements Runnable {
+
+        private final DANF danf;
+        private final long numNodes;
+        private final Random rand;
+        private final AtomicBoolean done;
+        private final LongArrayList latencies;
+
+        private Reader(DANF danf, long numNodes, long seed, AtomicBoolean done, LongArrayList latencies) {
+            this.danf = danf;
+            this.numNodes = numNodes;
+            this.rand = new Random(seed);
+            this.done = done;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void run() {
+            double sum = 0;
+            while(!done.get()) {
+                long node = nextNode(numNodes, rand);
+                long startTime = System.nanoTime();
+                sum += danf.count(node, h);
+                latencies.add(System.nanoTime() - startTime);
+            }
+            if(sum < 0)
+                System.out.println(sum);
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (percentile * sorted.length))];
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        new DanfQueryLatencyBenchmark().benchmark();
+    }
+}
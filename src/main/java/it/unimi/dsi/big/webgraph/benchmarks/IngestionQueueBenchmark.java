@@ -0,0 +1,140 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+import it.unimi.dsi.big.webgraph.algo.IngestionQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures the throughput of an {@link IngestionQueue} that several threads add random edges to,
+ * and the time until an added edge has been inserted into DANF, for different max batch sizes
+ * and max delays of the queue.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class IngestionQueueBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkIngestionQueue" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int nrProducers = 8;
+    private final int edgesPerProducer = 10000;
+    private final int capacity = 50000;
+    private final int[] maxBatchSizes = {500, 5000, 50000};
+    private final long[] maxDelaysMillis = {1, 10, 100};
+    private final long sampleIntervalMillis = 20;
+    private final long seed = 8516942932596937874L;
+
+    /**
+     * Adds the same number of edges with every configuration of the queue and saves the
+     * throughput and the time until edges were inserted into a data file.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void benchmark() throws IOException, InterruptedException {
+        MutableGraph graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile));
+        DANF danf = new DANF(h, log2m, graph, seed);
+        long numNodes = graph.numNodes();
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; " + nrProducers + " threads adding " + edgesPerProducer +
+                " random edges each to a queue of capacity " + capacity + "; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%maxBatchSize maxDelayMillis edgesPerSecond batches p50InsertedMillis p99InsertedMillis");
+
+        for (int config = 0; config < maxBatchSizes.length; config++) {
+            danf.withPartitionSize(maxBatchSizes[config]);
+            IngestionQueue queue = new IngestionQueue(danf, capacity)
+                    .withMaxDelay(maxDelaysMillis[config], TimeUnit.MILLISECONDS);
+
+            AtomicBoolean done = new AtomicBoolean(false);
+            LongArrayList insertionTimes = new LongArrayList();
+            Thread sampler = new Thread(() -> sampleInsertionTimes(queue, numNodes, done, insertionTimes));
+            sampler.start();
+
+            Thread[] producers = new Thread[nrProducers];
+            long startTime = System.nanoTime();
+            for (int i = 0; i < nrProducers; i++) {
+                Random rand = new Random(seed + config * nrProducers + i);
+                producers[i] = new Thread(() -> {
+                    try {
+                        for (int edge = 0; edge < edgesPerProducer; edge++) {
+                            queue.put(nextNode(numNodes, rand), nextNode(numNodes, rand));
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            queue.flush();
+            long nanos = System.nanoTime() - startTime;
+            done.set(true);
+            sampler.join();
+            queue.close();
+
+            long[] sorted = insertionTimes.toLongArray();
+            Arrays.sort(sorted);
+            double edgesPerSecond = nrProducers * (double) edgesPerProducer / (nanos / 1e9);
+            String result = maxBatchSizes[config] + " " + maxDelaysMillis[config] + " " + edgesPerSecond + " " +
+                    queue.getNumBatches() + " " + percentile(sorted, 0.5) + " " + percentile(sorted, 0.99);
+            System.out.println(result);
+            writer.println(result);
+            writer.flush();
+        }
+
+        danf.close();
+        writer.close();
+    }
+
+    /**
+     * Adds an edge and waits until it's inserted, once every sample interval until done.
+     */
+    private void sampleInsertionTimes(IngestionQueue queue, long numNodes, AtomicBoolean done, LongArrayList insertionTimes) {
+        Random rand = new Random(seed);
+        try {
+            while(!done.get()) {
+                long startTime = System.nanoTime();
+                queue.put(nextNode(numNodes, rand), nextNode(numNodes, rand));
+                queue.flush();
+                insertionTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                Thread.sleep(sampleIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if(sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, (long) (percentile * sorted.length))];
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        new IngestionQueueBenchmark().benchmark();
+    }
+}
@@ -0,0 +1,99 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.*;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Compares the time it takes to add bulks of random edges to a {@link TraverseGraph}, which rewrites
+ * the whole graph for every bulk, and to a {@link LeveledTraverseGraph}, which adds every bulk as a new
+ * level, together with the time it takes to scan all edges of the graphs.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class LeveledTraverseGraphBenchmark {
+
+    private final int maxNumberOfEdges = 5000000;
+    private final int edgesBulkSize = 10000;
+    private final int maxNode = maxNumberOfEdges;
+    private final int samples = 10;
+    private final long seed = 3245678923456789L;
+
+    private final String dateString = getDateString();
+    private final String dataFile = dataFolder + "benchmarkLeveledTraverseGraph" + dateString + ".data";
+
+    /**
+     * Adds the same bulks to both graphs and saves the times of the bulks since the last sample,
+     * and the time of a complete edge scan, into a data file.
+     * @throws FileNotFoundException
+     */
+    public void benchmark() throws FileNotFoundException {
+        TraverseGraph traverse = new TraverseGraph();
+        LeveledTraverseGraph leveled = new LeveledTraverseGraph();
+        Random rand = new Random(seed);
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + "; Comparison between TraverseGraph and LeveledTraverseGraph; bulks of " +
+                edgesBulkSize + " random edges between " + maxNode + " nodes are inserted into both. The add times are " +
+                "the mean of the bulks since the last sample.");
+        writer.println("%nrAddedEdges traverseAddMicrosPerBulk traverseScanMs leveledAddMicrosPerBulk leveledScanMs leveledLevels leveledWriteAmplification");
+
+        long traverseNanos = 0, leveledNanos = 0;
+        int bulksSinceSample = 0;
+        for (int nrAddedEdges = edgesBulkSize; nrAddedEdges <= maxNumberOfEdges; nrAddedEdges += edgesBulkSize) {
+            EdgeBatch edges = new EdgeBatch(edgesBulkSize);
+            for (int i = 0; i < edgesBulkSize; i++) {
+                edges.add(rand.nextInt(maxNode), rand.nextInt(maxNode));
+            }
+            EdgeBatch leveledEdges = EdgeBatch.wrap(copyFrom(edges), copyTo(edges), edges.size());
+
+            long start = System.nanoTime();
+            traverse.addEdges(edges);
+            traverseNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            leveled.addEdges(leveledEdges);
+            leveledNanos += System.nanoTime() - start;
+            bulksSinceSample++;
+
+            if(nrAddedEdges % (maxNumberOfEdges / samples) == 0) {
+                String result = nrAddedEdges + " " + traverseNanos / 1000 / bulksSinceSample + " " + scanMillis(traverse) + " " +
+                        leveledNanos / 1000 / bulksSinceSample + " " + scanMillis(leveled) + " " + leveled.numLevels() + " " +
+                        leveled.getWriteAmplification();
+                System.out.println(result);
+                writer.println(result);
+                writer.flush();
+                traverseNanos = 0;
+                leveledNanos = 0;
+                bulksSinceSample = 0;
+            }
+        }
+        writer.close();
+    }
+
+    private static long[] copyFrom(EdgeBatch edges) {
+        long[] from = new long[edges.size()];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = edges.from(i);
+        }
+        return from;
+    }
+
+    private static long[] copyTo(EdgeBatch edges) {
+        long[] to = new long[edges.size()];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = edges.to(i);
+        }
+        return to;
+    }
+
+    public static void main(String[] args) throws FileNotFoundException {
+        new LeveledTraverseGraphBenchmark().benchmark();
+    }
+}
@@ -0,0 +1,109 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.ImmutableGraph;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.algo.MSBreadthFirst;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.stream.LongStream;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures how the Multi-source breadth-first-search scales with the number of threads
+ * it is given, to show that the merging of the visits doesn't serialize the threads.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class MSBFSThreadScaling {
+
+    private final int nrSources = 1000;
+    private final int startNode = 0;
+    private final int maxSteps = 3;
+    private final int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private final String dateString = getDateString();
+
+    private final String graphName = "in-2004";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile  = dataFolder + "benchmarkMSBfsThreads" + dateString + ".data";
+
+    private final int nrSamples = 3;
+
+    /**
+     * Loads a physical graph and performs msbfs's on it with 1 to {@code maxThreads} threads.
+     * Their completion time is measured and saved into a data file.
+     * The BFS's will originate from the first nodes in the graph.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void benchmark() throws IOException, InterruptedException {
+
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(ImmutableGraph.loadMapped(graphFile));
+        ImmutableGraphWrapper transpose = (ImmutableGraphWrapper) graph.transpose();
+        long[] sources = LongStream.range(startNode, startNode + nrSources).toArray();
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; Scaling of the MS-BFS algorithm with the number of threads; "
+                + nrSources + " sources are used for each bfs; The time measured is the millis to perform a bfs that stops after h steps;");
+        writer.println("%h nrThreads msbfsMillis speedup");
+
+        /* WARMUP CPU */
+        for (int i = 0; i < nrSamples; i++) {
+            performMSBfsAndMeasureTime(sources, graph, transpose, maxSteps, maxThreads);
+        }
+
+        for (int h = 1; h <= maxSteps; h++) {
+            long singleThreadTime = 0;
+
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                long totalTime = 0;
+                for (int i = 0; i < nrSamples; i++) {
+                    totalTime += performMSBfsAndMeasureTime(sources, graph, transpose, h, threads);
+                }
+                totalTime = totalTime / nrSamples;
+                if(threads == 1)
+                    singleThreadTime = totalTime;
+
+                float speedup = totalTime == 0 ? 1 : (float) singleThreadTime / totalTime;
+                System.out.println("h = " + h + " with " + threads + " threads took " + totalTime + "ms, speedup " + speedup);
+                writer.println(h + " " + threads + " " + totalTime + " " + speedup);
+                writer.flush();
+            }
+        }
+
+        writer.close();
+    }
+
+    /**
+     * Runs a ms-bfs from the sources with {@code threads} threads. The bfs will stop after h levels.
+     * @param sources
+     * @param graph
+     * @param transpose
+     * @param h
+     * @param threads
+     * @return The elapsed time in millis
+     * @throws InterruptedException
+     */
+    private static long performMSBfsAndMeasureTime(long[] sources, ImmutableGraphWrapper graph, ImmutableGraphWrapper transpose, final int h, int threads) throws InterruptedException {
+        MSBreadthFirst.Visitor visitor = (long node, BitSet bfsVisits, BitSet seen, int depth, MSBreadthFirst.Traveler t) -> {
+            if(depth == h) {
+                bfsVisits.clear();
+            }
+        };
+
+        MSBreadthFirst msbfs = new MSBreadthFirst(graph, transpose, threads);
+        long startTime = System.currentTimeMillis();
+        msbfs.search(sources, visitor, null);
+        long endTime = System.currentTimeMillis();
+        msbfs.close();
+        return endTime - startTime;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        new MSBFSThreadScaling().benchmark();
+    }
+}
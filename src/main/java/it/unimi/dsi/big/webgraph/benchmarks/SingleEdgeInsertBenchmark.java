@@ -0,0 +1,77 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures the time it takes to add random edges one at a time to an {@link ImmutableGraphWrapper},
+ * and the time it takes to read the successors of random nodes afterwards, for a growing number
+ * of added edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class SingleEdgeInsertBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkSingleEdgeInsert" + dateString + ".data";
+
+    private final int[] nrEdgesValues = {1000, 10000, 100000};
+    private final int nrReads = 100000;
+    private final long seed = 5512983475610293L;
+
+    /**
+     * Adds every number of random edges one at a time to a new wrapper, then reads the successors
+     * of random nodes and saves the times into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; random edges added one at a time, then the successors of " +
+                nrReads + " random nodes are read; the graph is never stored;");
+        writer.println("%nrEdges addMicrosPerEdge readNanosPerNode");
+
+        for (int nrEdges : nrEdgesValues) {
+            ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile), Float.MAX_VALUE);
+            long numNodes = graph.numNodes();
+            Random rand = new Random(seed);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < nrEdges; i++) {
+                graph.addEdge(new Edge((rand.nextLong() >>> 1) % numNodes, (rand.nextLong() >>> 1) % numNodes));
+            }
+            long addNanos = System.nanoTime() - start;
+
+            long sum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < nrReads; i++) {
+                LazyLongIterator successors = graph.successors((rand.nextLong() >>> 1) % numNodes);
+                for (long successor; (successor = successors.nextLong()) != -1; )
+                    sum += successor;
+            }
+            long readNanos = System.nanoTime() - start;
+
+            String result = nrEdges + " " + addNanos / 1000 / nrEdges + " " + readNanos / nrReads;
+            System.out.println(result + " (" + sum + ")");
+            writer.println(result);
+            writer.flush();
+            graph.close();
+        }
+        writer.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        new SingleEdgeInsertBenchmark().benchmark();
+    }
+}
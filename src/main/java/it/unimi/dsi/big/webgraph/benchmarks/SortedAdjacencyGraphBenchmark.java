@@ -0,0 +1,79 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.*;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Compares the memory per arc of {@link SimulatedGraph} and {@link SortedAdjacencyGraph}, together
+ * with the time it takes to add bulks of random edges to them and to scan all of their edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class SortedAdjacencyGraphBenchmark {
+
+    private final int maxNumberOfEdges = 3000000;
+    private final int edgesBulkSize = 10000;
+    private final int samples = 3;
+    private final int[] numSourcesValues = {1000, 100000, 3000000};
+    private final long seed = 7281649120376451L;
+
+    private final String dateString = getDateString();
+    private final String dataFile = dataFolder + "benchmarkSortedAdjacencyGraph" + dateString + ".data";
+
+    /**
+     * Adds the same random edges to both graphs for every number of sources, which sets the mean
+     * outdegree, and saves the memory and times into a data file.
+     * @throws FileNotFoundException
+     */
+    public void benchmark() throws FileNotFoundException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + "; Comparison between SimulatedGraph and SortedAdjacencyGraph; bulks of " +
+                edgesBulkSize + " random edges from numSources nodes to " + maxNumberOfEdges + " nodes are added to both. " +
+                "The memory is measured by walking the object graphs.");
+        writer.println("%numSources nrAddedEdges simulatedAddMs simulatedScanMs simulatedBytesPerArc sortedAddMs sortedScanMs sortedBytesPerArc sortedEstimatedBytesPerArc");
+
+        for (int numSources : numSourcesValues) {
+            SimulatedGraph simulated = new SimulatedGraph();
+            SortedAdjacencyGraph sorted = new SortedAdjacencyGraph();
+            Random rand = new Random(seed);
+            long simulatedAddMillis = 0, sortedAddMillis = 0;
+
+            for (int nrAddedEdges = edgesBulkSize; nrAddedEdges <= maxNumberOfEdges; nrAddedEdges += edgesBulkSize) {
+                EdgeBatch edges = new EdgeBatch(edgesBulkSize);
+                for (int i = 0; i < edgesBulkSize; i++) {
+                    edges.add(rand.nextInt(numSources), rand.nextInt(maxNumberOfEdges));
+                }
+
+                long start = System.currentTimeMillis();
+                simulated.addEdges(edges);
+                simulatedAddMillis += System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                sorted.addEdges(edges);
+                sortedAddMillis += System.currentTimeMillis() - start;
+
+                if(nrAddedEdges % (maxNumberOfEdges / samples) == 0) {
+                    String result = numSources + " " + nrAddedEdges + " " +
+                            simulatedAddMillis + " " + scanMillis(simulated) + " " + Utils.getMemoryUsage(simulated) / simulated.numArcs() + " " +
+                            sortedAddMillis + " " + scanMillis(sorted) + " " + Utils.getMemoryUsage(sorted) / sorted.numArcs() + " " +
+                            sorted.getMemoryUsageBytes() / sorted.numArcs();
+                    System.out.println(result);
+                    writer.println(result);
+                    writer.flush();
+                }
+            }
+        }
+        writer.close();
+    }
+
+    public static void main(String[] args) throws FileNotFoundException {
+        new SortedAdjacencyGraphBenchmark().benchmark();
+    }
+}
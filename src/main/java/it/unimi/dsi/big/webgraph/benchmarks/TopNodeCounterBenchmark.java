@@ -0,0 +1,102 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.MutableGraph;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+import it.unimi.dsi.big.webgraph.algo.NodeChanges;
+import it.unimi.dsi.big.webgraph.algo.TopNodeCounter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Measures the time TopNodeCounter takes to count all nodes when it's created, and the time
+ * it takes to update the top nodes with the changes of every bulk of random edges.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class TopNodeCounterBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkTopNodeCounter" + dateString + ".data";
+
+    private final int log2m = 7;
+    private final int h = 3;
+    private final int bulkSize = 10000;
+    private final int nrBulks = 10;
+    private final int[] capacities = {100, 10000, 1000000};
+    private final long seed = 8516942932596937874L;
+
+    /**
+     * Creates a TopNodeCounter for every capacity, updates it with the changes of the same bulks
+     * and saves the times into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        MutableGraph graph = new ImmutableGraphWrapper(BVGraph.loadMapped(graphFile));
+        DANF danf = new DANF(h, log2m, graph, seed);
+        Random rand = new Random(seed);
+
+        NodeChanges[] changes = new NodeChanges[nrBulks];
+        danf.addChangeListener(bulkChanges -> {
+            for (int i = 0; i < nrBulks; i++) {
+                if(changes[i] == null) {
+                    changes[i] = bulkChanges;
+                    return;
+                }
+            }
+        });
+        for (int bulk = 0; bulk < nrBulks; bulk++) {
+            EdgeBatch edges = new EdgeBatch(bulkSize);
+            for (int i = 0; i < bulkSize; i++) {
+                edges.add(nextNode(graph.numNodes(), rand), nextNode(graph.numNodes(), rand));
+            }
+            danf.addEdges(edges);
+        }
+
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; TopNodeCounter initiation and updates with the changes of " +
+                nrBulks + " bulks of " + bulkSize + " random edges; h is set to " + h + " and log2m is " + log2m + ";");
+        writer.println("%capacity initMillis updateMicrosPerBulk changedNodesPerBulk");
+
+        for (int capacity : capacities) {
+            long startTime = System.currentTimeMillis();
+            TopNodeCounter counter = new TopNodeCounter(danf, 0, Double.MAX_VALUE, 0, capacity);
+            long initMillis = System.currentTimeMillis() - startTime;
+
+            long changedNodes = 0;
+            long updateNanos = 0;
+            for (NodeChanges bulkChanges : changes) {
+                long start = System.nanoTime();
+                counter.updateNodeSets(bulkChanges);
+                updateNanos += System.nanoTime() - start;
+                changedNodes += bulkChanges.size();
+            }
+
+            String result = capacity + " " + initMillis + " " + updateNanos / 1000 / nrBulks + " " + changedNodes / nrBulks;
+            System.out.println(result);
+            writer.println(result);
+            writer.flush();
+        }
+
+        danf.close();
+        writer.close();
+    }
+
+    private static long nextNode(long bound, Random rand) {
+        return (rand.nextLong() >>> 1) % bound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new TopNodeCounterBenchmark().benchmark();
+    }
+}
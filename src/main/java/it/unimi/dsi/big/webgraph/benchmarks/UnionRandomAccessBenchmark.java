@@ -0,0 +1,120 @@
+package it.unimi.dsi.big.webgraph.benchmarks;
+
+import it.unimi.dsi.big.webgraph.BVGraph;
+import it.unimi.dsi.big.webgraph.ImmutableGraph;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
+import it.unimi.dsi.big.webgraph.SortedAdjacencyGraph;
+import it.unimi.dsi.big.webgraph.UnionImmutableGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static it.unimi.dsi.big.webgraph.benchmarks.BenchmarkUtils.*;
+
+/**
+ *
+ * Compares reading random nodes of a union of a graph and a growing number of segments of added edges
+ * with reading the same nodes of the graph alone and of the union stored as a BVGraph. The union is read both when it doesn't
+ * know that the segments have no arcs in common and when it does.
+ *
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class UnionRandomAccessBenchmark {
+
+    private final String dateString = getDateString();
+    private final String graphName = "noBlocksUk";
+    private final String graphFile = graphFolder + graphName;
+    private final String dataFile = dataFolder + "benchmarkUnionRandomAccess" + dateString + ".data";
+
+    private final int[] nrSegmentsValues = {1, 2, 4, 8};
+    private final int segmentSize = 10000;
+    private final int nrReads = 1000000;
+    private final int rounds = 3;
+    private final long seed = 3391827465019283L;
+    /* The sum of the successors read, so that the reads can't be left out */
+    private long sum = 0;
+
+    /**
+     * Creates the segments for every number of segments, reads random nodes of the unions and of the
+     * stored union and saves the times into a data file.
+     * @throws IOException
+     */
+    public void benchmark() throws IOException {
+        PrintWriter writer = new PrintWriter(dataFile);
+        writer.println("%" + dateString + " " + graphName + "; segments of " + segmentSize + " random edges that aren't in the graph; " +
+                "the outdegree and the successors of " + nrReads + " random nodes are read; best of " + rounds + " rounds;");
+        writer.println("%nrSegments graphNanosPerNode storedNanosPerNode unionNanosPerNode disjointUnionNanosPerNode");
+
+        ImmutableGraph graph = BVGraph.loadMapped(graphFile);
+        long numNodes = graph.numNodes();
+        File tempDir = Files.createTempDirectory("unionRandomAccess").toFile();
+        String storedFile = tempDir.getAbsolutePath() + "/union";
+
+        for (int nrSegments : nrSegmentsValues) {
+            Random rand = new Random(seed);
+            SortedAdjacencyGraph addedEdges = new SortedAdjacencyGraph();
+            ImmutableGraph[] graphs = new ImmutableGraph[nrSegments + 1];
+            graphs[0] = graph;
+            for (int i = 1; i <= nrSegments; i++) {
+                SortedAdjacencyGraph segment = new SortedAdjacencyGraph();
+                while(segment.numArcs() < segmentSize) {
+                    long from = (rand.nextLong() >>> 1) % numNodes, to = (rand.nextLong() >>> 1) % numNodes;
+                    if(!hasArc(graph, from, to) && addedEdges.addEdge(from, to))
+                        segment.addEdge(from, to);
+                }
+                graphs[i] = segment;
+            }
+
+            BVGraph.store(new UnionImmutableGraph(true, graphs), storedFile, 0, 0, -1, -1, 0);
+            ImmutableGraph stored = BVGraph.loadMapped(storedFile);
+
+            String result = nrSegments + " " + readNanos(graph) + " " + readNanos(stored) + " " + readNanos(new UnionImmutableGraph(graphs)) + " " +
+                    readNanos(new UnionImmutableGraph(true, graphs));
+            System.out.println(result + " (" + sum + ")");
+            writer.println(result);
+            writer.flush();
+        }
+        for (String extension : new String[]{".graph", ".properties", ".offsets"}) {
+            new File(storedFile + extension).delete();
+        }
+        tempDir.delete();
+        writer.close();
+    }
+
+    private static boolean hasArc(ImmutableGraph graph, long from, long to) {
+        LazyLongIterator successors = graph.successors(from);
+        for (long degree = graph.outdegree(from); degree > 0; degree--) {
+            if(successors.nextLong() == to)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The least mean time of the rounds to read the outdegree and the successors of a random node
+     */
+    private long readNanos(ImmutableGraph graph) {
+        long numNodes = graph.numNodes();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            Random rand = new Random(seed);
+            long start = System.nanoTime();
+            for (int i = 0; i < nrReads; i++) {
+                long node = (rand.nextLong() >>> 1) % numNodes;
+                LazyLongIterator successors = graph.successors(node);
+                for (long degree = graph.outdegree(node); degree > 0; degree--)
+                    sum += successors.nextLong();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / nrReads);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new UnionRandomAccessBenchmark().benchmark();
+    }
+}
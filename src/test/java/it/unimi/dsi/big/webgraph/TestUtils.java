@@ -4,6 +4,8 @@ import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.LongStream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -115,4 +117,45 @@ public class TestUtils {
         assertTrue(hadException);
     }
 
+    /**
+     * Asserts that {@code actual} has the same nodes and successors as {@code expected}, read both by
+     * random access and by node iterators, also one that starts in the middle of the graph.
+     * @param expected
+     * @param actual
+     */
+    public static void assertSameGraph(ImmutableGraph expected, ImmutableGraph actual) {
+        assertEquals(expected.numNodes(), actual.numNodes());
+        assertEquals(expected.numArcs(), actual.numArcs());
+
+        NodeIterator nodeIt = actual.nodeIterator();
+        for (long node = 0; node < expected.numNodes(); node++) {
+            assertEquals(node, nodeIt.nextLong());
+            assertEquals(expected.outdegree(node), nodeIt.outdegree());
+            assertEquals(expected.outdegree(node), actual.outdegree(node));
+            assertSameSuccessors(expected.successors(node), nodeIt.successors(), expected.outdegree(node));
+            assertSameSuccessors(expected.successors(node), actual.successors(node), expected.outdegree(node));
+        }
+        assertFalse(nodeIt.hasNext());
+
+        long from = expected.numNodes() / 2;
+        nodeIt = actual.nodeIterator(from);
+        for (long node = from; node < expected.numNodes(); node++) {
+            assertEquals(node, nodeIt.nextLong());
+            assertEquals(expected.outdegree(node), nodeIt.outdegree());
+        }
+    }
+
+    /**
+     * Asserts that {@code actual} gives the {@code outdegree} successors of {@code expected} and then ends.
+     * @param expected
+     * @param actual
+     * @param outdegree
+     */
+    public static void assertSameSuccessors(LazyLongIterator expected, LazyLongIterator actual, long outdegree) {
+        for (long d = 0; d < outdegree; d++) {
+            assertEquals(expected.nextLong(), actual.nextLong());
+        }
+        assertEquals(-1, actual.nextLong());
+    }
+
 }
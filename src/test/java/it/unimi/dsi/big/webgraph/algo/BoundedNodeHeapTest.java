@@ -0,0 +1,86 @@
+package it.unimi.dsi.big.webgraph.algo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class BoundedNodeHeapTest {
+
+    /**
+     * Checks that the heap holds the nodes with the highest values when
+     * the values of nodes only increase, as they do when edges are added
+     */
+    @Test
+    public void testKeepsHighestNodes() {
+        Random rand = new Random();
+        for (int iteration = 0; iteration < 50; iteration++) {
+            int capacity = rand.nextInt(20) + 1;
+            BoundedNodeHeap heap = new BoundedNodeHeap(capacity);
+            Map<Long, Double> values = new HashMap<>();
+
+            for (int i = 0; i < 500; i++) {
+                long node = rand.nextInt(50);
+                double value = values.getOrDefault(node, 0.0) + rand.nextInt(5);
+                values.put(node, value);
+                heap.offer(node, value);
+                assertArrayEquals(highestNodes(values, capacity), heap.nodesByValue());
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        BoundedNodeHeap heap = new BoundedNodeHeap(3);
+        assertTrue(heap.offer(1, 5));
+        assertTrue(heap.offer(2, 3));
+        assertTrue(heap.offer(3, 4));
+        assertFalse(heap.offer(4, 2));
+        assertEquals(2, heap.lowestNode());
+
+        assertTrue(heap.offer(2, 6));
+        assertEquals(3, heap.lowestNode());
+        assertArrayEquals(new long[]{2, 1, 3}, heap.nodesByValue());
+
+        assertTrue(heap.offer(1, 1));
+        assertEquals(1, heap.lowestValue(), 0);
+        assertArrayEquals(new long[]{2, 3, 1}, heap.nodesByValue());
+
+        assertTrue(heap.remove(2));
+        assertFalse(heap.remove(2));
+        assertFalse(heap.contains(2));
+        assertTrue(Double.isNaN(heap.value(2)));
+        assertArrayEquals(new long[]{3, 1}, heap.nodesByValue());
+
+        assertTrue(heap.offer(4, 4));
+        assertArrayEquals(new long[]{4, 3, 1}, heap.nodesByValue());
+        assertEquals(3, heap.size());
+    }
+
+    /**
+     * @return The {@code capacity} nodes with the highest values, highest first
+     */
+    private long[] highestNodes(Map<Long, Double> values, int capacity) {
+        Long[] nodes = values.keySet().toArray(new Long[0]);
+        Arrays.sort(nodes, (n1, n2) -> {
+            int compare = Double.compare(values.get(n2), values.get(n1));
+            return compare == 0 ? Long.compare(n2, n1) : compare;
+        });
+        long[] highest = new long[Math.min(capacity, nodes.length)];
+        for (int i = 0; i < highest.length; i++) {
+            highest[i] = nodes[i];
+        }
+        return highest;
+    }
+}
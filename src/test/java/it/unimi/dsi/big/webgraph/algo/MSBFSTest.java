@@ -4,15 +4,19 @@ import it.unimi.dsi.big.webgraph.*;
 import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
 import it.unimi.dsi.fastutil.objects.ObjectBigArrays;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -160,6 +164,159 @@ public class MSBFSTest {
         }
     }
 
+    /**
+     * Performs several searches with the same MSBFS while the number of sources
+     * and the graph changes. Nothing from an earlier search should leak into a later one.
+     */
+    @Test
+    public void testReusedBetweenSearches() throws InterruptedException {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        SimulatedGraph graph = TestUtils.genRandomGraph(maxGraphSize);
+        MSBreadthFirst msbfs = new MSBreadthFirst(graph);
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            long[] bfsSources = rand.longs(rand.nextInt(200) + 1, 0, graph.numNodes()).toArray();
+            checkValidSeen(bfsSources, msbfs.breadthFirstSearch(bfsSources), graph);
+
+            graph.addEdges(TestUtils.generateEdges((int)graph.numNodes() + 10, 10));
+        }
+        msbfs.close();
+    }
+
+    /**
+     * Tests MSBFS with bottom-up levels on random simulated graphs and on a real graph.
+     */
+    @Test
+    public void testBottomUp() throws IOException, InterruptedException {
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            int numNodes = new Random().nextInt(maxGraphSize - 1) + 1; /* Make sure numNodes always positive */
+            SimulatedGraph graph = TestUtils.genRandomGraph(numNodes);
+            testGraphBottomUp(graph);
+        }
+
+        testGraphBottomUp(new ImmutableGraphWrapper(BVGraph.load("testGraphs/noBlocksUk")));
+    }
+
+    private void testGraphBottomUp(MutableGraph graph) throws InterruptedException {
+        long[] bfsSources = generateSources(graph.numNodes());
+        MSBreadthFirst msbfs = new MSBreadthFirst(graph, graph.transpose());
+        BitSet[][] seen = msbfs.breadthFirstSearch(bfsSources);
+        msbfs.close();
+        checkValidSeen(bfsSources, seen, graph);
+    }
+
+    /**
+     * Tests MSBFS on graphs where a few nodes have edges and the rest are isolated,
+     * which makes every level of the search sparse.
+     */
+    @Test
+    public void testSparseFrontiers() throws InterruptedException {
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            SimulatedGraph graph = new SimulatedGraph();
+            graph.addNode(100 * maxGraphSize);
+            graph.addEdges(TestUtils.generateEdges(maxGraphSize, 2 * maxGraphSize));
+
+            long[] bfsSources = ThreadLocalRandom.current().longs(10, 0, maxGraphSize).toArray();
+            MSBreadthFirst msbfs = new MSBreadthFirst(graph);
+            checkValidSeen(bfsSources, msbfs.breadthFirstSearch(bfsSources), graph);
+            msbfs.close();
+        }
+    }
+
+    /**
+     * Tests MSBFS on graphs where a few hubs hold most of the edges, so that
+     * the chunks of the threads have very different numbers of nodes.
+     */
+    @Test
+    public void testHubGraph() throws InterruptedException {
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            SimulatedGraph graph = new SimulatedGraph();
+            graph.addNode(10 * maxGraphSize);
+            for (long hub = 0; hub < 3; hub++) {
+                for (long node = 0; node < graph.numNodes(); node += 1 + hub) {
+                    graph.addEdge(new Edge(hub, node));
+                }
+            }
+            graph.addEdges(TestUtils.generateEdges((int) graph.numNodes(), maxGraphSize));
+
+            long[] bfsSources = generateSources(graph.numNodes());
+            MSBreadthFirst msbfs = new MSBreadthFirst(graph, graph.transpose(), 1 + iteration % 8);
+            checkValidSeen(bfsSources, msbfs.breadthFirstSearch(bfsSources), graph);
+            msbfs.close();
+        }
+    }
+
+    /**
+     * Runs searches at the same time on an executor with a single thread. Every search splits
+     * its phases into more tasks than the executor has threads, and must still finish correctly.
+     */
+    @Test
+    public void testSharedExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] searchers = new Thread[4];
+        for (int i = 0; i < searchers.length; i++) {
+            searchers[i] = new Thread(() -> {
+                try {
+                    for (int iteration = 0; iteration < maxIterations / 5; iteration++) {
+                        SimulatedGraph graph = TestUtils.genRandomGraph(maxGraphSize);
+                        long[] bfsSources = generateSources(graph.numNodes());
+                        MSBreadthFirst msbfs = new MSBreadthFirst(graph, graph.transpose(), executor, 4);
+                        checkValidSeen(bfsSources, msbfs.breadthFirstSearch(bfsSources), graph);
+                        msbfs.close();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            searchers[i].start();
+        }
+        for (Thread searcher : searchers) {
+            searcher.join();
+        }
+        assertFalse("The executor should not be shut down by the searches", executor.isShutdown());
+        executor.shutdown();
+        assertNull(failure.get());
+    }
+
+    /**
+     * Tests MSBFS on virtual threads, if the JVM has them.
+     */
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        ExecutorService executor;
+        try {
+            executor = MSBreadthFirst.newVirtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        SimulatedGraph graph = TestUtils.genRandomGraph(maxGraphSize);
+        long[] bfsSources = generateSources(graph.numNodes());
+        MSBreadthFirst msbfs = new MSBreadthFirst(graph, graph.transpose(), executor, 8);
+        checkValidSeen(bfsSources, msbfs.breadthFirstSearch(bfsSources), graph);
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that an exception thrown by a visitor ends the search and is thrown by it.
+     */
+    @Test
+    public void testVisitorExceptionThrown() throws InterruptedException {
+        SimulatedGraph graph = TestUtils.genRandomGraph(maxGraphSize);
+        MSBreadthFirst msbfs = new MSBreadthFirst(graph);
+        try {
+            msbfs.breadthFirstSearch(generateSources(graph.numNodes()), (node, bfsVisits, seen, depth, traveler) -> {
+                throw new IllegalStateException("Visitor failed");
+            });
+            fail("The exception of the visitor should be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("Visitor failed", e.getMessage());
+        } finally {
+            msbfs.close();
+        }
+    }
+
     /**
      * Loads a real graph file without blocks and tests MSBFS on it.
      */
@@ -94,6 +94,30 @@ public class TopNodeCounterTest {
         danf.close();
     }
 
+    /**
+     * Tests that a node that only changes by the propagation is found when the
+     * counter listens to the changes of DANF
+     */
+    @Test
+    public void testChangeListenerFindsPropagatedChanges() throws InterruptedException {
+        SimulatedGraph graph = new SimulatedGraph();
+        graph.addEdges(new Edge(0, 1));
+
+        DANF danf = new DANF(h, log2m, graph, seed);
+        TopNodeCounter topNodeCounter = new TopNodeCounter(danf, updateIntervalms, percentageChange, minNodeCount, counterCapacity);
+        danf.addChangeListener(topNodeCounter::updateNodeSets);
+
+        HashSet<Long> changedNodes = new HashSet<>();
+        topNodeCounter.setRapidChangeCallback(set -> set.forEach(pair -> changedNodes.add(pair.getValue())));
+
+        danf.addEdges(new Edge(1, 2));
+        assertTrue(changedNodes.contains(0L));
+        assertTrue(changedNodes.contains(1L));
+        assertEquals(danf.count(0, h), topNodeCounter.getNodesSortedByValue().first().getKey(), 0);
+
+        danf.close();
+    }
+
     @Test
     /**
      * Tests that all nodes that should be in the sorted node/value list are in it.
@@ -0,0 +1,76 @@
+package it.unimi.dsi.big.webgraph.graph;
+
+import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.SimulatedGraph;
+import it.unimi.dsi.big.webgraph.TestUtils;
+import it.unimi.dsi.big.webgraph.TraverseGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class EdgeBatchTest {
+
+    @Test
+    public void testSortFlipAndDedup() {
+        EdgeBatch batch = EdgeBatch.of(new Edge(3, 1), new Edge(1, 2), new Edge(3, 0), new Edge(1, 2), new Edge(0, 5));
+
+        batch.sort();
+        assertArrayEquals(new Edge[]{new Edge(0, 5), new Edge(1, 2), new Edge(1, 2), new Edge(3, 0), new Edge(3, 1)}, batch.toEdges());
+
+        assertEquals(1, batch.dedup());
+        assertArrayEquals(new Edge[]{new Edge(0, 5), new Edge(1, 2), new Edge(3, 0), new Edge(3, 1)}, batch.toEdges());
+
+        batch.flip();
+        assertArrayEquals(new Edge[]{new Edge(5, 0), new Edge(2, 1), new Edge(0, 3), new Edge(1, 3)}, batch.toEdges());
+        assertEquals(5, batch.maxNode());
+    }
+
+    @Test
+    public void testSortByKeys() {
+        EdgeBatch batch = new EdgeBatch(1);
+        batch.add(0, 1);
+        batch.add(2, 3);
+        batch.add(4, 5);
+
+        batch.sort(new double[]{3.0, 1.0, 2.0});
+        assertArrayEquals(new Edge[]{new Edge(2, 3), new Edge(4, 5), new Edge(0, 1)}, batch.toEdges());
+
+        batch.add(1, 0);
+        long[] keys = {7, 3, 7, 3};
+        batch.sort(keys);
+        assertArrayEquals(new Edge[]{new Edge(1, 0), new Edge(4, 5), new Edge(0, 1), new Edge(2, 3)}, batch.toEdges());
+        assertArrayEquals(new long[]{3, 3, 7, 7}, keys);
+    }
+
+    /**
+     * Checks that graphs get the same edges from a batch as from the edge objects
+     */
+    @Test
+    public void testGraphsAddBatch() {
+        for (int iteration = 0; iteration < 20; iteration++) {
+            Edge[] edges = TestUtils.generateEdges(100, 300);
+
+            SimulatedGraph expected = new SimulatedGraph();
+            expected.addEdges(edges);
+
+            SimulatedGraph simulated = new SimulatedGraph();
+            simulated.addEdges(EdgeBatch.of(edges));
+            assertEquals(expected, simulated);
+
+            Edge[] addedEdges = TestUtils.generateEdges(100, 50);
+            TraverseGraph traverse = new TraverseGraph(EdgeBatch.of(edges));
+            traverse.addEdges(EdgeBatch.of(addedEdges));
+            SimulatedGraph traverseExpected = new SimulatedGraph();
+            traverseExpected.addEdges(edges);
+            traverseExpected.addEdges(addedEdges);
+            assertEquals(traverseExpected, traverse);
+            assertEquals(traverseExpected.transpose(), traverse.transpose());
+        }
+    }
+}
@@ -3,7 +3,12 @@ package it.unimi.dsi.big.webgraph.graph;
 import com.google.common.collect.Lists;
 import it.unimi.dsi.big.webgraph.BVGraph;
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.ImmutableGraph;
 import it.unimi.dsi.big.webgraph.ImmutableGraphWrapper;
+import it.unimi.dsi.big.webgraph.LazyLongIterator;
+import it.unimi.dsi.big.webgraph.NodeIterator;
+import it.unimi.dsi.big.webgraph.SimulatedGraph;
 import it.unimi.dsi.big.webgraph.TestUtils;
 import org.junit.Test;
 
@@ -11,6 +16,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -106,6 +112,298 @@ public class ImmutableGraphWrapperTest {
 
     }
 
+    /**
+     * Tests that the graph has all edges while it's stored in the background after every bulk,
+     * and after the stored graph has replaced the union
+     * @throws IOException
+     */
+    @Test
+    public void testBackgroundCompactionKeepsEdges() throws IOException {
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped("testGraphs/SameAsSimulated"), 0.0f);
+        SimulatedGraph expected = new SimulatedGraph();
+        graph.iterateAllEdges(edge -> {
+            expected.addEdge(edge);
+            return null;
+        });
+        expected.addNode(graph.numNodes() - 1);
+
+        for (int i = 0; i < 30; i++) {
+            EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+            expected.addEdges(edges);
+            graph.addEdges(edges);
+            assertEquals(expected, graph);
+        }
+        graph.compact();
+        assertFalse(graph.isCompacting());
+        assertEquals(expected, graph);
+        assertTrue(graph.getNumCompactions() > 1);
+        assertTrue(graph.getCompactionBytesWritten() > 0);
+        graph.close();
+    }
+
+    /**
+     * Tests that single edges and bulks of edges added in turns are all kept, also while the graph
+     * is stored, and that only the edges that didn't exist are reported as added
+     * @throws IOException
+     */
+    @Test
+    public void testSingleEdgesAndBulks() throws IOException {
+        for (float threshold : new float[]{0.0f, ImmutableGraphWrapper.DEFAULT_UNION_VS_GRAPH_MEMORY_RATIO_THRESHOLD}) {
+            ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped("testGraphs/SameAsSimulated"), threshold);
+            SimulatedGraph expected = new SimulatedGraph();
+            graph.iterateAllEdges(edge -> {
+                expected.addEdge(edge);
+                return null;
+            });
+            expected.addNode(graph.numNodes() - 1);
+
+            for (int i = 0; i < 20; i++) {
+                for (Edge edge : TestUtils.generateEdges(60, 50)) {
+                    assertEquals(expected.addEdge(edge), graph.addEdge(edge));
+                }
+                EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(60, 20));
+                expected.addEdges(edges);
+                graph.addEdges(edges);
+                assertEquals(expected, graph);
+            }
+            graph.awaitCompaction();
+            assertEquals(expected, graph);
+            graph.close();
+        }
+    }
+
+    /**
+     * Tests that batches added without being checked against the graph, which may repeat its edges,
+     * keep the graph right, and that the number of arcs is an upper bound until the graph is stored
+     * @throws IOException
+     */
+    @Test
+    public void testUncheckedBatches() throws IOException {
+        for (float threshold : new float[]{0.0f, ImmutableGraphWrapper.DEFAULT_UNION_VS_GRAPH_MEMORY_RATIO_THRESHOLD}) {
+            ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped("testGraphs/SameAsSimulated"), threshold)
+                    .withMaxCheckedBatchSize(10);
+            SimulatedGraph expected = new SimulatedGraph();
+            graph.iterateAllEdges(edge -> {
+                expected.addEdge(edge);
+                return null;
+            });
+            expected.addNode(graph.numNodes() - 1);
+            Edge[] existing = expected.getAllEdges();
+
+            for (int i = 0; i < 20; i++) {
+                EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(60, 30));
+                for (int j = 0; j < 10; j++) {
+                    Edge edge = existing[(i * 10 + j) % existing.length];
+                    edges.add(edge.from, edge.to);
+                }
+                expected.addEdges(edges);
+                graph.addEdges(edges);
+                edges = EdgeBatch.of(TestUtils.generateEdges(60, 5));
+                expected.addEdges(edges);
+                graph.addEdges(edges);
+                /* The graph isn't equal to the expected one as its number of arcs is an upper bound, but its edges are */
+                assertEquals(expected, edgesOf(graph));
+                assertTrue(graph.numArcs() >= expected.numArcs());
+            }
+            graph.compact();
+            assertEquals(expected, graph);
+            assertEquals(expected.numArcs(), graph.numArcs());
+            graph.close();
+        }
+    }
+
+    @Test
+    public void testBlockingCompaction() throws IOException {
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped("testGraphs/SameAsSimulated"), 0.0f)
+                .withBackgroundCompaction(false);
+        for (int i = 0; i < 5; i++) {
+            graph.addEdges(TestUtils.generateEdges(100, 20));
+            assertFalse(graph.isCompacting());
+            assertEquals(i + 1, graph.getNumCompactions());
+        }
+        graph.close();
+    }
+
+    /**
+     * Tests that compacting while another thread adds edges, which starts storing the graph in the
+     * background as soon as the previous storing is done, doesn't lose the edges being stored
+     * @throws Exception
+     */
+    @Test
+    public void testCompactWhileAddingEdges() throws Exception {
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(BVGraph.loadMapped("testGraphs/SameAsSimulated"), 0.0f);
+        SimulatedGraph expected = new SimulatedGraph();
+        graph.iterateAllEdges(edge -> {
+            expected.addEdge(edge);
+            return null;
+        });
+        expected.addNode(graph.numNodes() - 1);
+
+        for (int i = 0; i < 20; i++) {
+            EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+            expected.addEdges(edges);
+            graph.addEdges(edges);
+            Thread compactor = new Thread(graph::compact);
+            compactor.start();
+            /* Starts the next storing as soon as the storing the compactor waits for is done */
+            assertTrue(graph.awaitCompaction(10, TimeUnit.SECONDS));
+            edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+            expected.addEdges(edges);
+            graph.addEdges(edges);
+            compactor.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(compactor.isAlive());
+        }
+        graph.compact();
+        assertEquals(expected, graph);
+        graph.close();
+    }
+
+    /**
+     * Tests that a failed storing keeps the edges, is thrown once, and that the graph is stored
+     * again when more edges are added
+     * @throws IOException
+     */
+    @Test
+    public void testCompactionFailureIsThrownOnceAndRetried() throws IOException {
+        FailingCopiesGraph original = new FailingCopiesGraph(BVGraph.loadMapped("testGraphs/SameAsSimulated"));
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(original, 0.0f);
+        SimulatedGraph expected = new SimulatedGraph();
+        graph.iterateAllEdges(edge -> {
+            expected.addEdge(edge);
+            return null;
+        });
+        expected.addNode(graph.numNodes() - 1);
+
+        EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+        expected.addEdges(edges);
+        graph.addEdges(edges);
+        TestUtils.assertGivesException(graph::awaitCompaction);
+        graph.awaitCompaction();
+        assertEquals(0, graph.getNumCompactions());
+        assertEquals(expected, graph);
+
+        original.failCopies = false;
+        edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+        expected.addEdges(edges);
+        graph.addEdges(edges);
+        graph.awaitCompaction();
+        assertEquals(1, graph.getNumCompactions());
+        assertEquals(expected, graph);
+        graph.close();
+    }
+
+    /**
+     * Tests that edges added after a storing has failed, before the failure has been thrown, are added
+     * and that the failure is still thrown when waiting for the storing
+     * @throws Exception
+     */
+    @Test
+    public void testEdgesAddedAfterFailedCompaction() throws Exception {
+        ImmutableGraphWrapper graph = new ImmutableGraphWrapper(new FailingCopiesGraph(BVGraph.loadMapped("testGraphs/SameAsSimulated")), 0.0f);
+        SimulatedGraph expected = new SimulatedGraph();
+        graph.iterateAllEdges(edge -> {
+            expected.addEdge(edge);
+            return null;
+        });
+        expected.addNode(graph.numNodes() - 1);
+
+        EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+        expected.addEdges(edges);
+        graph.addEdges(edges);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (graph.isCompacting()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+
+        edges = EdgeBatch.of(TestUtils.generateEdges(100, 20));
+        expected.addEdges(edges);
+        graph.addEdges(edges);
+        Edge edge = TestUtils.generateEdge(100, 200, 0, 100);
+        assertEquals(expected.addEdge(edge), graph.addEdge(edge));
+        assertEquals(expected, graph);
+
+        TestUtils.assertGivesException(graph::awaitCompaction);
+        graph.awaitCompaction();
+        assertEquals(expected, graph);
+        graph.close();
+    }
+
+    /**
+     * A graph whose copies can't be read, which makes storing the union of it fail
+     */
+    private static class FailingCopiesGraph extends ImmutableGraph {
+
+        private final ImmutableGraph graph;
+        private final boolean copy;
+        private volatile boolean failCopies = true;
+
+        FailingCopiesGraph(ImmutableGraph graph) {
+            this(graph, false);
+        }
+
+        private FailingCopiesGraph(ImmutableGraph graph, boolean copy) {
+            this.graph = graph;
+            this.copy = copy;
+        }
+
+        private void throwIfFailing() {
+            if(copy)
+                throw new IllegalStateException("The copy can't be read");
+        }
+
+        @Override
+        public long numNodes() {
+            return graph.numNodes();
+        }
+
+        @Override
+        public long numArcs() {
+            return graph.numArcs();
+        }
+
+        @Override
+        public boolean randomAccess() {
+            return true;
+        }
+
+        @Override
+        public long outdegree(long node) {
+            throwIfFailing();
+            return graph.outdegree(node);
+        }
+
+        @Override
+        public LazyLongIterator successors(long node) {
+            throwIfFailing();
+            return graph.successors(node);
+        }
+
+        @Override
+        public NodeIterator nodeIterator(long from) {
+            throwIfFailing();
+            return graph.nodeIterator(from);
+        }
+
+        @Override
+        public ImmutableGraph copy() {
+            return new FailingCopiesGraph(graph.copy(), failCopies);
+        }
+    }
+
+    /**
+     * @return A graph with the nodes and the edges of {@code graph}
+     */
+    private static SimulatedGraph edgesOf(ImmutableGraphWrapper graph) {
+        SimulatedGraph edges = new SimulatedGraph();
+        graph.iterateAllEdges(edge -> {
+            edges.addEdge(edge);
+            return null;
+        });
+        edges.addNode(graph.numNodes() - 1);
+        return edges;
+    }
+
     private void removeEdgesAppearingInGraph(ArrayList<Edge> edgesBefore, ArrayList<Edge> newEdges, ImmutableGraphWrapper graph) {
         graph.iterateAllEdges(e ->{
             assertTrue(newEdges.contains(e) || edgesBefore.contains(e));
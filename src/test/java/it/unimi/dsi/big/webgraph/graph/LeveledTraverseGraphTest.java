@@ -0,0 +1,95 @@
+package it.unimi.dsi.big.webgraph.graph;
+
+import it.unimi.dsi.big.webgraph.*;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class LeveledTraverseGraphTest {
+
+    private static final int maxNumNodes = 200;
+
+    /**
+     * Tests that the graph has the same edges as a SimulatedGraph after every bulk, with the
+     * levels merged by the thread adding the edges
+     */
+    @Test
+    public void testSameEdgesAsSimulated() {
+        testSameEdgesAsSimulated(false);
+    }
+
+    /**
+     * Tests that the graph has the same edges as a SimulatedGraph after every bulk while the
+     * levels are merged in the background
+     */
+    @Test
+    public void testSameEdgesAsSimulatedWithBackgroundMerging() {
+        testSameEdgesAsSimulated(true);
+    }
+
+    /**
+     * Tests that the levels grow by the growth factor, so that there are logarithmically many
+     * and every arc is rewritten a bounded number of times
+     */
+    @Test
+    public void testLevelsAreBounded() {
+        int growthFactor = 4;
+        int bulkSize = 50;
+        LeveledTraverseGraph graph = new LeveledTraverseGraph().withGrowthFactor(growthFactor).withBackgroundMerging(false);
+        Random rand = new Random();
+        for (int bulk = 0; bulk < 500; bulk++) {
+            EdgeBatch edges = new EdgeBatch(bulkSize);
+            for (int i = 0; i < bulkSize; i++) {
+                edges.add(rand.nextInt(1000000), rand.nextInt(1000000));
+            }
+            graph.addEdges(edges);
+
+            double maxLevels = Math.log(graph.numArcs()) / Math.log(growthFactor) + 1;
+            assertTrue(graph.numLevels() + " levels for " + graph.numArcs() + " arcs", graph.numLevels() <= maxLevels);
+        }
+        double maxAmplification = 1 + (growthFactor + 1) * (Math.log(graph.numArcs()) / Math.log(growthFactor) + 1);
+        assertTrue("Write amplification " + graph.getWriteAmplification(), graph.getWriteAmplification() <= maxAmplification);
+    }
+
+    @Test
+    public void testAddExistingEdges() {
+        LeveledTraverseGraph graph = new LeveledTraverseGraph().withBackgroundMerging(false);
+        assertTrue(graph.addEdges(new Edge(0, 1), new Edge(2, 1)));
+        assertTrue(graph.addEdges(new Edge(0, 2)));
+        assertFalse(graph.addEdges(new Edge(0, 1), new Edge(1, 0)));
+        assertFalse(graph.addEdge(new Edge(1, 0)));
+        assertEquals(4, graph.numArcs());
+        assertEquals(2, graph.outdegree(0));
+        assertEquals(3, graph.numNodes());
+    }
+
+    private void testSameEdgesAsSimulated(boolean backgroundMerging) {
+        Random rand = new Random();
+        for (int iteration = 0; iteration < 20; iteration++) {
+            SimulatedGraph simulated = new SimulatedGraph();
+            LeveledTraverseGraph leveled = new LeveledTraverseGraph()
+                    .withGrowthFactor(rand.nextInt(3) + 2)
+                    .withBackgroundMerging(backgroundMerging);
+            int numNodes = rand.nextInt(maxNumNodes) + 1;
+
+            for (int bulk = 0; bulk < 30; bulk++) {
+                EdgeBatch edges = EdgeBatch.of(TestUtils.generateEdges(numNodes, rand.nextInt(50) + 1));
+                simulated.addEdges(edges);
+                leveled.addEdges(edges);
+
+                TestUtils.assertSameGraph(simulated, leveled);
+                TestUtils.assertSameGraph(simulated.transpose(), leveled.transpose());
+            }
+            leveled.mergeLevels();
+            TestUtils.assertSameGraph(simulated, leveled);
+        }
+    }
+}
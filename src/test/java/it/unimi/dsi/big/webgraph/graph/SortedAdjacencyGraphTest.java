@@ -0,0 +1,87 @@
+package it.unimi.dsi.big.webgraph.graph;
+
+import it.unimi.dsi.big.webgraph.*;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class SortedAdjacencyGraphTest {
+
+    /**
+     * Tests that the graph has the same sorted successors as a SimulatedGraph while edges are
+     * added and deleted in random order, so that the successors are both in the sorted part
+     * and in the tail
+     */
+    @Test
+    public void testSameEdgesAsSimulated() {
+        Random rand = new Random();
+        for (int iteration = 0; iteration < 20; iteration++) {
+            SimulatedGraph simulated = new SimulatedGraph();
+            SortedAdjacencyGraph sorted = new SortedAdjacencyGraph();
+            int numNodes = rand.nextInt(100) + 1;
+            /* Few sources give long lists of successors that are merged with their tails */
+            int numSources = rand.nextInt(numNodes) + 1;
+
+            for (int bulk = 0; bulk < 20; bulk++) {
+                for (int i = 0; i < 200; i++) {
+                    Edge edge = new Edge(rand.nextInt(numSources), rand.nextInt(numNodes));
+                    if(rand.nextInt(4) == 0)
+                        assertEquals(simulated.deleteEdge(edge), sorted.deleteEdge(edge));
+                    else
+                        assertEquals(simulated.addEdge(edge), sorted.addEdge(edge));
+                }
+                TestUtils.assertSameGraph(simulated, sorted);
+                TestUtils.assertSameGraph(simulated.transpose(), sorted.transpose());
+            }
+        }
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        SortedAdjacencyGraph graph = new SortedAdjacencyGraph();
+        graph.addEdges(new Edge(0, 2), new Edge(0, 1));
+        MutableGraph copy = graph.copy();
+
+        assertTrue(graph.addEdge(new Edge(0, 3)));
+        assertTrue(graph.deleteEdge(new Edge(0, 2)));
+        assertFalse(graph.deleteEdge(new Edge(3, 0)));
+
+        assertEquals(2, copy.outdegree(0));
+        assertEquals(2, copy.numArcs());
+        LazyLongIterator successors = copy.successors(0);
+        assertEquals(1, successors.nextLong());
+        assertEquals(2, successors.nextLong());
+        assertEquals(-1, successors.nextLong());
+        assertEquals(3, copy.numNodes());
+        assertEquals(4, graph.numNodes());
+    }
+
+    /**
+     * Tests node ids beyond 2^31, where only the nodes with arcs may take memory
+     */
+    @Test
+    public void testNodesBeyondIntRange() {
+        final long offset = 3L << 31;
+        SortedAdjacencyGraph graph = new SortedAdjacencyGraph();
+        graph.addEdges(new Edge(offset + 5, offset), new Edge(offset + 5, 1), new Edge(2, offset + 5));
+
+        assertEquals(offset + 6, graph.numNodes());
+        NodeIterator nodeIt = graph.nodeIterator(offset + 4);
+        assertEquals(offset + 4, nodeIt.nextLong());
+        assertEquals(0, nodeIt.outdegree());
+        assertEquals(offset + 5, nodeIt.nextLong());
+        assertEquals(2, nodeIt.outdegree());
+        LazyLongIterator successors = nodeIt.successors();
+        assertEquals(1, successors.nextLong());
+        assertEquals(offset, successors.nextLong());
+        assertFalse(nodeIt.hasNext());
+    }
+}
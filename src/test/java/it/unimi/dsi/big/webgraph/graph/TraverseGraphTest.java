@@ -50,6 +50,54 @@ public class TraverseGraphTest {
 
     }
 
+    /**
+     * Tests graphs with node ids beyond 2^31, where only the nodes with arcs may take memory
+     * and only the arcs may take time to pass.
+     */
+    @Test
+    public void testNodesBeyondIntRange() {
+        final long offset = 3L << 31;
+
+        for (int iteration = 0; iteration < 10; iteration++) {
+            SimulatedGraph simulated = new SimulatedGraph();
+            TraverseGraph traverse = new TraverseGraph();
+            for (int bulk = 0; bulk < 3; bulk++) {
+                EdgeBatch edges = new EdgeBatch(1);
+                for (Edge edge : TestUtils.generateEdges(50, 100)) {
+                    edges.add(edge.from + offset, edge.to + offset);
+                }
+                edges.add(bulk, offset + bulk);
+                simulated.addEdges(edges);
+                traverse.addEdges(edges);
+            }
+
+            assertEquals(simulated.numNodes(), traverse.numNodes());
+            assertEquals(simulated.numArcs(), traverse.numArcs());
+            MutableGraph simulatedTranspose = simulated.transpose();
+            MutableGraph traverseTranspose = traverse.transpose();
+            assertEquals(simulated.numArcs(), traverseTranspose.numArcs());
+
+            for (long node = offset; node < offset + 50; node++) {
+                assertEquals(simulated.outdegree(node), traverse.outdegree(node));
+                TestUtils.assertSameSuccessors(simulated.successors(node), traverse.successors(node), simulated.outdegree(node));
+                assertEquals(simulatedTranspose.outdegree(node), traverseTranspose.outdegree(node));
+                TestUtils.assertSameSuccessors(simulatedTranspose.successors(node), traverseTranspose.successors(node), simulatedTranspose.outdegree(node));
+            }
+            for (long node = 0; node < 3; node++) {
+                assertEquals(simulated.outdegree(node), traverse.outdegree(node));
+                TestUtils.assertSameSuccessors(simulated.successors(node), traverse.successors(node), simulated.outdegree(node));
+                assertEquals(simulatedTranspose.outdegree(node), traverseTranspose.outdegree(node));
+                TestUtils.assertSameSuccessors(simulatedTranspose.successors(node), traverseTranspose.successors(node), simulatedTranspose.outdegree(node));
+            }
+
+            NodeIterator nodeIt = traverse.nodeIterator(offset + 10);
+            for (long node = offset + 10; node < offset + 50; node++) {
+                assertEquals(node, nodeIt.nextLong());
+                assertEquals(simulated.outdegree(node), nodeIt.outdegree());
+            }
+        }
+    }
+
     private void removeEdgesAppearingInGraph(ArrayList<Edge> edgesBefore, ArrayList<Edge> newEdges) {
         NodeIterator it = graph.nodeIterator();
         while (it.hasNext()){
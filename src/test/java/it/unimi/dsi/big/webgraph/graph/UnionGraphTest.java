@@ -1,10 +1,12 @@
 package it.unimi.dsi.big.webgraph.graph;
 
 import it.unimi.dsi.big.webgraph.*;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
 import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -35,4 +37,67 @@ public class UnionGraphTest {
 
         assertTrue(currentNrArcs > numArcsAtStart);
     }
+
+    /**
+     * Tests that a union of several graphs sharing arcs has every arc once, both when it's read by
+     * node and by a node iterator.
+     */
+    @Test
+    public void testKWayUnion() {
+        SimulatedGraph expected = new SimulatedGraph();
+        ImmutableGraph[] graphs = new ImmutableGraph[5];
+        for (int i = 0; i < graphs.length; i++) {
+            SimulatedGraph graph = new SimulatedGraph();
+            for (Edge edge : TestUtils.generateEdges(40 + 20 * i, 300)) {
+                graph.addEdge(edge);
+                expected.addEdge(edge);
+            }
+            graphs[i] = graph;
+        }
+        expected.addNode(graphs[graphs.length - 1].numNodes() - 1);
+        UnionImmutableGraph union = new UnionImmutableGraph(graphs);
+
+        assertEquals(union, expected);
+        assertUnionReadByNode(expected, union);
+    }
+
+    /**
+     * Tests that a union of graphs without arcs in common knows its outdegrees and number of arcs
+     * without merging the successors.
+     */
+    @Test
+    public void testDisjointUnion() {
+        SimulatedGraph expected = new SimulatedGraph();
+        SortedAdjacencyGraph[] graphs = new SortedAdjacencyGraph[3];
+        for (int i = 0; i < graphs.length; i++) {
+            graphs[i] = new SortedAdjacencyGraph();
+        }
+        int i = 0;
+        for (Edge edge : TestUtils.generateEdges(100, 1000)) {
+            if(expected.addEdge(edge))
+                graphs[i++ % graphs.length].addEdge(edge);
+        }
+        UnionImmutableGraph union = new UnionImmutableGraph(true, graphs);
+
+        assertEquals(expected.numArcs(), union.numArcs());
+        assertEquals(union, expected);
+        assertUnionReadByNode(expected, union);
+    }
+
+    private static void assertUnionReadByNode(SimulatedGraph expected, UnionImmutableGraph union) {
+        for (long node = 0; node < expected.numNodes(); node++) {
+            long outdegree = expected.outdegree(node);
+            assertEquals(outdegree, union.outdegree(node));
+
+            LazyLongIterator expectedSuccessors = expected.successors(node);
+            LazyLongIterator successors = union.successors(node);
+            long[][] successorArray = union.successorBigArray(node);
+            for (long i = 0; i < outdegree; i++) {
+                long successor = expectedSuccessors.nextLong();
+                assertEquals(successor, successors.nextLong());
+                assertEquals(successor, LongBigArrays.get(successorArray, i));
+            }
+            assertEquals(-1, successors.nextLong());
+        }
+    }
 }
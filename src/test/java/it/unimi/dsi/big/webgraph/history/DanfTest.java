@@ -1,12 +1,26 @@
 package it.unimi.dsi.big.webgraph.history;
 
 import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.MutableGraph;
 import it.unimi.dsi.big.webgraph.SimulatedGraph;
 import it.unimi.dsi.big.webgraph.TestUtils;
 import it.unimi.dsi.big.webgraph.algo.DANF;
+import it.unimi.dsi.big.webgraph.algo.NodeChanges;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
@@ -84,4 +98,330 @@ public class DanfTest {
         danf.close();
     }
 
+
+    /**
+     * Tests that a restored checkpoint gives the same counts as the instance it was made of,
+     * both right away and after the same edges have been added to both.
+     */
+    @Test
+    public void testCheckpointRestore() throws InterruptedException, IOException {
+        final int log2m = 6;
+        final int h = 3;
+        File directory = Files.createTempDirectory("danfCheckpoint").toFile();
+        String path = new File(directory, "checkpoint").getPath();
+
+        for (int iteration = 0; iteration < maxIterations / 10; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            DANF danf = new DANF(h, log2m, graph);
+            danf.addEdges(TestUtils.generateEdges(60, 20));
+
+            danf.checkpoint(path);
+            MutableGraph restoredGraph = graph.copy();
+            DANF restored = DANF.restore(path, restoredGraph, restoredGraph.transpose());
+            assertSameCounts(danf, restored);
+
+            Edge[] edges = TestUtils.generateEdges(70, 20);
+            danf.addEdges(edges);
+            restored.addEdges(edges);
+            assertSameCounts(danf, restored);
+
+            danf.close();
+            restored.close();
+        }
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testOffHeapHistory() throws InterruptedException, IOException {
+        final int log2m = 6;
+        final int h = 3;
+        File directory = Files.createTempDirectory("danfOffHeap").toFile();
+        String path = new File(directory, "checkpoint").getPath();
+
+        for (int iteration = 0; iteration < maxIterations / 10; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            MutableGraph offHeapGraph = graph.copy();
+            DANF danf = new DANF(h, log2m, graph, seed);
+            DANF offHeap = new DANF(h, log2m, offHeapGraph, seed)
+                    .withOffHeapHistory(1, null)
+                    .withOffHeapHistory(h, new File(directory, "level" + h).getPath());
+            assertSameCounts(danf, offHeap);
+
+            Edge[] edges = TestUtils.generateEdges(60, 20);
+            danf.addEdges(edges);
+            offHeap.addEdges(edges);
+            assertSameCounts(danf, offHeap);
+
+            offHeap.checkpoint(path);
+            MutableGraph restoredGraph = graph.copy();
+            DANF restored = DANF.restore(path, restoredGraph, restoredGraph.transpose(), 2, h);
+            assertSameCounts(danf, restored);
+
+            edges = TestUtils.generateEdges(70, 20);
+            danf.addEdges(edges);
+            restored.addEdges(edges);
+            assertSameCounts(danf, restored);
+
+            danf.close();
+            offHeap.close();
+            restored.close();
+        }
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Checks that stopping the propagation at nodes whose history didn't change
+     * gives the same counters as propagating to depth h
+     */
+    @Test
+    public void testNoChangePruningSameCounts() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 4;
+
+        for (int iteration = 0; iteration < maxIterations / 10; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            DANF pruned = new DANF(h, log2m, graph.copy(), seed);
+            DANF unpruned = new DANF(h, log2m, graph.copy(), seed).withNoChangePruning(false);
+
+            for (int bulk = 0; bulk < 5; bulk++) {
+                Edge[] edges = TestUtils.generateEdges(60, 30);
+                pruned.addEdges(edges);
+                unpruned.addEdges(edges);
+                assertSameCounts(unpruned, pruned);
+            }
+
+            pruned.close();
+            unpruned.close();
+        }
+    }
+
+    @Test
+    public void testPartitionOrdersSameCounts() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 4;
+
+        for (int iteration = 0; iteration < maxIterations / 10; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            DANF[] danfs = new DANF[DANF.PartitionOrder.values().length];
+            for (int i = 0; i < danfs.length; i++) {
+                danfs[i] = new DANF(h, log2m, graph.copy(), seed).withPartitionSize(5).withPartitionOrder(DANF.PartitionOrder.values()[i]);
+            }
+
+            for (int bulk = 0; bulk < 5; bulk++) {
+                Edge[] edges = TestUtils.generateEdges(60, 30);
+                for (DANF danf : danfs) {
+                    danf.addEdges(edges);
+                }
+                for (int i = 1; i < danfs.length; i++) {
+                    assertSameCounts(danfs[0], danfs[i]);
+                }
+            }
+
+            for (DANF danf : danfs) {
+                danf.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the nodes with reach h from another thread while edges are added, and checks
+     * that every count is the one of a completed batch. The counts of every batch are given
+     * by a DANF with the same seed that adds the same edges first.
+     */
+    @Test
+    public void testConcurrentCountsOfCompletedBatches() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 3;
+        final int nrBulks = 20;
+
+        for (int iteration = 0; iteration < maxIterations / 20; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            int numNodes = (int) graph.numNodes();
+            Edge[][] bulks = new Edge[nrBulks][];
+            double[][] expected = new double[nrBulks + 1][numNodes];
+
+            DANF twin = new DANF(h, log2m, graph.copy(), seed);
+            DANF danf = new DANF(h, log2m, graph.copy(), seed);
+            for (int bulk = 0; bulk <= nrBulks; bulk++) {
+                if(bulk > 0) {
+                    bulks[bulk - 1] = TestUtils.generateEdges(60, 30);
+                    twin.addEdges(bulks[bulk - 1]);
+                }
+                for (int node = 0; node < numNodes; node++) {
+                    expected[bulk][node] = twin.count(node, h);
+                }
+            }
+            twin.close();
+
+            int[] completed = new int[1];
+            Object lock = new Object();
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                Random rand = new Random();
+                while(failure.get() == null) {
+                    int before, after;
+                    synchronized (lock) { before = completed[0]; }
+                    int node = rand.nextInt(numNodes);
+                    double count = danf.count(node, h);
+                    synchronized (lock) { after = completed[0]; }
+
+                    boolean found = false;
+                    for (int bulk = before; bulk <= Math.min(after + 1, nrBulks) && !found; bulk++) {
+                        found = expected[bulk][node] == count;
+                    }
+                    if(!found)
+                        failure.set("Node " + node + " counted " + count + " between batch " + before + " and " + after);
+                    if(before == nrBulks)
+                        return;
+                }
+            });
+            reader.start();
+
+            for (int bulk = 0; bulk < nrBulks; bulk++) {
+                danf.addEdges(bulks[bulk]);
+                synchronized (lock) { completed[0] = bulk + 1; }
+            }
+            reader.join();
+            danf.close();
+            assertNull(failure.get(), failure.get());
+        }
+    }
+
+    /**
+     * Checks that the change listener is told exactly the nodes whose count with reach h changed,
+     * and isn't told about batches that changed no count
+     */
+    @Test
+    public void testChangeListenerReportsChangedNodes() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 3;
+
+        for (int iteration = 0; iteration < maxIterations / 10; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            DANF danf = new DANF(h, log2m, graph, seed);
+            List<NodeChanges> reported = new ArrayList<>();
+            danf.addChangeListener(reported::add);
+
+            Edge[] edges = null;
+            for (int bulk = 0; bulk < 5; bulk++) {
+                long nodesBefore = graph.numNodes();
+                double[] before = new double[(int) nodesBefore];
+                for (int node = 0; node < nodesBefore; node++) {
+                    before[node] = danf.count(node, h);
+                }
+
+                edges = TestUtils.generateEdges(60, 20);
+                danf.addEdges(edges);
+                assertTrue(reported.size() <= 1);
+                NodeChanges changes = reported.isEmpty() ? null : reported.remove(0);
+
+                int change = 0;
+                for (int node = 0; node < graph.numNodes(); node++) {
+                    double previous = node < nodesBefore ? before[node] : 0;
+                    double count = danf.count(node, h);
+                    if(previous == count)
+                        continue;
+                    assertNotNull(changes);
+                    assertEquals(node, changes.node(change));
+                    assertEquals(previous, changes.before(change), 0);
+                    assertEquals(count, changes.after(change), 0);
+                    change++;
+                }
+                assertEquals(change, changes == null ? 0 : changes.size());
+            }
+
+            danf.addEdges(edges);
+            assertTrue(reported.isEmpty());
+            danf.close();
+        }
+    }
+
+    /**
+     * Counts the nodes with a lower reach from another thread while edges to many new nodes are
+     * added, so that the counters of the lower levels are moved to their ranks during the batches,
+     * and checks that every count is the one of a completed batch.
+     */
+    @Test
+    public void testConcurrentLowerLevelCountsDuringCompaction() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 3;
+        final int nrBulks = 20;
+        final double notInVertexCover = -1;
+
+        for (int iteration = 0; iteration < maxIterations / 20; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(20);
+            int numNodes = 400;
+            Edge[][] bulks = new Edge[nrBulks][];
+            double[][] expected = new double[nrBulks + 1][numNodes];
+
+            DANF twin = new DANF(h, log2m, graph.copy(), seed);
+            DANF danf = new DANF(h, log2m, graph.copy(), seed);
+            for (int bulk = 0; bulk <= nrBulks; bulk++) {
+                if(bulk > 0) {
+                    bulks[bulk - 1] = TestUtils.generateEdges(numNodes, 40);
+                    twin.addEdges(bulks[bulk - 1]);
+                }
+                for (int node = 0; node < numNodes; node++) {
+                    expected[bulk][node] = twin.getGraph().containsNode(node) && twin.getDynamicVertexCover().isInVertexCover(node) ?
+                            twin.count(node, h - 1) : notInVertexCover;
+                }
+            }
+            twin.close();
+
+            int[] completed = new int[1];
+            Object lock = new Object();
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                Random rand = new Random();
+                while(failure.get() == null) {
+                    int before, after;
+                    synchronized (lock) { before = completed[0]; }
+                    int node = rand.nextInt(numNodes);
+                    double count;
+                    try {
+                        count = danf.count(node, h - 1);
+                    } catch (IllegalArgumentException e) {
+                        count = notInVertexCover;
+                    }
+                    synchronized (lock) { after = completed[0]; }
+
+                    boolean found = false;
+                    for (int bulk = before; bulk <= Math.min(after + 1, nrBulks) && !found; bulk++) {
+                        found = expected[bulk][node] == count;
+                    }
+                    if(!found)
+                        failure.set("Node " + node + " counted " + count + " with reach " + (h - 1) + " between batch " + before + " and " + after);
+                    if(before == nrBulks)
+                        return;
+                }
+            });
+            reader.start();
+
+            for (int bulk = 0; bulk < nrBulks; bulk++) {
+                danf.addEdges(bulks[bulk]);
+                synchronized (lock) { completed[0] = bulk + 1; }
+            }
+            reader.join();
+            danf.close();
+            assertNull(failure.get(), failure.get());
+        }
+    }
+
+    private void assertSameCounts(DANF expected, DANF actual) {
+        assertEquals(expected.getGraph().numNodes(), actual.getGraph().numNodes());
+        for (long node = 0; node < expected.getGraph().numNodes(); node++) {
+            assertEquals(expected.count(node, expected.getMaxH()), actual.count(node, actual.getMaxH()), 0);
+            assertEquals(expected.getDynamicVertexCover().isInVertexCover(node), actual.getDynamicVertexCover().isInVertexCover(node));
+            if(expected.getDynamicVertexCover().isInVertexCover(node))
+                assertArrayEquals(expected.count(node), actual.count(node), 0);
+        }
+    }
 }
@@ -103,6 +103,105 @@ public class EffectPropagationTest {
         }
     }
 
+    /**
+     *
+     * Checks that DANF is the same as HyperBall after edges have been
+     * added to and removed from a simulated graph
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testDANFSameAsHyperBallAfterRemovingEdges() throws IOException {
+        Random rand = new Random();
+        for (int i = 0; i < 50 ; i++) {
+
+            log2m = rand.nextInt(7)+4;
+            h = rand.nextInt(5)+1;
+
+            SimulatedGraph graph = TestUtils.genRandomGraph(maxNumNodes);
+            DANF danf = new DANF(h, log2m, graph, fixedSeed);
+
+            int numEdges = rand.nextInt(maxNumNodes)+1;
+            Edge[] additionalEdges = TestUtils.generateEdges(maxNumNodes,numEdges);
+            danf.addEdges(additionalEdges);
+
+            Edge[] edgesToRemove = new Edge[rand.nextInt(numEdges)+1];
+            for (int j = 0; j < edgesToRemove.length; j++) {
+                edgesToRemove[j] = additionalEdges[rand.nextInt(numEdges)];
+            }
+            danf.removeEdges(edgesToRemove);
+
+            HyperBall hyperBall = new HyperBall(danf.getGraph(), log2m, fixedSeed);
+            hyperBall.run(h);
+            hyperBall.close();
+            for (long node = 0; node < danf.getGraph().numNodes(); node++) {
+                assertEquals("Node " + node, hyperBall.getCounter().count(node), danf.count(node, h), epsilon);
+            }
+            danf.close();
+        }
+    }
+
+    /**
+     *
+     * Checks that every history level is the same as HyperBall when enough nodes
+     * enter and leave the vertex cover for the counters to be compacted
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testDANFSameAsHyperBallAfterCounterCompaction() throws IOException {
+        Random rand = new Random();
+        h = 3;
+        log2m = 6;
+
+        SimulatedGraph graph = TestUtils.genRandomGraph(10);
+        DANF danf = new DANF(h, log2m, graph, fixedSeed);
+        for (int round = 0; round < 5; round++) {
+            Edge[] additionalEdges = TestUtils.generateEdges(3 * maxNumNodes, maxNumNodes);
+            danf.addEdges(additionalEdges);
+
+            Edge[] edgesToRemove = new Edge[maxNumNodes / 2];
+            for (int j = 0; j < edgesToRemove.length; j++) {
+                edgesToRemove[j] = additionalEdges[rand.nextInt(additionalEdges.length)];
+            }
+            danf.removeEdges(edgesToRemove);
+
+            for (int level = 1; level <= h; level++) {
+                HyperBall hyperBall = new HyperBall(danf.getGraph(), log2m, fixedSeed);
+                hyperBall.run(level);
+                hyperBall.close();
+                for (long node = 0; node < danf.getGraph().numNodes(); node++) {
+                    if(level == h || danf.getDynamicVertexCover().isInVertexCover(node))
+                        assertEquals("Node " + node + " at level " + level, hyperBall.getCounter().count(node), danf.count(node, level), epsilon);
+                }
+            }
+        }
+        danf.close();
+    }
+
+    /**
+     * <pre>{@code
+     * 0 -> 1 -> 2 -> 3
+     * }</pre>
+     * Removing 1 -> 2 should shrink the neighborhood of 0 and 1
+     */
+    @Test
+    public void testRemoveEdgeFromPath() throws IOException {
+        h = 3;
+        log2m = 7;
+
+        DANF danf = setupGraphAndRunHyperBall(h, log2m, 3, new Edge(0,1), new Edge(1,2), new Edge(2,3));
+        assertArrayEquals(new double[]{2.0,3.0,3.0}, danf.count(1), epsilon);
+
+        danf.removeEdges(new Edge(1,2));
+
+        assertEquals(2.0, danf.count(0, h), epsilon);
+        assertArrayEquals(new double[]{1.0,1.0,1.0}, danf.count(1), epsilon);
+        assertEquals(2.0, danf.count(2, h), epsilon);
+
+        danf.close();
+    }
+
     @Test
     public void testDanfPropagatePruning() throws IOException {
         long seed = 3901948997029758533L;
@@ -0,0 +1,217 @@
+package it.unimi.dsi.big.webgraph.history;
+
+import it.unimi.dsi.big.webgraph.Edge;
+import it.unimi.dsi.big.webgraph.EdgeBatch;
+import it.unimi.dsi.big.webgraph.SimulatedGraph;
+import it.unimi.dsi.big.webgraph.TestUtils;
+import it.unimi.dsi.big.webgraph.algo.DANF;
+import it.unimi.dsi.big.webgraph.algo.DynamicNeighborhoodFunction;
+import it.unimi.dsi.big.webgraph.algo.IngestionQueue;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Simon Lindhén
+ * @author Johan Nilsson Hansen
+ */
+public class IngestionQueueTest {
+
+    private final long seed = -704687741363554677L;
+
+    /**
+     * Checks that edges added by several threads give the same counts as adding them directly
+     */
+    @Test
+    public void testProducersSameCounts() throws InterruptedException {
+        final int log2m = 6;
+        final int h = 3;
+        final int nrProducers = 4;
+
+        for (int iteration = 0; iteration < 5; iteration++) {
+            SimulatedGraph graph = TestUtils.genRandomGraph(50);
+            DANF expected = new DANF(h, log2m, graph.copy(), seed);
+            DANF danf = new DANF(h, log2m, graph.copy(), seed).withPartitionSize(16);
+            IngestionQueue queue = new IngestionQueue(danf, 32).withMaxDelay(1, TimeUnit.MILLISECONDS);
+
+            Edge[][] edges = new Edge[nrProducers][];
+            Thread[] producers = new Thread[nrProducers];
+            for (int i = 0; i < nrProducers; i++) {
+                edges[i] = TestUtils.generateEdges(60, 200);
+                expected.addEdges(edges[i]);
+                Edge[] producerEdges = edges[i];
+                producers[i] = new Thread(() -> {
+                    try {
+                        for (Edge edge : producerEdges) {
+                            queue.put(edge.from, edge.to);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            queue.flush();
+            assertEquals(nrProducers * 200, queue.getNumInsertedEdges());
+            assertEquals(0, queue.size());
+
+            assertEquals(expected.getGraph().numNodes(), danf.getGraph().numNodes());
+            for (long node = 0; node < expected.getGraph().numNodes(); node++) {
+                assertEquals(expected.count(node, h), danf.count(node, h), 0);
+            }
+
+            queue.close();
+            expected.close();
+            danf.close();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        BlockingFunction function = new BlockingFunction();
+        IngestionQueue queue = new IngestionQueue(function, 4, 2).withMaxDelay(0, TimeUnit.MILLISECONDS);
+
+        queue.put(EdgeBatch.of(new Edge(0, 1), new Edge(1, 2)));
+        assertTrue(function.started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i, i + 1));
+        }
+        assertFalse(queue.offer(5, 6));
+        assertFalse(queue.offer(5, 6, 10, TimeUnit.MILLISECONDS));
+        assertEquals(4, queue.size());
+
+        function.release.countDown();
+        queue.put(5, 6);
+        queue.flush();
+        assertEquals(7, queue.getNumInsertedEdges());
+        assertEquals(7, function.numEdges);
+        assertTrue(queue.getNumBatches() >= 4);
+        queue.close();
+    }
+
+    /**
+     * Checks that edges left in the queue after a group was taken are inserted when they have waited
+     * the max delay since they were added, and not since the group was taken
+     */
+    @Test
+    public void testMaxDelayFromArrival() throws InterruptedException {
+        final long maxDelayMillis = 500;
+        BlockingFunction function = new BlockingFunction();
+        IngestionQueue queue = new IngestionQueue(function, 32, 4).withMaxDelay(maxDelayMillis, TimeUnit.MILLISECONDS);
+
+        queue.put(TestUtils.generateEdges(10, 4));
+        assertTrue(function.started.await(10, TimeUnit.SECONDS));
+        long added = System.nanoTime();
+        queue.put(TestUtils.generateEdges(10, 6));
+
+        /* The second group is taken when the first is inserted, and the last two edges are left */
+        Thread.sleep(maxDelayMillis * 4 / 5);
+        function.release.countDown();
+        while(queue.getNumInsertedEdges() < 10) {
+            Thread.sleep(1);
+        }
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - added);
+        assertTrue("The last edges waited " + waitedMillis + " ms", waitedMillis < maxDelayMillis * 3 / 2);
+        assertEquals(3, queue.getNumBatches());
+        queue.close();
+    }
+
+    @Test
+    public void testFailedInsertionClosesQueue() throws InterruptedException {
+        BlockingFunction function = new BlockingFunction();
+        function.fail = true;
+        function.release.countDown();
+        IngestionQueue queue = new IngestionQueue(function, 4, 2);
+
+        queue.put(0, 1);
+        try {
+            queue.flush();
+            fail("The failed insertion wasn't reported");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed", e.getCause().getMessage());
+        }
+        try {
+            queue.put(1, 2);
+            fail("Edges were added to a failed queue");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorInInsertionClosesQueue() throws InterruptedException {
+        BlockingFunction function = new BlockingFunction();
+        function.error = true;
+        function.release.countDown();
+        IngestionQueue queue = new IngestionQueue(function, 4, 2);
+
+        queue.put(0, 1);
+        try {
+            queue.flush();
+            fail("The error wasn't reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        try {
+            queue.close();
+            fail("The error wasn't reported by close");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    /**
+     * Counts the inserted edges, and waits to insert until released
+     */
+    private static class BlockingFunction implements DynamicNeighborhoodFunction {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean fail = false;
+        private volatile boolean error = false;
+        private volatile int numEdges = 0;
+
+        @Override
+        public void addEdges(Edge... edges) {
+            addEdges(EdgeBatch.of(edges));
+        }
+
+        @Override
+        public void addEdges(EdgeBatch edges) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if(fail)
+                throw new RuntimeException("Failed");
+            if(error)
+                throw new AssertionError("Failed");
+            numEdges += edges.size();
+        }
+
+        @Override
+        public void removeEdges(Edge... edges) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public long getMemoryUsageBytes() {
+            return 0;
+        }
+    }
+}